@@ -0,0 +1,96 @@
+package com.javaigua.stocks.benchmarks;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.pattern.PatternsCS;
+import akka.util.Timeout;
+
+import com.typesafe.config.ConfigFactory;
+
+import com.javaigua.stocks.Domain.Stock;
+import com.javaigua.stocks.Domain.Stocks;
+import com.javaigua.stocks.actors.StockRegistryActor;
+import com.javaigua.stocks.actors.StockRegistryMessages;
+
+/**
+ * Time to list every stock of a local registry of 1k, 10k and 100k stocks, in a single
+ * partition and split into 16.
+ *
+ * The read model of a registry is only copied into a list of stocks after it changed,
+ * so a stock is updated before every rebuilt listing, while cached listings share the
+ * last copy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AggregateBenchmark {
+
+  static final int CHUNK = 10000;
+
+  @Param({"1000", "10000", "100000"})
+  public int stocks;
+
+  @Param({"1", "16"})
+  public int partitions;
+
+  private final Timeout timeout = new Timeout(Duration.create(10, TimeUnit.SECONDS));
+
+  private ActorSystem system;
+  private ActorRef stockRegistryActor;
+  private int updates;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    System.setProperty("akka.actor.provider", "local");
+    System.setProperty("application.persistence.enabled", "off");
+    System.setProperty("application.snapshot-file.enabled", "off");
+    ConfigFactory.invalidateCaches();
+
+    system = ActorSystem.create("stocks-benchmark");
+    stockRegistryActor = system.actorOf(StockRegistryActor.props(partitions), "stockRegistryActor");
+    for (int from = 0; from < stocks; from += CHUNK) { // batches held within the batch timeout
+      final List<Stock> chunk = new ArrayList<>(CHUNK);
+      for (int id = from; id < Math.min(from + CHUNK, stocks); id++)
+        chunk.add(new Stock(id, "stock" + id, 1d, Instant.now()));
+      PatternsCS.ask(stockRegistryActor, new StockRegistryMessages.CreateStocks(chunk), timeout)
+        .toCompletableFuture().get();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    Await.result(system.terminate(), Duration.Inf());
+  }
+
+  @Benchmark
+  public Stocks rebuilt() throws Exception {
+    final int id = updates++ % stocks;
+    PatternsCS.ask(stockRegistryActor,
+      new StockRegistryMessages.UpdateStock(new Stock(id, null, (double) updates, null)), timeout)
+      .toCompletableFuture().get();
+    return list();
+  }
+
+  @Benchmark
+  public Stocks cached() throws Exception {
+    return list();
+  }
+
+  private Stocks list() throws Exception {
+    return (Stocks) PatternsCS.ask(stockRegistryActor, new StockRegistryMessages.GetStocks(), timeout)
+      .toCompletableFuture().get();
+  }
+}
@@ -0,0 +1,21 @@
+package com.javaigua.stocks.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Main entry point of the benchmarks jar.
+ *
+ * Runs JMH with the given arguments, writing results as JSON to jmh-result.json unless
+ * another result format or file is given, so results of different builds can be compared.
+ */
+public class Benchmarks {
+
+  public static void main(String[] args) throws Exception {
+    final List<String> arguments = new ArrayList<>(Arrays.asList(args));
+    if (!arguments.contains("-rf") && !arguments.contains("-rff"))
+      arguments.addAll(Arrays.asList("-rf", "json", "-rff", "jmh-result.json"));
+    org.openjdk.jmh.Main.main(arguments.toArray(new String[0]));
+  }
+}
@@ -0,0 +1,96 @@
+package com.javaigua.stocks.benchmarks;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import akka.util.ByteString;
+
+import com.javaigua.stocks.Domain.Stock;
+import com.javaigua.stocks.Domain.Stocks;
+import com.javaigua.stocks.api.StockJsonCodec;
+
+/**
+ * Encode and decode times of the JSON of stocks, with Jackson the way its marshallers do
+ * it, values written to a String then to UTF-8 bytes and request bodies read back from a
+ * String, and with the StockJsonCodec the routes use, straight from and to bytes.
+ *
+ * A stock and a list of 1000 stocks are encoded as responses are, with their last update,
+ * and decoded as requests are, without it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+  static final int STOCKS = 1000;
+
+  @Param({"jackson", "codec"})
+  public String codec;
+
+  // the mapper of Jackson.marshaller() and Jackson.unmarshaller()
+  private final ObjectMapper mapper = new ObjectMapper().enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY);
+
+  private Stock stock;
+  private Stocks stocks;
+  private ByteString stockRequest;
+  private ByteString stocksRequest;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    stock = new Stock(42, "ACME", 123.45, Instant.now());
+    final List<Stock> list = new ArrayList<>(STOCKS);
+    final StringBuilder request = new StringBuilder("[");
+    for (int id = 0; id < STOCKS; id++) {
+      list.add(new Stock(id, "stock" + id, id * 1.5, Instant.now()));
+      request.append(id > 0 ? "," : "").append(body(id, "stock" + id, id * 1.5));
+    }
+    stocks = new Stocks(list);
+    stockRequest = ByteString.fromString(body(42, "ACME", 123.45));
+    stocksRequest = ByteString.fromString(request.append("]").toString());
+  }
+
+  private static String body(int id, String name, double price) {
+    return String.format("{\"id\": %d, \"name\": \"%s\", \"currentPrice\": %s}", id, name, price);
+  }
+
+  @Benchmark
+  public ByteString encodeStock() throws IOException {
+    if ("codec".equals(codec))
+      return StockJsonCodec.encode(stock);
+    return ByteString.fromString(mapper.writeValueAsString(stock));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(STOCKS)
+  public ByteString encodeStocks() throws IOException {
+    if ("codec".equals(codec))
+      return StockJsonCodec.encodeStocks(stocks);
+    return ByteString.fromString(mapper.writeValueAsString(stocks));
+  }
+
+  @Benchmark
+  public Stock decodeStock() throws IOException {
+    if ("codec".equals(codec))
+      return StockJsonCodec.decodeStock(stockRequest);
+    return mapper.readValue(stockRequest.utf8String(), Stock.class);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(STOCKS)
+  public Stock[] decodeStocks() throws IOException {
+    if ("codec".equals(codec))
+      return StockJsonCodec.decodeStocks(stocksRequest);
+    return mapper.readValue(stocksRequest.utf8String(), Stock[].class);
+  }
+}
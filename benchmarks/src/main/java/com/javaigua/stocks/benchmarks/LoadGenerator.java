@@ -0,0 +1,232 @@
+package com.javaigua.stocks.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+/**
+ * A load generator driving the stock routes of a running StocksServer over http.
+ *
+ * Requests are a weighted mix of GET, POST, PUT and DELETE of stocks, with ids drawn at
+ * random from a key space seeded before the run. In the open loop mode requests are due
+ * at a fixed rate, whatever the latency of the server, and their latency is measured from
+ * the time they were due, so requests queued behind slow ones count their wait, free of
+ * coordinated omission. In the closed loop mode a fixed number of clients send requests
+ * back to back, which measures the latency of the server at its saturation throughput.
+ *
+ * Latencies are recorded in HdrHistograms, to the microsecond with 3 significant digits,
+ * and reported per request method once the run ends. Settings are read from load.conf,
+ * and are overridden by system properties, e.g. -Dload.rate=5000.
+ */
+public class LoadGenerator {
+
+  enum Method { GET, POST, PUT, DELETE }
+
+  private static final long HIGHEST_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+  private final String baseUrl;
+  private final int stocks;
+  private final int timeoutMillis;
+  // methods repeated by their weight, drawn at random
+  private final Method[] mix;
+  private final Map<Method, Histogram> latencies = new EnumMap<>(Method.class);
+  private final Map<Method, LongAdder> errors = new EnumMap<>(Method.class);
+  // requests due before this time are not recorded
+  private long recordFrom;
+
+  public LoadGenerator(Config config) {
+    this.baseUrl = String.format("http://%s:%d/stocks", config.getString("host"), config.getInt("port"));
+    this.stocks = config.getInt("stocks");
+    this.timeoutMillis = (int) config.getDuration("timeout", TimeUnit.MILLISECONDS);
+    final List<Method> mix = new ArrayList<>();
+    for (Method method : Method.values()) {
+      for (int i = 0; i < config.getInt("mix." + method.name().toLowerCase()); i++)
+        mix.add(method);
+      latencies.put(method, new ConcurrentHistogram(HIGHEST_LATENCY_MICROS, 3));
+      errors.put(method, new LongAdder());
+    }
+    if (mix.isEmpty())
+      throw new IllegalArgumentException("The request mix has no weight");
+    this.mix = mix.toArray(new Method[0]);
+  }
+
+  public static void main(String[] args) throws Exception {
+    final Config config = ConfigFactory.load("load").getConfig("load");
+    // idle keep-alive connections kept for reuse, one per concurrent request
+    System.setProperty("http.maxConnections", String.valueOf(config.getInt("connections")));
+
+    final LoadGenerator generator = new LoadGenerator(config);
+    if (config.getBoolean("seed"))
+      generator.seed();
+    final long warmup = config.getDuration("warmup", TimeUnit.NANOSECONDS);
+    final long duration = config.getDuration("duration", TimeUnit.NANOSECONDS);
+    final long start = System.nanoTime();
+    generator.recordFrom = start + warmup;
+    if ("open".equals(config.getString("mode")))
+      generator.openLoop(start, start + warmup + duration, config.getDouble("rate"), config.getInt("connections"));
+    else
+      generator.closedLoop(start + warmup + duration, config.getInt("connections"));
+    generator.report(duration);
+  }
+
+  /**
+   * Creates every stock of the key space, in batches.
+   */
+  void seed() throws IOException {
+    final int batch = 1000;
+    for (int from = 1; from <= stocks; from += batch) {
+      final StringBuilder body = new StringBuilder("[");
+      for (int id = from; id < Math.min(from + batch, stocks + 1); id++)
+        body.append(id > from ? "," : "").append(stock(id, ThreadLocalRandom.current()));
+      int status = request("POST", baseUrl + "/batch", body.append("]").toString());
+      if (status >= 300)
+        throw new IOException("Could not seed stocks, status " + status);
+    }
+    System.out.println(String.format("Seeded %d stocks", stocks));
+  }
+
+  /**
+   * Sends requests due at a fixed rate until the given time, from the given number of
+   * connections; requests due while every connection is busy wait for one.
+   */
+  void openLoop(long start, long end, double rate, int connections) throws InterruptedException {
+    final ExecutorService senders = Executors.newFixedThreadPool(connections);
+    for (long i = 0; ; i++) {
+      final long due = start + (long) (i * TimeUnit.SECONDS.toNanos(1) / rate);
+      if (due >= end)
+        break;
+      for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime())
+        LockSupport.parkNanos(wait);
+      senders.execute(() -> send(due));
+    }
+    senders.shutdown();
+    senders.awaitTermination(1, TimeUnit.HOURS); // requests due before the end are all measured
+  }
+
+  /**
+   * Sends requests back to back from the given number of clients until the given time.
+   */
+  void closedLoop(long end, int clients) throws InterruptedException {
+    final List<Thread> threads = new ArrayList<>(clients);
+    for (int i = 0; i < clients; i++) {
+      Thread thread = new Thread(() -> {
+        while (System.nanoTime() < end)
+          send(System.nanoTime());
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads)
+      thread.join();
+  }
+
+  /**
+   * Sends a request of the mix, recording its latency from the time it was due.
+   */
+  private void send(long due) {
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    final Method method = mix[random.nextInt(mix.length)];
+    final int id = 1 + random.nextInt(stocks);
+    boolean failed;
+    try {
+      switch (method) {
+        case GET:
+          failed = request("GET", baseUrl + "/" + id, null) >= 500;
+          break;
+        case POST:
+          failed = request("POST", baseUrl, stock(id, random)) >= 500;
+          break;
+        case PUT:
+          failed = request("PUT", baseUrl + "/" + id,
+            String.format(Locale.ROOT, "{\"currentPrice\": %.2f}", random.nextDouble(1, 1000))) >= 500;
+          break;
+        default:
+          failed = request("DELETE", baseUrl + "/" + id, null) >= 500;
+      }
+    } catch (IOException e) {
+      failed = true;
+    }
+    if (due < recordFrom)
+      return;
+    latencies.get(method).recordValue(
+      Math.min(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - due), HIGHEST_LATENCY_MICROS));
+    if (failed)
+      errors.get(method).increment();
+  }
+
+  /**
+   * Sends a request and reads its whole response, so its connection is kept alive.
+   *
+   * @return the status of the response
+   */
+  private int request(String method, String url, String body) throws IOException {
+    final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setRequestMethod(method);
+    connection.setConnectTimeout(timeoutMillis);
+    connection.setReadTimeout(timeoutMillis);
+    if (body != null) {
+      connection.setDoOutput(true);
+      connection.setRequestProperty("Content-Type", "application/json");
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(body.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    final int status = connection.getResponseCode();
+    try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+      final byte[] buffer = new byte[4096];
+      if (in != null)
+        while (in.read(buffer) >= 0);
+    }
+    return status;
+  }
+
+  private static String stock(int id, ThreadLocalRandom random) {
+    return String.format(Locale.ROOT, "{\"id\": %d, \"name\": \"STK%d\", \"currentPrice\": %.2f}", id, id, random.nextDouble(1, 1000));
+  }
+
+  /**
+   * Prints the throughput, errors and latency percentiles of every method, and of all of them.
+   */
+  void report(long duration) {
+    final Histogram all = new Histogram(HIGHEST_LATENCY_MICROS, 3);
+    long failed = 0;
+    System.out.println(String.format("%n%-8s %10s %8s %10s %10s %10s %10s %10s",
+      "method", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+    for (Method method : Method.values()) {
+      all.add(latencies.get(method));
+      failed += errors.get(method).sum();
+      print(method.name(), latencies.get(method), errors.get(method).sum(), duration);
+    }
+    print("all", all, failed, duration);
+  }
+
+  private static void print(String name, Histogram histogram, long errors, long duration) {
+    System.out.println(String.format("%-8s %10d %8d %10.1f %10.3f %10.3f %10.3f %10.3f",
+      name, histogram.getTotalCount(), errors,
+      histogram.getTotalCount() * (double) TimeUnit.SECONDS.toNanos(1) / duration,
+      histogram.getValueAtPercentile(50) / 1000d,
+      histogram.getValueAtPercentile(99) / 1000d,
+      histogram.getValueAtPercentile(99.9) / 1000d,
+      histogram.getMaxValue() / 1000d));
+  }
+}
@@ -0,0 +1,104 @@
+package com.javaigua.stocks.benchmarks;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.pattern.PatternsCS;
+import akka.util.Timeout;
+
+import com.typesafe.config.ConfigFactory;
+
+import com.javaigua.stocks.Domain.Stock;
+import com.javaigua.stocks.actors.StockRegistryActor;
+import com.javaigua.stocks.actors.StockRegistryMessages;
+
+/**
+ * Latency distribution of single stock updates while other threads list every stock of
+ * a local registry of 100k stocks, with every role on the default dispatcher and on its
+ * own dispatcher.
+ *
+ * Every update invalidates the listing cached by the registry, so listings keep merging
+ * the stocks of every partition. With a shared dispatcher those merges hold the threads
+ * updates need, which shows in the high percentiles of updates; with dedicated ones they
+ * only hold the aggregation dispatcher.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MixedWorkloadBenchmark {
+
+  static final String[] ROLES = {"http", "registry", "stock", "aggregation", "io"};
+
+  @Param({"shared", "dedicated"})
+  public String dispatchers;
+
+  @Param({"100000"})
+  public int stocks;
+
+  private final Timeout timeout = new Timeout(Duration.create(10, TimeUnit.SECONDS));
+
+  private ActorSystem system;
+  private ActorRef stockRegistryActor;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    System.setProperty("akka.actor.provider", "local");
+    System.setProperty("application.persistence.enabled", "off");
+    System.setProperty("application.snapshot-file.enabled", "off");
+    for (String role : ROLES) {
+      if ("shared".equals(dispatchers))
+        System.setProperty("application.dispatchers." + role, "akka.actor.default-dispatcher");
+      else
+        System.clearProperty("application.dispatchers." + role);
+    }
+    ConfigFactory.invalidateCaches();
+
+    system = ActorSystem.create("stocks-benchmark");
+    stockRegistryActor = system.actorOf(StockRegistryActor.props(), "stockRegistryActor");
+    final List<Stock> batch = new ArrayList<>(10000);
+    for (int id = 0; id < stocks; id++) {
+      batch.add(new Stock(id, "stock" + id, 1d, Instant.now()));
+      if (batch.size() == 10000 || id == stocks - 1) {
+        PatternsCS.ask(stockRegistryActor, new StockRegistryMessages.CreateStocks(new ArrayList<>(batch)), timeout)
+          .toCompletableFuture().get();
+        batch.clear();
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    Await.result(system.terminate(), Duration.Inf());
+  }
+
+  @Benchmark
+  @Group("mixed")
+  @GroupThreads(2)
+  public Object listings() throws Exception {
+    return PatternsCS.ask(stockRegistryActor, new StockRegistryMessages.GetStocks(), timeout)
+      .toCompletableFuture().get();
+  }
+
+  @Benchmark
+  @Group("mixed")
+  @GroupThreads(8)
+  public Object updates() throws Exception {
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    return PatternsCS.ask(stockRegistryActor,
+      new StockRegistryMessages.UpdateStock(new Stock(random.nextInt(stocks), null, random.nextDouble(1, 1000), null)),
+      timeout).toCompletableFuture().get();
+  }
+}
@@ -0,0 +1,94 @@
+package com.javaigua.stocks.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.pattern.PatternsCS;
+import akka.util.Timeout;
+
+import com.typesafe.config.ConfigFactory;
+
+import com.javaigua.stocks.Domain.Stock;
+import com.javaigua.stocks.actors.StockRegistryActor;
+import com.javaigua.stocks.actors.StockRegistryMessages;
+
+/**
+ * Throughput of stock updates through the registry, with stock events persisted
+ * to the LevelDB journal and kept in memory only.
+ *
+ * Every invocation sends a batch of updates spread over a fixed set of stocks and
+ * waits for all of them to be acknowledged, so persisted updates of different
+ * stocks are written concurrently, as they are in the application.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PersistenceBenchmark {
+
+  static final int STOCKS = 100;
+  static final int BATCH = 1000;
+
+  @Param({"off", "on"})
+  public String persistence;
+
+  private final Timeout timeout = new Timeout(Duration.create(10, TimeUnit.SECONDS));
+
+  private Path dataDir;
+  private ActorSystem system;
+  private ActorRef stockRegistryActor;
+  private long invocations;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    dataDir = Files.createTempDirectory("stocks-benchmark");
+    System.setProperty("akka.actor.provider", "local");
+    System.setProperty("application.persistence.enabled", persistence);
+    System.setProperty("application.snapshot-file.enabled", "off");
+    System.setProperty("akka.persistence.journal.leveldb.dir", dataDir.resolve("journal").toString());
+    System.setProperty("akka.persistence.snapshot-store.local.dir", dataDir.resolve("snapshots").toString());
+    ConfigFactory.invalidateCaches();
+
+    system = ActorSystem.create("stocks-benchmark");
+    stockRegistryActor = system.actorOf(StockRegistryActor.props(), "stockRegistryActor");
+    for (int id = 0; id < STOCKS; id++)
+      PatternsCS.ask(stockRegistryActor,
+        new StockRegistryMessages.CreateStock(new Stock(id, "stock" + id, 1d, null)), timeout)
+        .toCompletableFuture().get();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    Await.result(system.terminate(), Duration.Inf());
+    try {
+      Files.walk(dataDir).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    } catch (IOException e) {
+      // a temp dir left behind is harmless
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public void updates() throws Exception {
+    final CompletableFuture<?>[] acks = new CompletableFuture<?>[BATCH];
+    final double price = ++invocations;
+    for (int i = 0; i < BATCH; i++)
+      acks[i] = PatternsCS.ask(stockRegistryActor,
+        new StockRegistryMessages.UpdateStock(new Stock(i % STOCKS, null, price, null)), timeout)
+        .toCompletableFuture();
+    CompletableFuture.allOf(acks).get();
+  }
+}
@@ -0,0 +1,131 @@
+package com.javaigua.stocks.benchmarks;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.*;
+
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.pattern.PatternsCS;
+import akka.util.Timeout;
+
+import com.typesafe.config.ConfigFactory;
+
+import com.javaigua.stocks.Domain.Stock;
+import com.javaigua.stocks.actors.StockRegistryActor;
+import com.javaigua.stocks.actors.StockRegistryMessages;
+
+/**
+ * Throughput of stock creates, updates and lookups through a local registry split into
+ * 1, 4, 16 and 64 partitions, which shows how far the registry scales with the cores of
+ * the machine, with stocks kept by stock actors and in columns of the registry only.
+ *
+ * Every invocation sends a batch of messages spread over many stocks, from as many
+ * threads as there are cores, and waits for all of them to be answered. Created stocks
+ * are deleted in the same invocation, so the registry keeps its size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Threads(Threads.MAX)
+@Fork(1)
+public class RegistryBenchmark {
+
+  static final int STOCKS = 10000;
+  static final int BATCH = 1000;
+
+  @Param({"1", "4", "16", "64"})
+  public int partitions;
+
+  @Param({"actors", "columnar"})
+  public String backend;
+
+  private final Timeout timeout = new Timeout(Duration.create(10, TimeUnit.SECONDS));
+
+  private ActorSystem system;
+  private ActorRef stockRegistryActor;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    System.setProperty("akka.actor.provider", "local");
+    System.setProperty("application.persistence.enabled", "off");
+    System.setProperty("application.snapshot-file.enabled", "off");
+    // every thread asks a batch at once, more than a registry mailbox holds before shedding
+    System.setProperty("registry-mailbox.capacity", "0");
+    System.setProperty("stock-mailbox.capacity", "0");
+    ConfigFactory.invalidateCaches();
+
+    system = ActorSystem.create("stocks-benchmark");
+    stockRegistryActor = system.actorOf(StockRegistryActor.props(partitions, backend), "stockRegistryActor");
+    final List<Stock> stocks = new ArrayList<>(STOCKS);
+    for (int id = 0; id < STOCKS; id++)
+      stocks.add(new Stock(id, "stock" + id, 1d, Instant.now()));
+    PatternsCS.ask(stockRegistryActor, new StockRegistryMessages.CreateStocks(stocks), timeout)
+      .toCompletableFuture().get();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    Await.result(system.terminate(), Duration.Inf());
+  }
+
+  @State(Scope.Thread)
+  public static class Ids {
+    private static final AtomicInteger threads = new AtomicInteger();
+
+    int next = (int) (Math.random() * STOCKS);
+    // ids of created stocks, unique to every thread
+    final int created = STOCKS + threads.getAndIncrement() * BATCH;
+
+    int next() {
+      next = (next + 7919) % STOCKS; // a prime stride visits every stock
+      return next;
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(2 * BATCH)
+  public void createsAndDeletes(Ids ids) throws Exception {
+    final CompletableFuture<?>[] replies = new CompletableFuture<?>[BATCH];
+    for (int i = 0; i < BATCH; i++)
+      replies[i] = PatternsCS.ask(stockRegistryActor,
+        new StockRegistryMessages.CreateStock(new Stock(ids.created + i, "stock", 1d, null)), timeout)
+        .toCompletableFuture();
+    CompletableFuture.allOf(replies).get();
+    for (int i = 0; i < BATCH; i++)
+      replies[i] = PatternsCS.ask(stockRegistryActor, new StockRegistryMessages.DeleteStock(ids.created + i), timeout)
+        .toCompletableFuture();
+    CompletableFuture.allOf(replies).get();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public void updates(Ids ids) throws Exception {
+    final CompletableFuture<?>[] replies = new CompletableFuture<?>[BATCH];
+    for (int i = 0; i < BATCH; i++)
+      replies[i] = PatternsCS.ask(stockRegistryActor,
+        new StockRegistryMessages.UpdateStock(new Stock(ids.next(), null, (double) i, null)), timeout)
+        .toCompletableFuture();
+    CompletableFuture.allOf(replies).get();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public void lookups(Ids ids) throws Exception {
+    final CompletableFuture<?>[] replies = new CompletableFuture<?>[BATCH];
+    for (int i = 0; i < BATCH; i++)
+      replies[i] = PatternsCS.ask(stockRegistryActor, new StockRegistryMessages.GetStock(ids.next()), timeout)
+        .toCompletableFuture();
+    CompletableFuture.allOf(replies).get();
+  }
+}
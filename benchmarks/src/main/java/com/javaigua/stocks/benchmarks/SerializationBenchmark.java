@@ -0,0 +1,93 @@
+package com.javaigua.stocks.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.javaigua.stocks.Domain.Stock;
+import com.javaigua.stocks.actors.StockRegistryMessages;
+import com.javaigua.stocks.serialization.StockMessageSerializer;
+
+/**
+ * Encode and decode times of stock messages with the binary stock serializer and
+ * with java serialization, which remote messages fell back to before.
+ *
+ * The bytes per message of both serializers are printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+  @Param({"CreateStock", "GetStock", "ActionPerformed", "StockUpdated"})
+  public String message;
+
+  private final StockMessageSerializer serializer = new StockMessageSerializer();
+
+  private Object value;
+  private String manifest;
+  private byte[] stockBytes;
+  private byte[] javaBytes;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException, ClassNotFoundException {
+    final Stock stock = new Stock(42, "ACME", 123.45, Instant.now());
+    switch (message) {
+      case "CreateStock":
+        value = new StockRegistryMessages.CreateStock(stock);
+        break;
+      case "GetStock":
+        value = new StockRegistryMessages.GetStock(42);
+        break;
+      case "ActionPerformed":
+        value = new StockRegistryMessages.ActionPerformed("Stock 42 updated.");
+        break;
+      default:
+        value = new StockRegistryMessages.StockUpdated(stock);
+    }
+    manifest = serializer.manifest(value);
+    stockBytes = serializer.toBinary(value);
+    javaBytes = javaEncode(value);
+    System.out.printf("%n%s: %d bytes with the stock serializer, %d bytes with java serialization%n",
+      message, stockBytes.length, javaBytes.length);
+  }
+
+  @Benchmark
+  public byte[] stockEncode() {
+    return serializer.toBinary(value);
+  }
+
+  @Benchmark
+  public Object stockDecode() throws Exception {
+    return serializer.fromBinary(stockBytes, manifest);
+  }
+
+  @Benchmark
+  public byte[] javaEncode() throws IOException {
+    return javaEncode(value);
+  }
+
+  @Benchmark
+  public Object javaDecode() throws IOException, ClassNotFoundException {
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(javaBytes))) {
+      return in.readObject();
+    }
+  }
+
+  private static byte[] javaEncode(Object value) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(value);
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -1,5 +1,6 @@
 package com.javaigua.stocks;
 
+import java.io.Serializable;
 import java.time.Instant;
 import java.util.List;
 import java.util.ArrayList;
@@ -12,7 +13,7 @@ public class Domain {
   /**
    * A representation of the information and actions of a Stock.
    */
-  public static class Stock {
+  public static class Stock implements Serializable {
     private final Integer id;
     private final String name;
     private final Double currentPrice;
@@ -97,7 +98,7 @@ public class Domain {
   /**
    * A representation of a collection of stocks.
    */
-  public static class Stocks{
+  public static class Stocks implements Serializable {
     private final List<Stock> stocks;
 
     public Stocks() {
@@ -113,4 +114,208 @@ public class Domain {
     }
   }
 
+  /**
+   * A representation of a page of stocks, and the cursor of the next page, null on the last one.
+   */
+  public static class StocksPage implements Serializable {
+    private final List<Stock> stocks;
+    private final String next;
+
+    public StocksPage() {
+      this(new ArrayList<>(), null);
+    }
+
+    public StocksPage(List<Stock> stocks, String next) {
+      this.stocks = stocks;
+      this.next = next;
+    }
+
+    public List<Stock> getStocks() {
+      return stocks;
+    }
+
+    public String getNext() {
+      return next;
+    }
+  }
+
+  /**
+   * A representation of the stocks that moved the most, and their percent changes since
+   * their open prices, as parallel lists, first mover first.
+   */
+  public static class Movers implements Serializable {
+    private final String by;
+    private final List<Stock> stocks;
+    private final List<Double> changes;
+
+    public Movers() {
+      this(null, new ArrayList<>(), new ArrayList<>());
+    }
+
+    public Movers(String by, List<Stock> stocks, List<Double> changes) {
+      this.by = by;
+      this.stocks = stocks;
+      this.changes = changes;
+    }
+
+    public String getBy() {
+      return by;
+    }
+
+    public List<Stock> getStocks() {
+      return stocks;
+    }
+
+    public List<Double> getChanges() {
+      return changes;
+    }
+  }
+
+  /**
+   * A representation of market-wide statistics: the number of stocks, and of those with a
+   * price, their lowest, highest and average prices, null without any, and the number of
+   * updates of the last minute.
+   */
+  public static class StockStats implements Serializable {
+    private final long count;
+    private final long priced;
+    private final Double minPrice;
+    private final Double maxPrice;
+    private final Double averagePrice;
+    private final long updatesLastMinute;
+
+    public StockStats() {
+      this(0, 0, null, null, null, 0);
+    }
+
+    public StockStats(long count, long priced, Double minPrice, Double maxPrice, Double averagePrice,
+        long updatesLastMinute) {
+      this.count = count;
+      this.priced = priced;
+      this.minPrice = minPrice;
+      this.maxPrice = maxPrice;
+      this.averagePrice = averagePrice;
+      this.updatesLastMinute = updatesLastMinute;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getPriced() {
+      return priced;
+    }
+
+    public Double getMinPrice() {
+      return minPrice;
+    }
+
+    public Double getMaxPrice() {
+      return maxPrice;
+    }
+
+    public Double getAveragePrice() {
+      return averagePrice;
+    }
+
+    public long getUpdatesLastMinute() {
+      return updatesLastMinute;
+    }
+  }
+
+  /**
+   * A representation of the price history of a stock, as parallel arrays of
+   * epoch millis and prices, oldest first.
+   */
+  public static class PriceHistory implements Serializable {
+    private final Integer id;
+    private final long[] timestamps;
+    private final double[] prices;
+
+    public PriceHistory() {
+      this(0, new long[0], new double[0]);
+    }
+
+    public PriceHistory(Integer id, long[] timestamps, double[] prices) {
+      this.id = id;
+      this.timestamps = timestamps;
+      this.prices = prices;
+    }
+
+    public Integer getId() {
+      return id;
+    }
+
+    public long[] getTimestamps() {
+      return timestamps;
+    }
+
+    public double[] getPrices() {
+      return prices;
+    }
+  }
+
+  /**
+   * A representation of the latest open/high/low/close candles of a stock at an
+   * interval, as parallel arrays, oldest first.
+   */
+  public static class Candles implements Serializable {
+    private final Integer id;
+    private final long intervalMillis;
+    private final long[] starts;
+    private final double[] opens;
+    private final double[] highs;
+    private final double[] lows;
+    private final double[] closes;
+    private final int[] ticks;
+
+    public Candles() {
+      this(0, 0, new long[0], new double[0], new double[0], new double[0], new double[0], new int[0]);
+    }
+
+    public Candles(Integer id, long intervalMillis, long[] starts, double[] opens, double[] highs,
+        double[] lows, double[] closes, int[] ticks) {
+      this.id = id;
+      this.intervalMillis = intervalMillis;
+      this.starts = starts;
+      this.opens = opens;
+      this.highs = highs;
+      this.lows = lows;
+      this.closes = closes;
+      this.ticks = ticks;
+    }
+
+    public Integer getId() {
+      return id;
+    }
+
+    public long getIntervalMillis() {
+      return intervalMillis;
+    }
+
+    public long[] getStarts() {
+      return starts;
+    }
+
+    public double[] getOpens() {
+      return opens;
+    }
+
+    public double[] getHighs() {
+      return highs;
+    }
+
+    public double[] getLows() {
+      return lows;
+    }
+
+    public double[] getCloses() {
+      return closes;
+    }
+
+    public int[] getTicks() {
+      return ticks;
+    }
+  }
+
 }
@@ -0,0 +1,132 @@
+package com.javaigua.stocks.actors;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import com.javaigua.stocks.Domain.Candles;
+import com.javaigua.stocks.Domain.PriceHistory;
+import com.javaigua.stocks.Domain.Stock;
+import com.javaigua.stocks.store.CandleSeries;
+
+/**
+ * A local registry whose stocks are only kept in its read model.
+ *
+ * It keeps no stock actors at all: every change is applied to the read model,
+ * a store of primitive columns, right away, then published like the events of
+ * stock actors, so every message is answered at once. Stock objects are only
+ * created for replies, so a registry holds millions of stocks in a modest heap,
+ * at the cost of the price history, candles and persistence of stock actors.
+ */
+public class ColumnarStockRegistryActor extends ReadModelStockRegistryActor {
+
+  public ColumnarStockRegistryActor(int partition, int partitions, boolean front) {
+    super(partition, partitions, front);
+  }
+
+  @Override
+  boolean writesSnapshotFile() {
+    return snapshotFileEnabled(config, "columnar");
+  }
+
+  /**
+   * Main entry point of messages handled by this actor
+   */
+  @Override
+  public Receive createReceive() {
+    return queries().orElse(snapshots()).orElse(receiveBuilder()
+      .match(StockRegistryMessages.CreateStock.class,
+        createStock -> getSender().tell(create(createStock.getStock()), getSelf()))
+      .match(StockRegistryMessages.UpdateStock.class,
+        updateStock -> getSender().tell(update(updateStock.getStock()), getSelf()))
+      .match(StockRegistryMessages.GetStock.class,
+        getStock -> {
+          getSender().tell(new StockRegistryMessages.StockInfo(stocks.get(getStock.getId())), getSelf());
+        }
+      )
+      .match(StockRegistryMessages.GetPriceHistory.class, // no history is kept without stock actors
+        getPriceHistory -> {
+          getSender().tell(new StockRegistryMessages.PriceHistoryInfo(!stocks.contains(getPriceHistory.getId()) ? null :
+            new PriceHistory(getPriceHistory.getId(), new long[0], new double[0])), getSelf());
+        }
+      )
+      .match(StockRegistryMessages.GetCandles.class, // no candles are kept without stock actors
+        getCandles -> {
+          CandleSeries.Slice slice = CandleSeries.Slice.EMPTY;
+          getSender().tell(new StockRegistryMessages.CandlesInfo(!stocks.contains(getCandles.getId()) ? null :
+            new Candles(getCandles.getId(), getCandles.getIntervalMillis(), slice.getStarts(), slice.getOpens(),
+              slice.getHighs(), slice.getLows(), slice.getCloses(), slice.getTicks())), getSelf());
+        }
+      )
+      .match(StockRegistryMessages.DeleteStock.class,
+        deleteStock -> {
+          if (stocks.contains(deleteStock.getId())) {
+            handleStockEvent(new StockRegistryMessages.StockDeleted(deleteStock.getId()));
+            getSender().tell(new StockRegistryMessages.ActionPerformed(
+              String.format("Stock %s deleted.", deleteStock.getId())), getSelf());
+          } else {
+            getSender().tell(new StockRegistryMessages.ActionPerformed("Stock not found."), getSelf());
+          }
+        }
+      )
+      .match(StockRegistryMessages.CreateStocks.class,
+        createStocks -> {
+          final List<StockRegistryMessages.ActionPerformed> actions = new ArrayList<>(createStocks.getStocks().size());
+          for (Stock stock : createStocks.getStocks())
+            actions.add(create(stock));
+          getSender().tell(new StockRegistryMessages.ActionsPerformed(actions), getSelf());
+        }
+      )
+      .match(StockRegistryMessages.UpdateStocks.class,
+        updateStocks -> {
+          final List<StockRegistryMessages.ActionPerformed> actions = new ArrayList<>(updateStocks.getStocks().size());
+          for (Stock stock : updateStocks.getStocks())
+            actions.add(update(stock));
+          getSender().tell(new StockRegistryMessages.ActionsPerformed(actions), getSelf());
+        }
+      )
+      .match(StockRegistryMessages.PriceTicks.class, // ticks of unknown stocks are dropped
+        priceTicks -> {
+          final long now = System.currentTimeMillis();
+          int unknown = 0;
+          for (StockRegistryMessages.PriceTick tick : priceTicks.getTicks()) {
+            // applied to the columns in place once, then published as is
+            Stock ticked = stocks.updatePrice(tick.getId(), tick.getPrice(), tick.getTimestamp(), now);
+            if (ticked != null)
+              publish(new StockRegistryMessages.StockUpdated(ticked));
+            else
+              unknown++;
+          }
+          getSender().tell(new StockRegistryMessages.TicksAccepted(
+            priceTicks.getTicks().size() - unknown, unknown), getSelf());
+        }
+      )
+      .matchAny(unknown -> log.info("Unknown message received: {}", unknown))
+      .build());
+  }
+
+  /**
+   * Creates a stock in the read model, unless it already exists.
+   */
+  private StockRegistryMessages.ActionPerformed create(Stock stock) {
+    if (stocks.contains(stock.getId()))
+      return new StockRegistryMessages.ActionPerformed(String.format("Stock %s already exists.", stock.getId()));
+    handleStockEvent(new StockRegistryMessages.StockCreated(stock));
+    return new StockRegistryMessages.ActionPerformed(String.format("Stock %s created.", stock.getId()));
+  }
+
+  /**
+   * Updates the name and price of a stock in the read model, keeping those not given.
+   */
+  private StockRegistryMessages.ActionPerformed update(Stock stock) {
+    final Stock current = stocks.get(stock.getId());
+    if (current == null)
+      return new StockRegistryMessages.ActionPerformed(String.format("Stock %s not found.", stock.getId()));
+    handleStockEvent(new StockRegistryMessages.StockUpdated(new Stock(stock.getId(),
+      Optional.ofNullable(stock.getName()).orElse(current.getName()),
+      Optional.ofNullable(stock.getCurrentPrice()).orElse(current.getCurrentPrice()),
+      Instant.now())));
+    return new StockRegistryMessages.ActionPerformed(String.format("Stock %s updated.", stock.getId()));
+  }
+}
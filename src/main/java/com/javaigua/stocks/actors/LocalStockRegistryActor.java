@@ -0,0 +1,254 @@
+package com.javaigua.stocks.actors;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import akka.actor.*;
+import akka.japi.Pair;
+import akka.pattern.PatternsCS;
+import akka.persistence.query.PersistenceQuery;
+import akka.persistence.query.journal.leveldb.javadsl.LeveldbReadJournal;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.Sink;
+
+import com.javaigua.stocks.Domain.Stock;
+
+/**
+ * A local registry whose stocks are actors supervised by this one, therefore
+ * the processing of messages sent to this actor is distributed.
+ *
+ * A reference lookup, by the given stock id, is performed upon arrival
+ * of every message sent to this actor. The message is then forwarded to
+ * this stock actor, except when the whole list of stocks is asked,
+ * in which case it is answered from the read model of all stocks.
+ *
+ * Idle stock actors ask this registry to stop them. Messages for a stock
+ * actor being stopped are held until it stopped, then it is recreated with
+ * the last state of its stock, which the read model keeps compactly.
+ *
+ * When persistence is enabled, a local registry recreates on start the
+ * stock actors found in the journal, which recover their stocks and
+ * publish them to the read model.
+ */
+public class LocalStockRegistryActor extends ReadModelStockRegistryActor {
+
+  // msgs held for stock actors being passivated, by stock id
+  private final Map<Integer, List<Pair<Object, ActorRef>>> passivating = new HashMap<>();
+
+  // the persistence ids of the stocks found in the journal
+  private static class PersistedStocks {
+    final List<String> persistenceIds;
+
+    PersistedStocks(List<String> persistenceIds) {
+      this.persistenceIds = persistenceIds;
+    }
+  }
+
+  public LocalStockRegistryActor(int partition, int partitions, boolean front) {
+    super(partition, partitions, front);
+  }
+
+  @Override
+  boolean writesSnapshotFile() {
+    return snapshotFileEnabled(config, "actors");
+  }
+
+  @Override
+  public void preStart() {
+    super.preStart();
+    if (StockActor.persistenceEnabled())
+      recoverPersistedStocks();
+  }
+
+  /**
+   * Recreates the actors of the stocks of this partition persisted by a previous run.
+   */
+  private void recoverPersistedStocks() {
+    LeveldbReadJournal journal = PersistenceQuery.get(getContext().getSystem())
+      .getReadJournalFor(LeveldbReadJournal.class, LeveldbReadJournal.Identifier());
+    PatternsCS.pipe(journal.currentPersistenceIds()
+      .filter(id -> id.startsWith(StockActor.PERSISTENCE_ID_PREFIX))
+      .filter(id -> partitionOf(
+        Integer.parseInt(id.substring(StockActor.PERSISTENCE_ID_PREFIX.length())), partitions) == partition)
+      .runWith(Sink.seq(), ActorMaterializer.create(getContext()))
+      .thenApply(PersistedStocks::new), ec).to(getSelf());
+  }
+
+  /**
+   * Main entry point of messages handled by this actor
+   */
+  @Override
+  public Receive createReceive() {
+    return queries().orElse(snapshots()).orElse(receiveBuilder()
+      .match(StockRegistryMessages.StockEvent.class, this::handleStockEvent)
+      .match(PersistedStocks.class, // recreate the stock actors found in the journal
+        persisted -> {
+          log.info("Recovering {} persisted stocks", persisted.persistenceIds.size());
+          for (String persistenceId : persisted.persistenceIds) {
+            Integer id = Integer.valueOf(persistenceId.substring(StockActor.PERSISTENCE_ID_PREFIX.length()));
+            // stocks deleted in the journal stop themselves upon this first message
+            getStockActorRefOrCreate(id).tell(new StockRegistryMessages.GetStock(id), getSelf());
+          }
+        }
+      )
+      .match(StockRegistryMessages.StockInfo.class, recovered -> {}) // replies to the GetStock msgs of recovery
+      .match(Status.Failure.class,
+        failure -> log.error(failure.cause(), "Could not recover persisted stocks"))
+      .match(StockRegistryMessages.Passivate.class, // stop an idle stock actor, once it got every msg sent to it
+        passivate -> {
+          Integer id = Integer.valueOf(getSender().path().name());
+          if (!passivating.containsKey(id)) {
+            passivating.put(id, new ArrayList<>());
+            getSender().tell(PoisonPill.getInstance(), getSelf());
+          }
+        }
+      )
+      .match(Terminated.class, // msgs for a passivated stock actor recreate it
+        terminated -> {
+          List<Pair<Object, ActorRef>> buffered = passivating.remove(Integer.valueOf(terminated.getActor().path().name()));
+          if (buffered != null && !buffered.isEmpty()) {
+            ActorRef stockActorRef = getStockActorRefOrCreate(Integer.valueOf(terminated.getActor().path().name()));
+            buffered.forEach(msg -> stockActorRef.tell(msg.first(), msg.second()));
+          }
+        }
+      )
+      .match(StockRegistryMessages.CreateStock.class, // handle CreateStock msgs
+        createStock -> {
+          if (exists(createStock.getStock().getId())) {
+            getSender().tell(new StockRegistryMessages.ActionPerformed(
+              String.format("Stock %s already exists.", createStock.getStock().getId())), getSelf());
+          } else {
+            deliver(createStock.getStock().getId(), createStock, getSender());
+          }
+        }
+      )
+      .match(StockRegistryMessages.UpdateStock.class, // handle UpdateStock msgs
+        updateStock -> {
+          if (exists(updateStock.getStock().getId())) {
+            deliver(updateStock.getStock().getId(), updateStock, getSender());
+          } else {
+            getSender().tell(new StockRegistryMessages.ActionPerformed(
+              String.format("Stock %s not found.", updateStock.getStock().getId())), getSelf());
+          }
+        }
+      )
+      .match(StockRegistryMessages.GetStock.class, // handle GetStock msgs, from the read model
+        getStock -> {
+          getSender().tell(new StockRegistryMessages.StockInfo(stocks.get(getStock.getId())), getSelf());
+        }
+      )
+      .match(StockRegistryMessages.GetPriceHistory.class, // handle GetPriceHistory msgs
+        getPriceHistory -> {
+          if (exists(getPriceHistory.getId()))
+            deliver(getPriceHistory.getId(), getPriceHistory, getSender());
+          else
+            getSender().tell(new StockRegistryMessages.PriceHistoryInfo(null), getSelf());
+        }
+      )
+      .match(StockRegistryMessages.GetCandles.class, // handle GetCandles msgs
+        getCandles -> {
+          if (exists(getCandles.getId()))
+            deliver(getCandles.getId(), getCandles, getSender());
+          else
+            getSender().tell(new StockRegistryMessages.CandlesInfo(null), getSelf());
+        }
+      )
+      .match(StockRegistryMessages.DeleteStock.class, // handle DeleteStock msgs
+        deleteStock -> {
+          if (exists(deleteStock.getId()))
+            deliver(deleteStock.getId(), deleteStock, getSender());
+          else
+            getSender().tell(new StockRegistryMessages.ActionPerformed(
+              String.format("Stock not found.", deleteStock.getId())), getSelf());
+        }
+      )
+      .match(StockRegistryMessages.CreateStocks.class, createStocks -> fanOut(createStocks.getStocks(), true))
+      .match(StockRegistryMessages.UpdateStocks.class, updateStocks -> fanOut(updateStocks.getStocks(), false))
+      .match(StockRegistryMessages.PriceTicks.class, // handle PriceTicks msgs, ticks of unknown stocks are dropped
+        priceTicks -> {
+          final List<StockRegistryMessages.PriceTick> known = new ArrayList<>(priceTicks.getTicks().size());
+          for (StockRegistryMessages.PriceTick tick : priceTicks.getTicks()) {
+            if (exists(tick.getId()))
+              known.add(tick);
+          }
+          // acknowledged once every stock actor applied its ticks
+          final ActorRef collector = getContext().actorOf(StockTicksActor.props(priceTicks.getTicks().size(),
+            priceTicks.getTicks().size() - known.size(), getSender(), config.getInt("application.batch-timeout-millis")));
+          for (StockRegistryMessages.PriceTick tick : known)
+            deliver(tick.getId(), tick, collector);
+        }
+      )
+      .matchAny(unknown -> log.info("Unknown message received: {}", unknown))
+      .build());
+  }
+
+  /**
+   * Fans a batch of stocks out to their stock actors in a single pass.
+   *
+   * Stocks that need no stock actor get their result right away, every other stock
+   * is sent to its actor on behalf of a batch actor which collects the replies and
+   * answers the sender once for the whole batch.
+   */
+  private void fanOut(List<Stock> batch, boolean create) {
+    final StockRegistryMessages.ActionPerformed[] results = new StockRegistryMessages.ActionPerformed[batch.size()];
+    for (int i = 0; i < batch.size(); i++) {
+      final Integer id = batch.get(i).getId();
+      if (create && exists(id))
+        results[i] = new StockRegistryMessages.ActionPerformed(String.format("Stock %s already exists.", id));
+      else if (!create && !exists(id))
+        results[i] = new StockRegistryMessages.ActionPerformed(String.format("Stock %s not found.", id));
+    }
+
+    final ActorRef collector = getContext().actorOf(StockBatchActor.props(
+      batch, results, getSender(), config.getInt("application.batch-timeout-millis")));
+    for (int i = 0; i < batch.size(); i++) {
+      if (results[i] != null)
+        continue;
+      Object msg = create ?
+        new StockRegistryMessages.CreateStock(batch.get(i)) :
+        new StockRegistryMessages.UpdateStock(batch.get(i));
+      deliver(batch.get(i).getId(), msg, collector);
+    }
+  }
+
+  /**
+   * Whether a stock exists, in the read model or still being created by its actor.
+   */
+  private boolean exists(Integer id) {
+    return stocks.contains(id) || getStockActorRef(id).isPresent();
+  }
+
+  /**
+   * Sends a msg to the actor of a stock, recreated when it was passivated, or held
+   * until a passivating one stopped.
+   */
+  private void deliver(Integer id, Object msg, ActorRef sender) {
+    List<Pair<Object, ActorRef>> buffered = passivating.get(id);
+    if (buffered != null)
+      buffered.add(Pair.create(msg, sender));
+    else
+      getStockActorRefOrCreate(id).tell(msg, sender);
+  }
+
+  /**
+   * Utility to perform Stock actor reference lookup by id.
+   */
+  private Optional<ActorRef> getStockActorRef(Integer id) {
+    return getContext().findChild(id.toString());
+  }
+
+  /**
+   * Utility to perform Stock actor reference lookup by id, creating a new
+   * one in case it is alredy present in the actor system.
+   */
+  private ActorRef getStockActorRefOrCreate(Integer id) {
+    return getStockActorRef(id).orElseGet(() -> {
+      Stock stock = stocks.get(id);
+      return getContext().watch(getContext().actorOf(
+        stock != null ? StockActor.props(stock) : StockActor.props(), id.toString()));
+    });
+  }
+}
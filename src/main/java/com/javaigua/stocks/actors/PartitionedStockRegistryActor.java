@@ -0,0 +1,273 @@
+package com.javaigua.stocks.actors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import scala.concurrent.Future;
+
+import akka.actor.*;
+import akka.dispatch.Futures;
+import static akka.pattern.Patterns.pipe;
+import static akka.pattern.Patterns.ask;
+
+import com.javaigua.stocks.Domain.Movers;
+import com.javaigua.stocks.Domain.Stock;
+import com.javaigua.stocks.Domain.StockStats;
+import com.javaigua.stocks.Domain.Stocks;
+import com.javaigua.stocks.store.CompactStockStore;
+import com.javaigua.stocks.store.NameIndex;
+
+/**
+ * A local registry whose stocks are split across partitions, every one a local or
+ * columnar registry of its own, so the work of a registry spreads over every core.
+ *
+ * Messages of a single stock are forwarded to its partition, while messages of many
+ * stocks are scattered to the partitions holding them and the replies of every
+ * partition are merged. It is the registry of the node, which writes the segments
+ * of every partition to the snapshot file.
+ */
+public class PartitionedStockRegistryActor extends StockRegistryActor {
+
+  private final int partitions;
+  private final String backend;
+  // the partitions of this registry, by partition of their stocks
+  private final ActorRef[] partitionRefs;
+
+  public PartitionedStockRegistryActor(int partitions, String backend) {
+    super(true);
+    this.partitions = partitions;
+    this.backend = backend;
+    this.partitionRefs = new ActorRef[partitions];
+  }
+
+  @Override
+  boolean writesSnapshotFile() {
+    return snapshotFileEnabled(config, backend);
+  }
+
+  @Override
+  public void preStart() {
+    super.preStart();
+    for (int i = 0; i < partitions; i++)
+      partitionRefs[i] = getContext().actorOf(partitionProps(i, partitions, backend), "partition-" + i);
+  }
+
+  /**
+   * Main entry point of messages handled by this actor
+   */
+  @Override
+  public Receive createReceive() {
+    return receiveBuilder()
+      .match(StockRegistryMessages.GetStocks.class,
+        getStocks -> pipe(scatter(getStocks,
+          results -> new Stocks(Collections.unmodifiableList(concat(results)))), ec).to(getSender()))
+      .match(StockRegistryMessages.GetStocksByIds.class,
+        getStocksByIds -> {
+          final List<Integer> ids = getStocksByIds.getIds();
+          pipe(scatter(ids, id -> id, StockRegistryMessages.GetStocksByIds::new, (asked, results) -> {
+            final Map<Integer, Stock> found = new HashMap<>();
+            for (Object result : results)
+              ((StockRegistryMessages.StocksByIds) result).getStocks().forEach(stock -> found.put(stock.getId(), stock));
+            final List<Stock> stocks = new ArrayList<>(found.size());
+            final List<Integer> missing = new ArrayList<>();
+            for (Integer id : ids) { // in the order asked
+              if (found.containsKey(id))
+                stocks.add(found.get(id));
+              else
+                missing.add(id);
+            }
+            return new StockRegistryMessages.StocksByIds(stocks, missing);
+          }), ec).to(getSender());
+        }
+      )
+      .match(StockRegistryMessages.GetStocksPage.class, // the first stocks of the page of every partition
+        getStocksPage -> {
+          final CompactStockStore.Order order = getStocksPage.getOrder();
+          pipe(scatter(getStocksPage, results -> {
+            final List<Stock> merged = concat(results);
+            merged.sort(Comparator.comparingLong(order::key).thenComparing(Stock::getId));
+            return new Stocks(new ArrayList<>(merged.subList(0, Math.min(merged.size(), getStocksPage.getLimit()))));
+          }), ec).to(getSender());
+        }
+      )
+      .match(StockRegistryMessages.SearchStocks.class, // the best ranked stocks of every partition
+        searchStocks -> pipe(scatter(searchStocks, results -> {
+          final List<Stock> merged = concat(results);
+          merged.sort(NameIndex.ranking(searchStocks.getQuery()));
+          return new Stocks(new ArrayList<>(merged.subList(0, Math.min(merged.size(), searchStocks.getLimit()))));
+        }), ec).to(getSender()))
+      .match(StockRegistryMessages.GetMovers.class, // the first movers of every partition
+        getMovers -> {
+          final CompactStockStore.Move by = getMovers.getBy();
+          pipe(scatter(getMovers, results -> {
+            final List<Stock> merged = new ArrayList<>();
+            final List<Double> changes = new ArrayList<>();
+            for (Object result : results) {
+              merged.addAll(((Movers) result).getStocks());
+              changes.addAll(((Movers) result).getChanges());
+            }
+            final List<Integer> ranked = new ArrayList<>(merged.size());
+            for (int i = 0; i < merged.size(); i++)
+              ranked.add(i);
+            ranked.sort((i, j) -> by.compare(changes.get(i), merged.get(i).getId(), changes.get(j), merged.get(j).getId()));
+            final Movers movers = new Movers(((Movers) results.iterator().next()).getBy(), new ArrayList<>(), new ArrayList<>());
+            for (Integer i : ranked.subList(0, Math.min(ranked.size(), getMovers.getLimit()))) {
+              movers.getStocks().add(merged.get(i));
+              movers.getChanges().add(changes.get(i));
+            }
+            return movers;
+          }), ec).to(getSender());
+        }
+      )
+      .match(StockRegistryMessages.GetStockStats.class, // the statistics of every partition, summed up
+        getStockStats -> pipe(scatter(getStockStats, results -> {
+          long count = 0;
+          long priced = 0;
+          double min = Double.POSITIVE_INFINITY;
+          double max = Double.NEGATIVE_INFINITY;
+          double sum = 0;
+          long updates = 0;
+          for (Object result : results) {
+            StockStats stats = (StockStats) result;
+            count += stats.getCount();
+            updates += stats.getUpdatesLastMinute();
+            if (stats.getPriced() > 0) {
+              priced += stats.getPriced();
+              min = Math.min(min, stats.getMinPrice());
+              max = Math.max(max, stats.getMaxPrice());
+              sum += stats.getAveragePrice() * stats.getPriced();
+            }
+          }
+          return priced > 0 ? new StockStats(count, priced, min, max, sum / priced, updates)
+            : new StockStats(count, 0, null, null, null, updates);
+        }), ec).to(getSender()))
+      .match(StockRegistryMessages.LoadSnapshot.class, // every partition loads the stocks that hash to it
+        load -> pipe(scatter(load, config.getDuration("application.snapshot-file.load-timeout", TimeUnit.MILLISECONDS),
+          results -> {
+            int loaded = 0;
+            for (Object result : results)
+              loaded += ((StockRegistryMessages.SnapshotLoaded) result).getLoaded();
+            return new StockRegistryMessages.SnapshotLoaded(loaded);
+          }), ec).to(getSender()))
+      .match(StockRegistryMessages.CreateStock.class, msg -> partitionOf(msg.getStock().getId()).forward(msg, getContext()))
+      .match(StockRegistryMessages.UpdateStock.class, msg -> partitionOf(msg.getStock().getId()).forward(msg, getContext()))
+      .match(StockRegistryMessages.GetStock.class, msg -> partitionOf(msg.getId()).forward(msg, getContext()))
+      .match(StockRegistryMessages.GetPriceHistory.class, msg -> partitionOf(msg.getId()).forward(msg, getContext()))
+      .match(StockRegistryMessages.GetCandles.class, msg -> partitionOf(msg.getId()).forward(msg, getContext()))
+      .match(StockRegistryMessages.DeleteStock.class, msg -> partitionOf(msg.getId()).forward(msg, getContext()))
+      .match(StockRegistryMessages.CreateStocks.class,
+        createStocks -> splitBatch(createStocks.getStocks(), StockRegistryMessages.CreateStocks::new))
+      .match(StockRegistryMessages.UpdateStocks.class,
+        updateStocks -> splitBatch(updateStocks.getStocks(), StockRegistryMessages.UpdateStocks::new))
+      .match(StockRegistryMessages.PriceTicks.class,
+        priceTicks -> pipe(scatter(priceTicks.getTicks(), StockRegistryMessages.PriceTick::getId,
+          StockRegistryMessages.PriceTicks::new, (asked, results) -> {
+            int accepted = 0;
+            int unknown = 0;
+            int rejected = 0;
+            for (Object result : results) {
+              accepted += ((StockRegistryMessages.TicksAccepted) result).getAccepted();
+              unknown += ((StockRegistryMessages.TicksAccepted) result).getUnknown();
+              rejected += ((StockRegistryMessages.TicksAccepted) result).getRejected();
+            }
+            return new StockRegistryMessages.TicksAccepted(accepted, unknown, rejected);
+          }), ec).to(getSender()))
+      .build()
+      .orElse(snapshotWrites(() -> scatter(EncodeSnapshot.INSTANCE, results -> results)))
+      .orElse(receiveBuilder()
+        .matchAny(unknown -> log.info("Unknown message received: {}", unknown))
+        .build());
+  }
+
+  /**
+   * Splits a batch of stocks into a batch per partition, and merges their results
+   * back in batch order.
+   */
+  private void splitBatch(List<Stock> batch, Function<List<Stock>, Object> batchOf) {
+    pipe(scatter(batch, Stock::getId, batchOf, (asked, results) -> {
+      final StockRegistryMessages.ActionPerformed[] merged = new StockRegistryMessages.ActionPerformed[batch.size()];
+      int i = 0;
+      for (Object result : results) {
+        List<Integer> positions = asked.get(i++);
+        List<StockRegistryMessages.ActionPerformed> actions = ((StockRegistryMessages.ActionsPerformed) result).getActions();
+        for (int j = 0; j < positions.size(); j++)
+          merged[positions.get(j)] = actions.get(j);
+      }
+      return new StockRegistryMessages.ActionsPerformed(Arrays.asList(merged));
+    }), ec).to(getSender());
+  }
+
+  /**
+   * Asks every partition the given msg, and merges their replies, in partition order.
+   */
+  private <T> Future<T> scatter(Object msg, Function<Iterable<Object>, T> merge) {
+    return scatter(msg, config.getInt("application.timeout-millis"), merge);
+  }
+
+  private <T> Future<T> scatter(Object msg, long timeoutMillis, Function<Iterable<Object>, T> merge) {
+    final List<Future<Object>> futures = new ArrayList<>(partitions);
+    for (ActorRef partitionRef : partitionRefs)
+      futures.add(ask(partitionRef, msg, timeoutMillis));
+    return Futures.sequence(futures, ec).map(merge::apply, ec);
+  }
+
+  /**
+   * Asks every partition holding some of the given items a msg of its own items, and
+   * merges their replies given the positions of the items asked to every partition.
+   */
+  private <I, T> Future<T> scatter(List<I> items, Function<I, Integer> idOf, Function<List<I>, Object> msgOf,
+                                   BiFunction<List<List<Integer>>, Iterable<Object>, T> merge) {
+    final List<List<Integer>> asked = new ArrayList<>(partitions);
+    final List<Future<Object>> futures = new ArrayList<>(partitions);
+    for (List<Integer> positions : positionsByPartition(items, idOf)) {
+      if (positions.isEmpty())
+        continue;
+      List<I> selected = select(items, positions);
+      asked.add(positions);
+      futures.add(ask(partitionOf(idOf.apply(selected.get(0))), msgOf.apply(selected),
+        config.getInt("application.timeout-millis")));
+    }
+    return Futures.sequence(futures, ec).map(results -> merge.apply(asked, results), ec);
+  }
+
+  private static List<Stock> concat(Iterable<Object> results) {
+    final List<Stock> merged = new ArrayList<>();
+    for (Object result : results)
+      merged.addAll(((Stocks) result).getStocks());
+    return merged;
+  }
+
+  /**
+   * The positions of the given items of every partition, by the stock id of every item.
+   */
+  private <T> List<List<Integer>> positionsByPartition(List<T> items, Function<T, Integer> idOf) {
+    final List<List<Integer>> positions = new ArrayList<>(partitions);
+    for (int i = 0; i < partitions; i++)
+      positions.add(new ArrayList<>());
+    for (int i = 0; i < items.size(); i++)
+      positions.get(partitionOf(idOf.apply(items.get(i)), partitions)).add(i);
+    return positions;
+  }
+
+  private static <T> List<T> select(List<T> items, List<Integer> positions) {
+    final List<T> selected = new ArrayList<>(positions.size());
+    for (Integer position : positions)
+      selected.add(items.get(position));
+    return selected;
+  }
+
+  /**
+   * The partition of the stock with the given id.
+   */
+  private ActorRef partitionOf(Integer id) {
+    return partitionRefs[partitionOf(id, partitions)];
+  }
+}
@@ -0,0 +1,181 @@
+package com.javaigua.stocks.actors;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import akka.dispatch.Futures;
+
+import com.javaigua.stocks.Domain.Stock;
+import com.javaigua.stocks.Domain.Stocks;
+import com.javaigua.stocks.metrics.Histogram;
+import com.javaigua.stocks.metrics.Metrics;
+import com.javaigua.stocks.store.CompactStockStore;
+import com.javaigua.stocks.store.StockSnapshotFile;
+
+/**
+ * A registry answering listings, lookups and queries of its stocks from a read model.
+ *
+ * The read model is kept up to date by the events stock actors publish, or the
+ * registry itself applies, upon every create, update and delete, so listing stocks
+ * never messages the stock actors. Its sorted indexes by id, price and last update
+ * serve pages of stocks, and its name index searches by name. It also keeps the top
+ * movers and market-wide statistics up to date upon every event, without listing
+ * any stock.
+ *
+ * A local registry, or a partition of one, also loads the stocks of a snapshot file
+ * that hash to it, and encodes its own segment of the snapshot file.
+ */
+abstract class ReadModelStockRegistryActor extends StockRegistryActor {
+
+  private final Histogram aggregation = Metrics.get(getContext().getSystem()).histogram(
+    "stocks_registry_aggregate_duration_seconds", "Time to aggregate every stock of a stock registry.",
+    "actor", getSelf().path().toStringWithoutAddress());
+
+  // the partition of stocks of this registry, out of the partitions of the local registry
+  final int partition;
+  final int partitions;
+
+  // read model of all stocks, fed by stock events, which outlives passivated stock actors
+  final CompactStockStore stocks = new CompactStockStore();
+  // immutable snapshot of the read model, null when a stock event made it stale
+  private Stocks snapshot;
+
+  ReadModelStockRegistryActor(int partition, int partitions, boolean front) {
+    super(front);
+    this.partition = partition;
+    this.partitions = partitions;
+  }
+
+  /**
+   * Behavior of a registry answering from its read model.
+   */
+  Receive queries() {
+    return receiveBuilder()
+      .match(StockRegistryMessages.GetStocks.class,
+        getStocks -> {
+          getSender().tell(aggregateStocks(), getSelf());
+        }
+      )
+      .match(StockRegistryMessages.GetStocksByIds.class,
+        getStocksByIds -> {
+          getSender().tell(findStocks(getStocksByIds.getIds()), getSelf());
+        }
+      )
+      .match(StockRegistryMessages.GetStocksPage.class,
+        getStocksPage -> {
+          getSender().tell(findPage(getStocksPage), getSelf());
+        }
+      )
+      .match(StockRegistryMessages.SearchStocks.class,
+        searchStocks -> {
+          getSender().tell(new Stocks(stocks.search(searchStocks.getQuery(), searchStocks.getLimit())), getSelf());
+        }
+      )
+      .match(StockRegistryMessages.GetMovers.class,
+        getMovers -> {
+          getSender().tell(stocks.movers(getMovers.getBy(), getMovers.getLimit()), getSelf());
+        }
+      )
+      .match(StockRegistryMessages.GetStockStats.class,
+        getStockStats -> {
+          getSender().tell(stocks.stats(System.currentTimeMillis()), getSelf());
+        }
+      )
+      .build();
+  }
+
+  /**
+   * Behavior of a local registry loading the stocks of a snapshot file into its read
+   * model, and encoding its segment of the snapshot file, which it writes itself when
+   * it is the registry of the node.
+   */
+  Receive snapshots() {
+    return receiveBuilder()
+      .match(StockRegistryMessages.LoadSnapshot.class,
+        load -> {
+          int loaded = load.getSnapshot().loadInto(stocks, id -> partitionOf(id, partitions) == partition);
+          snapshot = null;
+          getSender().tell(new StockRegistryMessages.SnapshotLoaded(loaded), getSelf());
+        }
+      )
+      .match(EncodeSnapshot.class, encode -> getSender().tell(StockSnapshotFile.segment(stocks), getSelf()))
+      .build()
+      .orElse(snapshotWrites(() -> Futures.successful(Collections.<Object>singletonList(StockSnapshotFile.segment(stocks)))));
+  }
+
+  /**
+   * Applies a stock event to the read model of this registry, and publishes it to the
+   * event stream of the actor system.
+   */
+  void handleStockEvent(StockRegistryMessages.StockEvent event) {
+    if (event instanceof StockRegistryMessages.StockCreated) {
+      stocks.put(((StockRegistryMessages.StockCreated) event).getStock());
+    } else if (event instanceof StockRegistryMessages.StockUpdated) {
+      stocks.update(((StockRegistryMessages.StockUpdated) event).getStock(), System.currentTimeMillis());
+    } else if (event instanceof StockRegistryMessages.StockDeleted) {
+      stocks.remove(((StockRegistryMessages.StockDeleted) event).getId());
+    }
+    publish(event);
+  }
+
+  /**
+   * Publishes a stock event already applied to the read model of this registry to the
+   * event stream of the actor system.
+   */
+  void publish(StockRegistryMessages.StockEvent event) {
+    snapshot = null;
+    // subscribers to live changes, like server-sent events, get every applied event once
+    getContext().getSystem().eventStream().publish(event);
+  }
+
+  /**
+   * Adds the given stocks to the read model, keeping those it already has.
+   */
+  void load(List<Stock> loaded) {
+    loaded.forEach(stock -> {
+      if (!stocks.contains(stock.getId()))
+        stocks.put(stock);
+    });
+    snapshot = null;
+  }
+
+  /**
+   * An aggregator of data for the stocks in this registry.
+   *
+   * The read model is copied into an immutable Stocks domain object only after
+   * it changed, every other request shares the same snapshot.
+   */
+  private Stocks aggregateStocks() {
+    final long start = System.nanoTime();
+    if (snapshot == null)
+      snapshot = new Stocks(Collections.unmodifiableList(stocks.toList()));
+    aggregation.recordSince(start);
+    return snapshot;
+  }
+
+  /**
+   * A lookup of the stocks with the given ids in the read model of this registry.
+   */
+  private StockRegistryMessages.StocksByIds findStocks(List<Integer> ids) {
+    final List<Stock> found = new ArrayList<>(ids.size());
+    final List<Integer> missing = new ArrayList<>();
+    for (Integer id : ids) {
+      Stock stock = stocks.get(id);
+      if (stock != null)
+        found.add(stock);
+      else
+        missing.add(id);
+    }
+    return new StockRegistryMessages.StocksByIds(found, missing);
+  }
+
+  /**
+   * A page of stocks of the read model of this registry, from its sorted indexes.
+   */
+  private Stocks findPage(StockRegistryMessages.GetStocksPage getStocksPage) {
+    return new Stocks(stocks.page(getStocksPage.getOrder(), getStocksPage.getAfterKey(), getStocksPage.getAfterId(),
+      getStocksPage.getMinPrice(), getStocksPage.getMaxPrice(), getStocksPage.getFrom(), getStocksPage.getTo(),
+      getStocksPage.getLimit()));
+  }
+}
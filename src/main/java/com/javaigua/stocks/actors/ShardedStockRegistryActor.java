@@ -0,0 +1,199 @@
+package com.javaigua.stocks.actors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import scala.concurrent.Future;
+import scala.concurrent.duration.Duration;
+
+import akka.actor.*;
+import akka.cluster.pubsub.DistributedPubSub;
+import akka.cluster.pubsub.DistributedPubSubMediator;
+import akka.dispatch.Futures;
+import akka.dispatch.Recover;
+import akka.pattern.PatternsCS;
+import akka.persistence.query.PersistenceQuery;
+import akka.persistence.query.javadsl.CurrentPersistenceIdsQuery;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.Sink;
+import static akka.pattern.Patterns.pipe;
+import static akka.pattern.Patterns.ask;
+
+import com.javaigua.stocks.Domain.Stock;
+
+/**
+ * A registry whose stocks are entities of a cluster shard region.
+ *
+ * Every message of a stock is forwarded to the local shard region, which
+ * reaches the stock wherever it lives in the cluster. Stock actors themselves
+ * answer for missing or already existing stocks. Stock events are received
+ * from every node through distributed publish-subscribe, and applied to the
+ * read model of this registry, which is loaded once from every stock of the
+ * shared journal when the node joins the cluster, whether its entity is running
+ * or passivated.
+ */
+public class ShardedStockRegistryActor extends ReadModelStockRegistryActor {
+
+  // the shard region hosting stock entities
+  private final ActorRef stockRegion;
+
+  // a message to load the given sharded stocks, or every persisted one when null
+  private static class LoadShardedStocks {
+    static final LoadShardedStocks PERSISTED = new LoadShardedStocks(null);
+    final List<Integer> ids;
+
+    LoadShardedStocks(List<Integer> ids) {
+      this.ids = ids;
+    }
+  }
+
+  // the sharded stocks loaded, and the ids of those whose entity did not answer
+  private static class ShardedStocks {
+    final List<Stock> stocks;
+    final List<Integer> failed;
+
+    ShardedStocks(List<Stock> stocks, List<Integer> failed) {
+      this.stocks = stocks;
+      this.failed = failed;
+    }
+  }
+
+  public ShardedStockRegistryActor(ActorRef stockRegion) {
+    super(0, 1, false);
+    this.stockRegion = stockRegion;
+  }
+
+  @Override
+  boolean writesSnapshotFile() {
+    return false;
+  }
+
+  @Override
+  public void preStart() {
+    super.preStart();
+    // events of sharded stocks come from every node of the cluster
+    DistributedPubSub.get(getContext().getSystem()).mediator().tell(
+      new DistributedPubSubMediator.Subscribe(StockActor.EVENTS_TOPIC, getSelf()), getSelf());
+    // stocks created before this node joined are loaded once
+    getSelf().tell(LoadShardedStocks.PERSISTED, getSelf());
+  }
+
+  /**
+   * Main entry point of messages handled by this actor
+   */
+  @Override
+  public Receive createReceive() {
+    return queries().orElse(receiveBuilder()
+      .match(StockRegistryMessages.StockEvent.class, this::handleStockEvent)
+      .match(LoadShardedStocks.class,
+        load -> {
+          if (load.ids == null)
+            queryPersistedStocks();
+          else
+            pipe(aggregateShardedStocks(load.ids), ec).to(getSelf());
+        }
+      )
+      .match(ShardedStocks.class, // initial load of the read model, stocks that did not answer are asked again
+        loaded -> {
+          load(loaded.stocks);
+          if (!loaded.failed.isEmpty()) {
+            log.warning("Could not load {} sharded stocks, retrying", loaded.failed.size());
+            retry(new LoadShardedStocks(loaded.failed));
+          }
+        }
+      )
+      .match(Status.Failure.class,
+        failure -> {
+          log.warning("Could not list persisted stocks, retrying: {}", failure.cause().getMessage());
+          retry(LoadShardedStocks.PERSISTED);
+        }
+      )
+      .match(DistributedPubSubMediator.SubscribeAck.class, ack -> log.info("Subscribed to stock events"))
+      .match(StockRegistryMessages.CreateStock.class, msg -> stockRegion.forward(msg, getContext()))
+      .match(StockRegistryMessages.UpdateStock.class, msg -> stockRegion.forward(msg, getContext()))
+      .match(StockRegistryMessages.GetStock.class, msg -> stockRegion.forward(msg, getContext()))
+      .match(StockRegistryMessages.GetPriceHistory.class, msg -> stockRegion.forward(msg, getContext()))
+      .match(StockRegistryMessages.GetCandles.class, msg -> stockRegion.forward(msg, getContext()))
+      .match(StockRegistryMessages.DeleteStock.class, msg -> stockRegion.forward(msg, getContext()))
+      .match(StockRegistryMessages.CreateStocks.class, createStocks -> fanOut(createStocks.getStocks(), true))
+      .match(StockRegistryMessages.UpdateStocks.class, updateStocks -> fanOut(updateStocks.getStocks(), false))
+      .match(StockRegistryMessages.PriceTicks.class,
+        priceTicks -> { // stock entities answer for unknown stocks
+          final ActorRef collector = getContext().actorOf(StockTicksActor.props(priceTicks.getTicks().size(), 0,
+            getSender(), config.getInt("application.batch-timeout-millis")));
+          priceTicks.getTicks().forEach(tick -> stockRegion.tell(tick, collector));
+        }
+      )
+      .matchAny(unknown -> log.info("Unknown message received: {}", unknown))
+      .build());
+  }
+
+  /**
+   * Fans a batch of stocks out to their entities through the shard region, on behalf
+   * of a batch actor which collects the replies and answers the sender once for the
+   * whole batch.
+   */
+  private void fanOut(List<Stock> batch, boolean create) {
+    final ActorRef collector = getContext().actorOf(StockBatchActor.props(batch,
+      new StockRegistryMessages.ActionPerformed[batch.size()], getSender(),
+      config.getInt("application.batch-timeout-millis")));
+    for (Stock stock : batch)
+      stockRegion.tell(create ?
+        new StockRegistryMessages.CreateStock(stock) :
+        new StockRegistryMessages.UpdateStock(stock), collector);
+  }
+
+  private void retry(LoadShardedStocks load) {
+    getContext().getSystem().scheduler().scheduleOnce(
+      Duration.create(config.getInt("application.timeout-millis"), "millis"), getSelf(), load, ec, getSelf());
+  }
+
+  /**
+   * Lists the ids of the stocks persisted to the shared journal, running or passivated,
+   * then loads them.
+   */
+  private void queryPersistedStocks() {
+    CurrentPersistenceIdsQuery journal = PersistenceQuery.get(getContext().getSystem())
+      .getReadJournalFor(CurrentPersistenceIdsQuery.class, config.getString("application.sharding.query-plugin"));
+    PatternsCS.pipe(journal.currentPersistenceIds()
+      .filter(id -> id.startsWith(StockActor.PERSISTENCE_ID_PREFIX))
+      .map(id -> Integer.valueOf(id.substring(StockActor.PERSISTENCE_ID_PREFIX.length())))
+      .runWith(Sink.seq(), ActorMaterializer.create(getContext()))
+      .thenApply(LoadShardedStocks::new), ec).to(getSelf());
+  }
+
+  /**
+   * An aggregator of data for the given sharded stocks, used to load the read model
+   * of a registry that joins a running cluster.
+   *
+   * Every stock is asked its info through the local shard region, which starts the
+   * entity of a passivated one. Stocks deleted in the journal answer none, and those
+   * that fail to answer in time are reported apart, so they are asked again alone.
+   */
+  private Future<ShardedStocks> aggregateShardedStocks(List<Integer> ids) {
+    final int TIMEOUT = config.getInt("application.timeout-millis");
+    final ArrayList<Future<Object>> futures = new ArrayList<>(ids.size());
+    for (Integer id : ids)
+      futures.add(ask(stockRegion, new StockRegistryMessages.GetStock(id), TIMEOUT)
+        .recover(new Recover<Object>() {
+          @Override
+          public Object recover(Throwable failure) {
+            return failure;
+          }
+        }, ec));
+
+    return Futures.sequence(futures, ec).map(iterable -> {
+      final List<Stock> stockList = new ArrayList<>();
+      final List<Integer> failed = new ArrayList<>();
+      int i = 0;
+      for (Object o : iterable) {
+        Integer id = ids.get(i++);
+        if (o instanceof Throwable)
+          failed.add(id);
+        else if (((StockRegistryMessages.StockInfo) o).getStock() != null)
+          stockList.add(((StockRegistryMessages.StockInfo) o).getStock());
+      }
+      return new ShardedStocks(stockList, failed);
+    }, ec);
+  }
+}
@@ -1,38 +1,245 @@
 package com.javaigua.stocks.actors;
 
+import java.io.Serializable;
 import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import scala.concurrent.duration.Duration;
 
 import akka.actor.*;
+import akka.cluster.pubsub.DistributedPubSub;
+import akka.cluster.pubsub.DistributedPubSubMediator;
+import akka.cluster.sharding.ShardRegion;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
 import akka.japi.Creator;
+import akka.japi.Procedure;
+import akka.persistence.AbstractPersistentActor;
+import akka.persistence.DeleteMessagesFailure;
+import akka.persistence.DeleteMessagesSuccess;
+import akka.persistence.DeleteSnapshotsFailure;
+import akka.persistence.DeleteSnapshotsSuccess;
+import akka.persistence.Recovery;
+import akka.persistence.RecoveryCompleted;
+import akka.persistence.SaveSnapshotFailure;
+import akka.persistence.SaveSnapshotSuccess;
+import akka.persistence.SnapshotOffer;
+import akka.persistence.SnapshotSelectionCriteria;
 
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 
+import com.javaigua.stocks.Domain.Candles;
+import com.javaigua.stocks.Domain.PriceHistory;
 import com.javaigua.stocks.Domain.Stock;
+import com.javaigua.stocks.metrics.Metrics;
+import com.javaigua.stocks.store.CandleSeries;
+import com.javaigua.stocks.store.PriceRingBuffer;
 
 /**
  * An actor that controls a single Stock entity in this application.
  *
- * This actor is created and supervised by the registry. It performs
+ * This actor is created and supervised by the registry, or hosted as a
+ * cluster sharding entity when the registry runs sharded. It performs
  * operations on a single Stock instance variable. Messages sent to this 
  * actor mutate or query this domain object, and since messages are 
  * processed sequentially one-by-one, there is no need to worry about 
  * concurrent modifications or other side effects.
+ *
+ * Every change of the stock is published as a stock event, to the registry
+ * parent of this actor or, for sharded entities, to the registries of every
+ * node of the cluster.
+ *
+ * When persistence is enabled, stock events are persisted to the journal
+ * before they are applied, and the stock is recovered from the journal when
+ * this actor is restarted or created again. A snapshot is saved every
+ * snapshot-every events, after which older events are deleted, so recovery
+ * time is bounded by the snapshot interval. When it is disabled, the stock
+ * only lives in memory and recovery is skipped.
+ *
+ * The latest prices of the stock are kept in a fixed-capacity history, and
+ * aggregated into candles at every configured interval as they arrive. Both
+ * are rebuilt by recovery and saved with snapshots.
+ *
+ * A stock actor idle for longer than the passivation idle-timeout asks its
+ * parent to stop it. The registry keeps the last state of its stocks, and a
+ * local stock actor is recreated with it on demand, while a sharded one is only
+ * passivated when persistence is enabled, as it recovers from the journal.
+ *
+ * Stock actors get the stock-mailbox, which serves reads and deletes before
+ * writes, and rejects the requests of a stock beyond its capacity, and run
+ * on the stock dispatcher.
  */
-public class StockActor extends AbstractActor {
+public class StockActor extends AbstractPersistentActor {
 
   LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+  final Config config = ConfigFactory.load();
+
+  // topic of the stock events published by sharded stock actors
+  public static final String EVENTS_TOPIC = "stock-events";
+  // prefix of the persistence ids of stock actors, followed by the stock id
+  public static final String PERSISTENCE_ID_PREFIX = "stock-";
+
+  private final boolean sharded;
+  // the last state of the stock known to the registry when it created this actor, null when
+  // there is none, only taken when the journal holds nothing of the stock
+  private final Stock seed;
+  private final int snapshotEvery = config.getInt("application.persistence.snapshot-every");
 
   private Stock stock;
+  // latest prices of the stock, oldest ones are overwritten
+  private final PriceRingBuffer history = new PriceRingBuffer(config.getInt("application.history.capacity"));
+  // latest candles of the stock, one series per configured interval
+  private final CandleSeries[] candles = createCandles(config);
+  // the concurrent view stocks are read from, null when disabled
+  private final StockView view = config.getBoolean("application.read-view.enabled") ?
+    StockView.get(getContext().getSystem()) : null;
+  private final LongAdder running = Metrics.get(getContext().getSystem())
+    .upDownCounter("stocks_stock_actors", "Stock actors running.");
+
+  /**
+   * The state saved in snapshots.
+   */
+  public static class Snapshot implements Serializable {
+    private final Stock stock;
+    private final PriceRingBuffer history;
+    private final CandleSeries[] candles;
+
+    public Snapshot(Stock stock, PriceRingBuffer history, CandleSeries[] candles) {
+      this.stock = stock;
+      this.history = history;
+      this.candles = candles;
+    }
+
+    public Stock getStock() {
+      return stock;
+    }
+
+    public PriceRingBuffer getHistory() {
+      return history;
+    }
+
+    public CandleSeries[] getCandles() {
+      return candles;
+    }
+  }
+
+  // a mailbox serving reads before writes, which rejects requests beyond its capacity
+  static final String MAILBOX = "stock-mailbox";
 
   /**
    * Convenient actor builder
    */
   public static Props props() {
-    return Props.create(StockActor.class);
+    return Props.create(StockActor.class).withMailbox(MAILBOX)
+      .withDispatcher(StockRegistryActor.dispatcher("stock"));
+  }
+
+  /**
+   * Convenient actor builder for cluster sharding entities
+   */
+  public static Props entityProps() {
+    return Props.create(StockActor.class, true).withMailbox(MAILBOX)
+      .withDispatcher(StockRegistryActor.dispatcher("stock"));
+  }
+
+  /**
+   * Convenient actor builder of a stock actor rehydrated with the last state of its stock
+   */
+  public static Props props(Stock stock) {
+    return Props.create(StockActor.class, stock).withMailbox(MAILBOX)
+      .withDispatcher(StockRegistryActor.dispatcher("stock"));
+  }
+
+  public StockActor() {
+    this(false);
+  }
+
+  public StockActor(boolean sharded) {
+    this(sharded, null);
+  }
+
+  public StockActor(Stock stock) {
+    this(false, stock);
+  }
+
+  private StockActor(boolean sharded, Stock seed) {
+    this.sharded = sharded;
+    this.seed = seed;
+    final long idleTimeout = config.getDuration("application.passivation.idle-timeout", TimeUnit.MILLISECONDS);
+    if (idleTimeout > 0 && (!sharded || persistenceEnabled()))
+      getContext().setReceiveTimeout(Duration.create(idleTimeout, TimeUnit.MILLISECONDS));
+  }
+
+  private static CandleSeries[] createCandles(Config config) {
+    final List<Long> intervals = config.getDurationList("application.candles.intervals", TimeUnit.MILLISECONDS);
+    final CandleSeries[] candles = new CandleSeries[intervals.size()];
+    for (int i = 0; i < candles.length; i++)
+      candles[i] = new CandleSeries(intervals.get(i), config.getInt("application.candles.capacity"));
+    return candles;
+  }
+
+  @Override
+  public void preStart() throws Exception {
+    super.preStart();
+    running.increment();
+  }
+
+  @Override
+  public void postStop() {
+    running.decrement();
+    if (view != null && this.stock != null) // readers ask the registry for stocks without actor
+      view.remove(this.stock.getId());
+  }
+
+  /**
+   * Whether stock events are persisted, read from the config since persistence
+   * plugins are resolved before the fields of this actor are initialized.
+   */
+  public static boolean persistenceEnabled() {
+    return ConfigFactory.load().getBoolean("application.persistence.enabled");
+  }
+
+  @Override
+  public String persistenceId() {
+    return PERSISTENCE_ID_PREFIX + getSelf().path().name();
+  }
+
+  @Override
+  public String journalPluginId() {
+    // nothing is ever written to the in-memory journal when persistence is disabled
+    return persistenceEnabled() ? "" : "akka.persistence.journal.inmem";
+  }
+
+  @Override
+  public Recovery recovery() {
+    return persistenceEnabled() ? Recovery.create() : Recovery.none();
+  }
+
+  /**
+   * Entry point of the events and snapshot replayed upon recovery
+   */
+  @Override
+  public Receive createReceiveRecover() {
+    return receiveBuilder()
+      .match(StockRegistryMessages.StockEvent.class, this::applyEvent)
+      .match(SnapshotOffer.class, offer -> recoverSnapshot(offer.snapshot()))
+      .match(RecoveryCompleted.class,
+        completed -> {
+          if (this.stock == null && seed != null && lastSequenceNr() == 0) {
+            // the journal, if any, holds nothing of the stock, which is as the registry has it already
+            applyEvent(new StockRegistryMessages.StockCreated(seed));
+            if (view != null)
+              view.put(this.stock);
+          } else if (this.stock != null) { // let the registry know of the recovered stock
+            publish(new StockRegistryMessages.StockCreated(this.stock));
+          }
+        }
+      )
+      .build();
   }
 
   /** 
@@ -43,42 +250,234 @@ public class StockActor extends AbstractActor {
     return receiveBuilder()
       .match(StockRegistryMessages.CreateStock.class, // handle CreateStock msgs
         createStock -> {
-          this.stock = createStock.getStock();
-          getSender().tell(new StockRegistryMessages.ActionPerformed(
-            String.format("Stock %s created.", createStock.getStock().getId())), getSelf());
+          if (this.stock != null) {
+            getSender().tell(new StockRegistryMessages.ActionPerformed(
+              String.format("Stock %s already exists.", createStock.getStock().getId())), getSelf());
+            return;
+          }
+          persistAndPublish(new StockRegistryMessages.StockCreated(createStock.getStock()), created ->
+            getSender().tell(new StockRegistryMessages.ActionPerformed(
+              String.format("Stock %s created.", createStock.getStock().getId())), getSelf()));
         }
       )
       .match(StockRegistryMessages.UpdateStock.class,  // handle UpdateStock msgs
         updateStock -> {
           if (this.stock != null) {
-            this.stock = new Stock(
-              this.stock.getId(),
+            persistAndPublish(updated(
               Optional.ofNullable(updateStock.getStock().getName()).orElse(this.stock.getName()),
               Optional.ofNullable(updateStock.getStock().getCurrentPrice()).orElse(this.stock.getCurrentPrice()),
-              Instant.now());
-            getSender().tell(
-              new StockRegistryMessages.ActionPerformed(String.format("Stock %s updated.", updateStock.getStock().getId())),
-              getSelf());
+              Instant.now()), updated ->
+              getSender().tell(
+                new StockRegistryMessages.ActionPerformed(String.format("Stock %s updated.", updateStock.getStock().getId())),
+                getSelf()));
+          } else {
+            getSender().tell(new StockRegistryMessages.ActionPerformed(
+              String.format("Stock %s not found.", updateStock.getStock().getId())), getSelf());
+            stopSelf();
+          }
+        }
+      )
+      .match(StockRegistryMessages.PriceTick.class, // handle PriceTick msgs, acknowledged one by one
+        tick -> {
+          if (this.stock != null) {
+            persistAndPublish(updated(this.stock.getName(), tick.getPrice(), Instant.ofEpochMilli(tick.getTimestamp())),
+              updated -> getSender().tell(new StockRegistryMessages.TicksAccepted(1, 0), getSelf()));
           } else {
-            getSender().tell(new StockRegistryMessages.ActionPerformed(String.format("Nothing to update.")), getSelf());
-            getContext().stop(getSelf());
+            getSender().tell(new StockRegistryMessages.TicksAccepted(0, 1), getSelf());
+            stopSelf();
           }
         }
       )
       .match(StockRegistryMessages.GetStock.class, // handle GetStock msgs
         getStock -> {
-          getSender().tell(Optional.ofNullable(this.stock), getSelf());
+          getSender().tell(new StockRegistryMessages.StockInfo(this.stock), getSelf());
+          if (this.stock == null)
+            stopSelf(); // nothing to keep alive for
+        }
+      )
+      .match(StockRegistryMessages.GetPriceHistory.class, // handle GetPriceHistory msgs
+        getPriceHistory -> {
+          if (this.stock == null) {
+            getSender().tell(new StockRegistryMessages.PriceHistoryInfo(null), getSelf());
+            stopSelf();
+            return;
+          }
+          PriceRingBuffer.Range range = history.range(getPriceHistory.getFrom(), getPriceHistory.getTo());
+          getSender().tell(new StockRegistryMessages.PriceHistoryInfo(
+            new PriceHistory(this.stock.getId(), range.getTimestamps(), range.getPrices())), getSelf());
+        }
+      )
+      .match(StockRegistryMessages.GetCandles.class, // handle GetCandles msgs
+        getCandles -> {
+          if (this.stock == null) {
+            getSender().tell(new StockRegistryMessages.CandlesInfo(null), getSelf());
+            stopSelf();
+            return;
+          }
+          CandleSeries.Slice slice = CandleSeries.Slice.EMPTY; // no candles at an unknown interval
+          for (CandleSeries series : candles)
+            if (series.intervalMillis() == getCandles.getIntervalMillis())
+              slice = series.latest(getCandles.getLimit());
+          getSender().tell(new StockRegistryMessages.CandlesInfo(new Candles(this.stock.getId(), getCandles.getIntervalMillis(),
+            slice.getStarts(), slice.getOpens(), slice.getHighs(), slice.getLows(), slice.getCloses(),
+            slice.getTicks())), getSelf());
         }
       )
       .match(StockRegistryMessages.DeleteStock.class, // handle DeleteStock msgs
         deleteStock -> {
-          getSender().tell(
-            new StockRegistryMessages.ActionPerformed(
-              String.format("Stock %s deleted.", deleteStock.getId())), getSelf());
-          getContext().stop(getSelf()); // kill this actor
+          if (this.stock == null) {
+            getSender().tell(new StockRegistryMessages.ActionPerformed("Stock not found."), getSelf());
+            stopSelf();
+            return;
+          }
+          persistAndPublish(new StockRegistryMessages.StockDeleted(this.stock.getId()), deleted -> {
+            getSender().tell(
+              new StockRegistryMessages.ActionPerformed(
+                String.format("Stock %s deleted.", deleteStock.getId())), getSelf());
+            if (persistenceEnabled()) { // a deleted stock has no history worth recovering
+              deleteMessages(lastSequenceNr());
+              deleteSnapshots(SnapshotSelectionCriteria.create(Long.MAX_VALUE, Long.MAX_VALUE));
+            }
+            stopSelf(); // kill this actor
+          });
+        }
+      )
+      .match(ReceiveTimeout.class, // ask to be stopped by the parent, once there are no messages in flight
+        idle -> {
+          getContext().setReceiveTimeout(Duration.Undefined());
+          if (sharded)
+            getContext().getParent().tell(new ShardRegion.Passivate(PoisonPill.getInstance()), getSelf());
+          else
+            getContext().getParent().tell(new StockRegistryMessages.Passivate(), getSelf());
         }
       )
+      .match(SaveSnapshotSuccess.class, // events up to a snapshot are not needed for recovery anymore
+        saved -> {
+          deleteMessages(saved.metadata().sequenceNr());
+          deleteSnapshots(SnapshotSelectionCriteria.create(saved.metadata().sequenceNr() - 1, Long.MAX_VALUE));
+        }
+      )
+      .match(SaveSnapshotFailure.class, failed -> log.warning("Snapshot of {} failed: {}", persistenceId(), failed.cause()))
+      .match(DeleteMessagesSuccess.class, deleted -> {})
+      .match(DeleteMessagesFailure.class, failed -> log.warning("Deletion of {} events failed: {}", persistenceId(), failed.cause()))
+      .match(DeleteSnapshotsSuccess.class, deleted -> {})
+      .match(DeleteSnapshotsFailure.class, failed -> log.warning("Deletion of {} snapshots failed: {}", persistenceId(), failed.cause()))
       .matchAny(unknown -> log.info("Unknown message received: {}", unknown))
       .build();
   }
+
+  /**
+   * Stops this actor, through the shard region of a sharded entity, which buffers the messages
+   * sent to the stock meanwhile and delivers them to its next incarnation.
+   */
+  private void stopSelf() {
+    if (sharded)
+      getContext().getParent().tell(new ShardRegion.Passivate(PoisonPill.getInstance()), getSelf());
+    else
+      getContext().stop(getSelf());
+  }
+
+  /**
+   * The event of the stock with its new name and price.
+   */
+  private StockRegistryMessages.StockUpdated updated(String name, Double currentPrice, Instant lastUpdate) {
+    return new StockRegistryMessages.StockUpdated(new Stock(this.stock.getId(), name, currentPrice, lastUpdate));
+  }
+
+  /**
+   * Applies a stock event to the stock of this actor.
+   */
+  private void applyEvent(StockRegistryMessages.StockEvent event) {
+    if (event instanceof StockRegistryMessages.StockCreated) {
+      this.stock = ((StockRegistryMessages.StockCreated) event).getStock();
+      record(this.stock);
+    } else if (event instanceof StockRegistryMessages.StockUpdated) {
+      this.stock = ((StockRegistryMessages.StockUpdated) event).getStock();
+      record(this.stock);
+    } else if (event instanceof StockRegistryMessages.StockDeleted) {
+      this.stock = null;
+      history.clear();
+      for (CandleSeries series : candles)
+        series.clear();
+    }
+  }
+
+  /**
+   * Records the current price of a stock in its history and candles.
+   */
+  private void record(Stock stock) {
+    if (stock.getCurrentPrice() == null)
+      return;
+    final long timestamp = stock.getLastUpdate() != null ? stock.getLastUpdate().toEpochMilli() : System.currentTimeMillis();
+    history.add(timestamp, stock.getCurrentPrice());
+    for (CandleSeries series : candles)
+      series.add(timestamp, stock.getCurrentPrice());
+  }
+
+  private CandleSeries[] copyCandles() {
+    final CandleSeries[] copy = new CandleSeries[candles.length];
+    for (int i = 0; i < candles.length; i++)
+      copy[i] = candles[i].copy();
+    return copy;
+  }
+
+  /**
+   * Restores the state of a snapshot, or the bare stock of snapshots saved before
+   * the history was kept.
+   */
+  private void recoverSnapshot(Object snapshot) {
+    history.clear();
+    for (CandleSeries series : candles)
+      series.clear();
+    if (snapshot instanceof Snapshot) {
+      this.stock = ((Snapshot) snapshot).getStock();
+      PriceRingBuffer.Range range = ((Snapshot) snapshot).getHistory().range(Long.MIN_VALUE, Long.MAX_VALUE);
+      for (int i = 0; i < range.getTimestamps().length; i++)
+        history.add(range.getTimestamps()[i], range.getPrices()[i]);
+      for (int i = 0; i < candles.length; i++)
+        for (CandleSeries saved : ((Snapshot) snapshot).getCandles())
+          if (saved.intervalMillis() == candles[i].intervalMillis() && saved.capacity() == candles[i].capacity())
+            candles[i] = saved; // candles of intervals no longer configured are dropped
+    } else {
+      this.stock = (Stock) snapshot;
+    }
+  }
+
+  /**
+   * Persists a stock event, when persistence is enabled, then applies and publishes it
+   * before the given handler answers the sender.
+   */
+  private <E extends StockRegistryMessages.StockEvent> void persistAndPublish(E event, Procedure<E> handler) throws Exception {
+    if (!persistenceEnabled()) {
+      applyEvent(event);
+      publish(event);
+      handler.apply(event);
+      return;
+    }
+    persist(event, persisted -> {
+      applyEvent(persisted);
+      publish(persisted);
+      handler.apply(persisted);
+      if (this.stock != null && lastSequenceNr() % snapshotEvery == 0)
+        saveSnapshot(new Snapshot(this.stock, history.copy(), copyCandles())); // saved by another actor
+    });
+  }
+
+  /**
+   * Publishes a stock event before the sender is answered, so the registry and the
+   * view are aware of a change by the time the sender can ask for it.
+   */
+  private void publish(StockRegistryMessages.StockEvent event) {
+    if (view != null) {
+      if (event instanceof StockRegistryMessages.StockDeleted)
+        view.remove(((StockRegistryMessages.StockDeleted) event).getId());
+      else if (this.stock != null)
+        view.put(this.stock);
+    }
+    if (sharded)
+      DistributedPubSub.get(getContext().getSystem()).mediator().tell(
+        new DistributedPubSubMediator.Publish(EVENTS_TOPIC, event), getSelf());
+    else
+      getContext().getParent().tell(event, getSelf());
+  }
 }
@@ -0,0 +1,118 @@
+package com.javaigua.stocks.actors;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import scala.concurrent.duration.Duration;
+
+import akka.actor.*;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+
+import com.javaigua.stocks.Domain.Stock;
+
+/**
+ * An actor that collects the replies of stock actors to a batch of stocks.
+ *
+ * This actor is created by the registry for every batch. Replies are matched
+ * to the stocks of the batch by the name of the replying stock actor, which is
+ * the stock id, and once every stock has its result, or the batch times out,
+ * the results are sent at once, in batch order, and this actor stops. A stock
+ * whose mailbox shed the msg is reported as rejected without waiting.
+ */
+public class StockBatchActor extends AbstractActor {
+
+  LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+
+  private final List<Stock> batch;
+  private final StockRegistryMessages.ActionPerformed[] results;
+  private final ActorRef replyTo;
+  private final long timeoutMillis;
+
+  // batch positions still waiting for a reply, by stock id
+  private final Map<String, Deque<Integer>> pending = new HashMap<>();
+  private Cancellable timeout;
+
+  /**
+   * Convenient actor builder
+   */
+  public static Props props(List<Stock> batch, StockRegistryMessages.ActionPerformed[] results,
+      ActorRef replyTo, long timeoutMillis) {
+    return Props.create(StockBatchActor.class, batch, results, replyTo, timeoutMillis);
+  }
+
+  public StockBatchActor(List<Stock> batch, StockRegistryMessages.ActionPerformed[] results,
+      ActorRef replyTo, long timeoutMillis) {
+    this.batch = batch;
+    this.results = results.clone();
+    this.replyTo = replyTo;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  @Override
+  public void preStart() {
+    for (int i = 0; i < results.length; i++) {
+      if (results[i] == null)
+        pending.computeIfAbsent(batch.get(i).getId().toString(), id -> new ArrayDeque<>()).add(i);
+    }
+    if (pending.isEmpty()) {
+      complete();
+    } else {
+      timeout = getContext().getSystem().scheduler().scheduleOnce(
+        Duration.create(timeoutMillis, "millis"), getSelf(), ReceiveTimeout.getInstance(),
+        getContext().dispatcher(), getSelf());
+    }
+  }
+
+  @Override
+  public void postStop() {
+    if (timeout != null)
+      timeout.cancel();
+  }
+
+  /**
+   * Main entry point of messages handled by this actor
+   */
+  @Override
+  public Receive createReceive(){
+    return receiveBuilder()
+      .match(StockRegistryMessages.ActionPerformed.class, this::record) // handle replies of stock actors
+      .match(Status.Failure.class, // a stock mailbox shed the msg, which is reported right away
+        failure -> record(new StockRegistryMessages.ActionPerformed(
+          String.format("Stock %s rejected: %s", getSender().path().name(), failure.cause().getMessage()))))
+      .match(ReceiveTimeout.class, // the stocks without reply are reported as timed out
+        receiveTimeout -> {
+          pending.forEach((id, positions) -> positions.forEach(i ->
+            results[i] = new StockRegistryMessages.ActionPerformed(String.format("Stock %s timed out.", id))));
+          complete();
+        }
+      )
+      .matchAny(unknown -> log.info("Unknown message received: {}", unknown))
+      .build();
+  }
+
+  /**
+   * Records the result of the first stock still waiting for a reply of the sender.
+   */
+  private void record(StockRegistryMessages.ActionPerformed performed) {
+    Deque<Integer> positions = pending.get(getSender().path().name());
+    if (positions == null) {
+      log.warning("Unexpected reply from {}: {}", getSender(), performed.getDescription());
+      return;
+    }
+    results[positions.poll()] = performed;
+    if (positions.isEmpty())
+      pending.remove(getSender().path().name());
+    if (pending.isEmpty())
+      complete();
+  }
+
+  private void complete() {
+    replyTo.tell(new StockRegistryMessages.ActionsPerformed(Arrays.asList(results)), getContext().getParent());
+    getContext().stop(getSelf());
+  }
+}
@@ -0,0 +1,36 @@
+package com.javaigua.stocks.actors;
+
+import akka.cluster.sharding.ShardRegion;
+
+/**
+ * Extracts the entity and shard identifiers of the messages sent to sharded stock actors.
+ *
+ * Every stock entity is identified by its stock id, and it is assigned to a shard
+ * by the hash code of that id.
+ */
+public class StockMessageExtractor extends ShardRegion.HashCodeMessageExtractor {
+
+  public StockMessageExtractor(int maxNumberOfShards) {
+    super(maxNumberOfShards);
+  }
+
+  @Override
+  public String entityId(Object message) {
+    if (message instanceof StockRegistryMessages.CreateStock)
+      return ((StockRegistryMessages.CreateStock) message).getStock().getId().toString();
+    else if (message instanceof StockRegistryMessages.UpdateStock)
+      return ((StockRegistryMessages.UpdateStock) message).getStock().getId().toString();
+    else if (message instanceof StockRegistryMessages.GetStock)
+      return ((StockRegistryMessages.GetStock) message).getId().toString();
+    else if (message instanceof StockRegistryMessages.GetPriceHistory)
+      return ((StockRegistryMessages.GetPriceHistory) message).getId().toString();
+    else if (message instanceof StockRegistryMessages.GetCandles)
+      return ((StockRegistryMessages.GetCandles) message).getId().toString();
+    else if (message instanceof StockRegistryMessages.DeleteStock)
+      return ((StockRegistryMessages.DeleteStock) message).getId().toString();
+    else if (message instanceof StockRegistryMessages.PriceTick)
+      return Integer.toString(((StockRegistryMessages.PriceTick) message).getId());
+    else
+      return null;
+  }
+}
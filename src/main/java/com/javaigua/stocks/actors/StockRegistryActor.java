@@ -1,42 +1,81 @@
 package com.javaigua.stocks.actors;
 
-import java.util.Optional;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
+import scala.PartialFunction;
 import scala.concurrent.Future;
 import scala.concurrent.ExecutionContext;
 import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+import scala.runtime.BoxedUnit;
 
 import akka.actor.*;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
-import akka.dispatch.Futures;
+import akka.dispatch.Recover;
+import akka.dispatch.RequiresMessageQueue;
 import akka.japi.pf.DeciderBuilder;
 import static akka.pattern.Patterns.pipe;
-import static akka.pattern.Patterns.ask;
 
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 
-import com.javaigua.stocks.Domain.Stock;
-import com.javaigua.stocks.Domain.Stocks;
+import com.javaigua.stocks.metrics.Histogram;
+import com.javaigua.stocks.metrics.InstrumentedMailbox;
+import com.javaigua.stocks.metrics.Metrics;
+import com.javaigua.stocks.store.StockSnapshotFile;
 
 /**
  * A distributed registry for stocks handled in this application.
  *
- * Every stock entity is an actor supervised by this one, therefore
- * the processing of messages sent to this actor is distributed.
- * A reference lookup, by the given stock id, is performed upon arrival
- * of every message sent to this actor. The message is then forwarded to
- * this stock actor, except when the whole list of stocks is asked, 
- * in which case all children data is aggreagated and returned.
+ * A registry plays one of four roles, each one an actor class of its own,
+ * which its builders below pick from the given arguments and the config:
+ *
+ * - LocalStockRegistryActor, whose stocks are stock actors supervised by it;
+ * - ColumnarStockRegistryActor, whose stocks are only kept in its read model;
+ * - PartitionedStockRegistryActor, which splits stocks across partitions,
+ *   themselves local or columnar registries, and merges their replies;
+ * - ShardedStockRegistryActor, whose stocks are entities of a cluster shard
+ *   region.
+ *
+ * Every registry but a partitioned one keeps a read model of its stocks,
+ * see ReadModelStockRegistryActor. The registry of a node writes every stock
+ * of its partitions to a snapshot file periodically, which is loaded back
+ * into its partitions on start, unless the journal recovers its stock actors.
+ *
+ * Every registry, and partition, publishes the depth of its mailbox and the
+ * time it takes to process every message to the metrics of the actor system.
+ * Its mailbox serves messages in order, sheds bulk writes before single ones
+ * and those before reads, and marks the actor system overloaded when full.
+ *
+ * Registries run on the registry dispatcher, and the futures merging the
+ * replies of partitions on the aggregation one, so merging a large listing
+ * does not hold the threads of stock actors nor of http connections.
  */
-public class StockRegistryActor extends AbstractActor {
+public abstract class StockRegistryActor extends AbstractActor
+  implements RequiresMessageQueue<InstrumentedMailbox.InstrumentedMessageQueueSemantics> {
 
   LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
   final Config config = ConfigFactory.load();
-  
-  final ExecutionContext ec = getContext().dispatcher();
+
+  // futures merging the replies of partitions and regions run apart from every actor
+  final ExecutionContext ec = getContext().getSystem().dispatchers().lookup(dispatcher("aggregation"));
+
+  private final Histogram processing = Metrics.get(getContext().getSystem()).histogram(
+    "stocks_registry_message_duration_seconds", "Time to process a message by a stock registry.",
+    "actor", getSelf().path().toStringWithoutAddress());
+
+  // whether this is the local registry of the node, which writes the snapshot file
+  private final boolean front;
+  // periodic writes of the snapshot file, null when disabled
+  private Cancellable snapshotWrites;
+  private boolean writingSnapshot;
 
   // Supervision strategy for child actors
   private static SupervisorStrategy strategy =
@@ -45,11 +84,124 @@ public class StockRegistryActor extends AbstractActor {
         .matchAny(o -> SupervisorStrategy.restart())
         .build());
 
+  // a message to write the stocks of this registry to the snapshot file
+  static class WriteSnapshot {
+    static final WriteSnapshot INSTANCE = new WriteSnapshot();
+  }
+
+  // a message asking a partition for the snapshot file segment of its stocks
+  static class EncodeSnapshot {
+    static final EncodeSnapshot INSTANCE = new EncodeSnapshot();
+  }
+
+  // the outcome of a write of the snapshot file
+  static class SnapshotWritten {
+    final Throwable failure;
+
+    SnapshotWritten(Throwable failure) {
+      this.failure = failure;
+    }
+  }
+
+  /**
+   * The id of the dispatcher of the given role, registry, stock, aggregation or io,
+   * as configured by application.dispatchers.
+   */
+  static String dispatcher(String role) {
+    return ConfigFactory.load().getString("application.dispatchers." + role);
+  }
+
   /**
    * Convenient actor builder
    */
   public static Props props() {
-    return Props.create(StockRegistryActor.class);
+    return props(ConfigFactory.load().getInt("application.registry.partitions"));
+  }
+
+  /**
+   * Convenient actor builder for a registry backed by a cluster shard region
+   */
+  public static Props props(ActorRef stockRegion) {
+    return Props.create(ShardedStockRegistryActor.class, stockRegion)
+      .withDispatcher(dispatcher("registry"));
+  }
+
+  /**
+   * Convenient actor builder for a local registry split into the given number of partitions
+   */
+  public static Props props(int partitions) {
+    return props(partitions, ConfigFactory.load().getString("application.registry.backend"));
+  }
+
+  /**
+   * Convenient actor builder for a local registry split into the given number of partitions,
+   * with the given storage backend, actors or columnar
+   */
+  public static Props props(int partitions, String backend) {
+    if (partitions > 1)
+      return Props.create(PartitionedStockRegistryActor.class, partitions, backend(backend))
+        .withDispatcher(dispatcher("registry"));
+    return Props.create(backendClass(backend), 0, 1, true)
+      .withDispatcher(dispatcher("registry"));
+  }
+
+  /**
+   * Convenient actor builder for a partition of a local registry
+   */
+  public static Props partitionProps(int partition, int partitions) {
+    return partitionProps(partition, partitions, ConfigFactory.load().getString("application.registry.backend"));
+  }
+
+  /**
+   * Convenient actor builder for a partition of a local registry, with the given storage backend
+   */
+  public static Props partitionProps(int partition, int partitions, String backend) {
+    return Props.create(backendClass(backend), partition, partitions, false)
+      .withDispatcher(dispatcher("registry"));
+  }
+
+  private static String backend(String backend) {
+    if (!"actors".equals(backend) && !"columnar".equals(backend))
+      throw new IllegalArgumentException("Unknown registry backend: " + backend);
+    return backend;
+  }
+
+  private static Class<? extends ReadModelStockRegistryActor> backendClass(String backend) {
+    return "columnar".equals(backend(backend)) ? ColumnarStockRegistryActor.class : LocalStockRegistryActor.class;
+  }
+
+  /**
+   * Whether the stocks of a local registry with the given backend are written to and loaded
+   * from the snapshot file: it is enabled, and they are not stock actors persisted to the
+   * journal, which alone records their deletes.
+   */
+  public static boolean snapshotFileEnabled(Config config, String backend) {
+    return config.getBoolean("application.snapshot-file.enabled")
+      && !("actors".equals(backend) && config.getBoolean("application.persistence.enabled"));
+  }
+
+  StockRegistryActor(boolean front) {
+    this.front = front;
+  }
+
+  /**
+   * Whether this registry writes the snapshot file when it is the registry of the node,
+   * see snapshotFileEnabled.
+   */
+  abstract boolean writesSnapshotFile();
+
+  /**
+   * The partition of a stock, out of the given number of partitions.
+   */
+  static int partitionOf(int id, int partitions) {
+    return Math.floorMod(id * 0x9E3779B9, partitions);
+  }
+
+  @Override
+  public void aroundReceive(PartialFunction<Object, BoxedUnit> receive, Object msg) {
+    final long start = System.nanoTime();
+    super.aroundReceive(receive, msg);
+    processing.recordSince(start);
   }
 
   @Override
@@ -57,104 +209,67 @@ public class StockRegistryActor extends AbstractActor {
     return strategy;
   }
 
-  /** 
-   * Main entry point of messages handled by this actor
-   */
   @Override
-  public Receive createReceive(){
+  public void preStart() {
+    if (front && writesSnapshotFile()) {
+      FiniteDuration interval = Duration.create(
+        config.getDuration("application.snapshot-file.interval", TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+      snapshotWrites = getContext().getSystem().scheduler().schedule(
+        interval, interval, getSelf(), WriteSnapshot.INSTANCE, ec, getSelf());
+    }
+  }
+
+  @Override
+  public void postStop() {
+    if (snapshotWrites != null)
+      snapshotWrites.cancel();
+  }
+
+  /**
+   * Behavior of the registry of a node writing the given segments of the snapshot file,
+   * encoded anew upon every write.
+   */
+  Receive snapshotWrites(Supplier<Future<Iterable<Object>>> segments) {
     return receiveBuilder()
-      .match(StockRegistryMessages.GetStocks.class, 
-        getStocks -> {
-          pipe(aggregateStocks(), ec).to(getSender());
-        }
-      )
-      .match(StockRegistryMessages.CreateStock.class, // handle CreateStock msgs
-        createStock -> {
-          Optional<ActorRef> stockActorRef = getStockActorRef(createStock.getStock().getId());
-          if (stockActorRef.isPresent()) {
-            getSender().tell(new StockRegistryMessages.ActionPerformed(
-              String.format("Stock %s already exists.", createStock.getStock().getId())), getSelf());
-          } else {
-            getStockActorRefOrCreate(createStock.getStock().getId())
-              .forward(createStock, getContext());
+      .match(WriteSnapshot.class,
+        write -> {
+          if (!writingSnapshot) { // a slow disk skips writes rather than queuing them
+            writingSnapshot = true;
+            writeSnapshot(segments.get());
           }
         }
       )
-      .match(StockRegistryMessages.UpdateStock.class, // handle UpdateStock msgs
-        updateStock -> {
-          Optional<ActorRef> stockActorRef = getStockActorRef(updateStock.getStock().getId());
-          if (stockActorRef.isPresent()) {
-            getStockActorRefOrCreate(updateStock.getStock().getId())
-              .forward(updateStock, getContext());
-          } else {
-            getSender().tell(new StockRegistryMessages.ActionPerformed(
-              String.format("Stock %s not found.", updateStock.getStock().getId())), getSelf());
-          }
-        }
-      )
-      .match(StockRegistryMessages.GetStock.class, // handle GetStock msgs
-        getStock -> {
-          Optional<ActorRef> stockActorRef = getStockActorRef(getStock.getId());
-          if (stockActorRef.isPresent())
-            stockActorRef.get().forward(getStock, getContext());
-          else
-            getSender().tell(Optional.ofNullable(null), getSelf());
-        }
-      )
-      .match(StockRegistryMessages.DeleteStock.class, // handle DeleteStock msgs
-        deleteStock -> {
-          Optional<ActorRef> stockActorRef = getStockActorRef(deleteStock.getId());
-          if (stockActorRef.isPresent())
-            stockActorRef.get().forward(deleteStock, getContext());
-          else
-            getSender().tell(new StockRegistryMessages.ActionPerformed(
-              String.format("Stock not found.", deleteStock.getId())), getSelf());
+      .match(SnapshotWritten.class,
+        written -> {
+          writingSnapshot = false;
+          if (written.failure != null)
+            log.warning("Could not write the snapshot file: {}", written.failure.getMessage());
         }
       )
-      .matchAny(unknown -> log.info("Unknown message received: {}", unknown))
       .build();
   }
-  
-  /**
-   * An aggregator of data for the stocks in this registry.
-   *
-   * Every child is asked its info, which is then put in the domain class Stocks.
-   */
-  private Future<Stocks> aggregateStocks() {
-    final int TIMEOUT = config.getInt("application.timeout-millis");
-    StockRegistryMessages.GetStock getStock = new StockRegistryMessages.GetStock(0);
-    final ArrayList<Future<Object>> futures = new ArrayList<>();
-    
-    // to aggregate information we ask every child of this actor for its data
-    getContext().getChildren().forEach(child -> futures.add(ask(child, getStock, TIMEOUT)));
-    
-    // we collect the info in a Stocks domain object
-    final Future<Stocks> stocksAggregate = Futures.sequence(futures, ec).map((iterable) -> {
-      ArrayList<Stock> stockList = new ArrayList<>();
-      for (Object o : iterable) {
-        Optional<Stock> s = (Optional<Stock>) o;
-        if (s.isPresent())
-          stockList.add(s.get());
-      }
-      return new Stocks(stockList);
-    }, ec);
-    
-    return stocksAggregate;
-  }
-  
-  /**
-   * Utility to perform Stock actor reference lookup by id.
-   */
-  private Optional<ActorRef> getStockActorRef(Integer id) {
-    return getContext().findChild(id.toString());
-  }
 
   /**
-   * Utility to perform Stock actor reference lookup by id, creating a new
-   * one in case it is alredy present in the actor system.
+   * Writes the given segments of the snapshot file to the file, out of this actor.
    */
-  private ActorRef getStockActorRefOrCreate(Integer id) {
-    return getStockActorRef(id).orElseGet(
-      () -> getContext().actorOf(StockActor.props(), id.toString()));
+  private void writeSnapshot(Future<Iterable<Object>> segments) {
+    final Path file = Paths.get(config.getString("application.snapshot-file.path"));
+    final ExecutionContext io = getContext().getSystem().dispatchers().lookup(dispatcher("io"));
+    pipe(segments.map(results -> {
+      final List<byte[]> encoded = new ArrayList<>();
+      for (Object result : results)
+        encoded.add((byte[]) result);
+      try {
+        StockSnapshotFile.write(file, encoded);
+        return new SnapshotWritten(null);
+      } catch (IOException e) {
+        return new SnapshotWritten(e);
+      }
+    }, io).recover(new Recover<SnapshotWritten>() {
+      @Override
+      public SnapshotWritten recover(Throwable failure) {
+        return new SnapshotWritten(failure);
+      }
+    }, ec), ec).to(getSelf());
   }
 }
@@ -1,8 +1,13 @@
 package com.javaigua.stocks.actors;
 
 import java.io.Serializable;
+import java.util.List;
 
+import com.javaigua.stocks.Domain.Candles;
+import com.javaigua.stocks.Domain.PriceHistory;
 import com.javaigua.stocks.Domain.Stock;
+import com.javaigua.stocks.store.CompactStockStore;
+import com.javaigua.stocks.store.StockSnapshotFile;
 
 /**
  * A set of messages, simple inmutable plain java objects, accepted and produced by 
@@ -60,6 +65,261 @@ public interface StockRegistryMessages {
     }
   }
 
+  /**
+   * A message to convey the stock asked for, null when there is no such stock.
+   */
+  class StockInfo implements Serializable {
+    private final Stock stock;
+
+    public StockInfo(Stock stock) {
+      this.stock = stock;
+    }
+
+    public Stock getStock() {
+      return stock;
+    }
+  }
+
+  /**
+   * A message to signal the retrieval of the prices of a stock from, and to,
+   * the given epoch millis.
+   */
+  class GetPriceHistory implements Serializable {
+    private final Integer id;
+    private final long from;
+    private final long to;
+
+    public GetPriceHistory(Integer id, long from, long to) {
+      this.id = id;
+      this.from = from;
+      this.to = to;
+    }
+
+    public Integer getId() {
+      return id;
+    }
+
+    public long getFrom() {
+      return from;
+    }
+
+    public long getTo() {
+      return to;
+    }
+  }
+
+  /**
+   * A message to signal the retrieval of the latest candles of a stock at the
+   * given interval.
+   */
+  class GetCandles implements Serializable {
+    private final Integer id;
+    private final long intervalMillis;
+    private final int limit;
+
+    public GetCandles(Integer id, long intervalMillis, int limit) {
+      this.id = id;
+      this.intervalMillis = intervalMillis;
+      this.limit = limit;
+    }
+
+    public Integer getId() {
+      return id;
+    }
+
+    public long getIntervalMillis() {
+      return intervalMillis;
+    }
+
+    public int getLimit() {
+      return limit;
+    }
+  }
+
+  /**
+   * A message to convey the price history asked for, null when there is no such stock.
+   */
+  class PriceHistoryInfo implements Serializable {
+    private final PriceHistory history;
+
+    public PriceHistoryInfo(PriceHistory history) {
+      this.history = history;
+    }
+
+    public PriceHistory getHistory() {
+      return history;
+    }
+  }
+
+  /**
+   * A message to convey the candles asked for, null when there is no such stock.
+   */
+  class CandlesInfo implements Serializable {
+    private final Candles candles;
+
+    public CandlesInfo(Candles candles) {
+      this.candles = candles;
+    }
+
+    public Candles getCandles() {
+      return candles;
+    }
+  }
+
+  /**
+   * A message to signal the retrieval of the stocks with the given ids.
+   */
+  class GetStocksByIds implements Serializable {
+    private final List<Integer> ids;
+
+    public GetStocksByIds(List<Integer> ids) {
+      this.ids = ids;
+    }
+
+    public List<Integer> getIds() {
+      return ids;
+    }
+  }
+
+  /**
+   * A message to convey the stocks found by their ids, and the ids of the missing ones.
+   */
+  class StocksByIds implements Serializable {
+    private final List<Stock> stocks;
+    private final List<Integer> missingIds;
+
+    public StocksByIds(List<Stock> stocks, List<Integer> missingIds) {
+      this.stocks = stocks;
+      this.missingIds = missingIds;
+    }
+
+    public List<Stock> getStocks() {
+      return stocks;
+    }
+
+    public List<Integer> getMissingIds() {
+      return missingIds;
+    }
+  }
+
+  /**
+   * A message to signal the retrieval of a page of at most limit stocks in the given
+   * order, after the stock of the given key in that order and id, whose price and last
+   * update, in epoch millis, lie within the given bounds, inclusive.
+   *
+   * See CompactStockStore.page for the first page and open bounds; the registry answers
+   * with the Stocks of the page.
+   */
+  class GetStocksPage implements Serializable {
+    private final CompactStockStore.Order order;
+    private final long afterKey;
+    private final int afterId;
+    private final double minPrice;
+    private final double maxPrice;
+    private final long from;
+    private final long to;
+    private final int limit;
+
+    /**
+     * A message to signal the retrieval of the first page of stocks in the given order, without bounds.
+     */
+    public GetStocksPage(CompactStockStore.Order order, int limit) {
+      this(order, Long.MIN_VALUE, Integer.MIN_VALUE, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+        Long.MIN_VALUE, Long.MAX_VALUE, limit);
+    }
+
+    public GetStocksPage(CompactStockStore.Order order, long afterKey, int afterId, double minPrice,
+        double maxPrice, long from, long to, int limit) {
+      this.order = order;
+      this.afterKey = afterKey;
+      this.afterId = afterId;
+      this.minPrice = minPrice;
+      this.maxPrice = maxPrice;
+      this.from = from;
+      this.to = to;
+      this.limit = limit;
+    }
+
+    public CompactStockStore.Order getOrder() {
+      return order;
+    }
+
+    public long getAfterKey() {
+      return afterKey;
+    }
+
+    public int getAfterId() {
+      return afterId;
+    }
+
+    public double getMinPrice() {
+      return minPrice;
+    }
+
+    public double getMaxPrice() {
+      return maxPrice;
+    }
+
+    public long getFrom() {
+      return from;
+    }
+
+    public long getTo() {
+      return to;
+    }
+
+    public int getLimit() {
+      return limit;
+    }
+  }
+
+  /**
+   * A message to signal the search of at most limit stocks by name.
+   */
+  class SearchStocks implements Serializable {
+    private final String query;
+    private final int limit;
+
+    public SearchStocks(String query, int limit) {
+      this.query = query;
+      this.limit = limit;
+    }
+
+    public String getQuery() {
+      return query;
+    }
+
+    public int getLimit() {
+      return limit;
+    }
+  }
+
+  /**
+   * A message to signal the retrieval of at most limit stocks that moved the most.
+   */
+  class GetMovers implements Serializable {
+    private final CompactStockStore.Move by;
+    private final int limit;
+
+    public GetMovers(CompactStockStore.Move by, int limit) {
+      this.by = by;
+      this.limit = limit;
+    }
+
+    public CompactStockStore.Move getBy() {
+      return by;
+    }
+
+    public int getLimit() {
+      return limit;
+    }
+  }
+
+  /**
+   * A message to signal the retrieval of market-wide statistics of stocks.
+   */
+  class GetStockStats implements Serializable {}
+
   /**
    * A message to signal the elimination of a stock.
    */
@@ -75,6 +335,83 @@ public interface StockRegistryMessages {
     }
   }
 
+  /**
+   * A message to signal a new price of a stock, as of the given epoch millis.
+   *
+   * Price ticks are not answered by stock actors, and they are ignored for missing stocks.
+   */
+  class PriceTick implements Serializable {
+    private final int id;
+    private final double price;
+    private final long timestamp;
+
+    public PriceTick(int id, double price, long timestamp) {
+      this.id = id;
+      this.price = price;
+      this.timestamp = timestamp;
+    }
+
+    public int getId() {
+      return id;
+    }
+
+    public double getPrice() {
+      return price;
+    }
+
+    public long getTimestamp() {
+      return timestamp;
+    }
+  }
+
+  /**
+   * A message to signal a batch of price ticks.
+   */
+  class PriceTicks implements Serializable {
+    private final List<PriceTick> ticks;
+
+    public PriceTicks(List<PriceTick> ticks) {
+      this.ticks = ticks;
+    }
+
+    public List<PriceTick> getTicks() {
+      return ticks;
+    }
+  }
+
+  /**
+   * A message to acknowledge price ticks, conveying how many were applied to their
+   * stocks, how many were for unknown stocks and how many were rejected, shed by the
+   * mailbox of their stock or left without reply.
+   */
+  class TicksAccepted implements Serializable {
+    private final int accepted;
+    private final int unknown;
+    private final int rejected;
+
+    public TicksAccepted(int accepted, int unknown) {
+      this(accepted, unknown, 0);
+    }
+
+    public TicksAccepted(int accepted, int unknown, int rejected) {
+      this.accepted = accepted;
+      this.unknown = unknown;
+      this.rejected = rejected;
+    }
+
+    public int getAccepted() {
+      return accepted;
+    }
+
+    public int getUnknown() {
+      return unknown;
+    }
+
+    public int getRejected() {
+      return rejected;
+    }
+  }
+
   /**
    * A message to convey the result of an action performed.
    */
@@ -89,4 +426,135 @@ public interface StockRegistryMessages {
       return description;
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * A message to signal the creation of a batch of stocks.
+   */
+  class CreateStocks implements Serializable {
+    private final List<Stock> stocks;
+
+    public CreateStocks(List<Stock> stocks) {
+      this.stocks = stocks;
+    }
+
+    public List<Stock> getStocks() {
+      return stocks;
+    }
+  }
+
+  /**
+   * A message to signal the modification of a batch of stocks.
+   */
+  class UpdateStocks implements Serializable {
+    private final List<Stock> stocks;
+
+    public UpdateStocks(List<Stock> stocks) {
+      this.stocks = stocks;
+    }
+
+    public List<Stock> getStocks() {
+      return stocks;
+    }
+  }
+
+  /**
+   * A message to convey the results of the actions performed on a batch, in batch order.
+   */
+  class ActionsPerformed implements Serializable {
+    private final List<ActionPerformed> actions;
+
+    public ActionsPerformed(List<ActionPerformed> actions) {
+      this.actions = actions;
+    }
+
+    public List<ActionPerformed> getActions() {
+      return actions;
+    }
+  }
+
+  /**
+   * A message to signal the load of the stocks of a snapshot file into a local registry,
+   * keeping those it already has. Only sent within a node, as it holds the mapped file.
+   */
+  class LoadSnapshot {
+    private final StockSnapshotFile snapshot;
+
+    public LoadSnapshot(StockSnapshotFile snapshot) {
+      this.snapshot = snapshot;
+    }
+
+    public StockSnapshotFile getSnapshot() {
+      return snapshot;
+    }
+  }
+
+  /**
+   * A message to convey the number of stocks loaded from a snapshot file.
+   */
+  class SnapshotLoaded implements Serializable {
+    private final int loaded;
+
+    public SnapshotLoaded(int loaded) {
+      this.loaded = loaded;
+    }
+
+    public int getLoaded() {
+      return loaded;
+    }
+  }
+
+  /**
+   * A message of an idle stock actor asking its registry to stop it.
+   */
+  class Passivate implements Serializable {}
+
+  /**
+   * An event published by a stock actor upon every change of its stock.
+   */
+  interface StockEvent extends Serializable {}
+
+  /**
+   * An event to signal a stock was created.
+   */
+  class StockCreated implements StockEvent {
+    private final Stock stock;
+
+    public StockCreated(Stock stock) {
+      this.stock = stock;
+    }
+
+    public Stock getStock() {
+      return stock;
+    }
+  }
+
+  /**
+   * An event to signal a stock was modified, conveying its new state.
+   */
+  class StockUpdated implements StockEvent {
+    private final Stock stock;
+
+    public StockUpdated(Stock stock) {
+      this.stock = stock;
+    }
+
+    public Stock getStock() {
+      return stock;
+    }
+  }
+
+  /**
+   * An event to signal a stock was eliminated.
+   */
+  class StockDeleted implements StockEvent {
+    private final Integer id;
+
+    public StockDeleted(Integer id) {
+      this.id = id;
+    }
+
+    public Integer getId() {
+      return id;
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package com.javaigua.stocks.actors;
+
+import scala.concurrent.duration.Duration;
+
+import akka.actor.*;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+
+/**
+ * An actor that collects the replies of stock actors to a batch of price ticks.
+ *
+ * This actor is created by the registry for every batch of ticks sent to stock
+ * actors. Every stock actor answers a tick once it applied it, or found its stock
+ * unknown, and once every tick has its reply, or the batch times out, the batch
+ * is acknowledged at once and this actor stops. A tick shed by a full stock mailbox,
+ * or left without reply, is counted as rejected.
+ */
+public class StockTicksActor extends AbstractActor {
+
+  LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+
+  private final ActorRef replyTo;
+  private final long timeoutMillis;
+
+  // ticks still waiting for a reply
+  private int pending;
+  private int accepted;
+  private int unknown;
+  private int rejected;
+  private Cancellable timeout;
+
+  /**
+   * Convenient actor builder
+   */
+  public static Props props(int ticks, int unknown, ActorRef replyTo, long timeoutMillis) {
+    return Props.create(StockTicksActor.class, ticks, unknown, replyTo, timeoutMillis);
+  }
+
+  public StockTicksActor(int ticks, int unknown, ActorRef replyTo, long timeoutMillis) {
+    this.pending = ticks - unknown;
+    this.unknown = unknown;
+    this.replyTo = replyTo;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  @Override
+  public void preStart() {
+    if (pending == 0) {
+      complete();
+    } else {
+      timeout = getContext().getSystem().scheduler().scheduleOnce(
+        Duration.create(timeoutMillis, "millis"), getSelf(), ReceiveTimeout.getInstance(),
+        getContext().dispatcher(), getSelf());
+    }
+  }
+
+  @Override
+  public void postStop() {
+    if (timeout != null)
+      timeout.cancel();
+  }
+
+  /**
+   * Main entry point of messages handled by this actor
+   */
+  @Override
+  public Receive createReceive(){
+    return receiveBuilder()
+      .match(StockRegistryMessages.TicksAccepted.class, // handle replies of stock actors
+        ticked -> {
+          accepted += ticked.getAccepted();
+          unknown += ticked.getUnknown();
+          rejected += ticked.getRejected();
+          received();
+        }
+      )
+      .match(Status.Failure.class, // a stock mailbox shed the tick
+        failure -> {
+          rejected++;
+          received();
+        }
+      )
+      .match(ReceiveTimeout.class, // the ticks without reply are counted as rejected
+        receiveTimeout -> {
+          log.warning("{} ticks timed out", pending);
+          rejected += pending;
+          complete();
+        }
+      )
+      .matchAny(unknown -> log.info("Unknown message received: {}", unknown))
+      .build();
+  }
+
+  private void received() {
+    if (--pending == 0)
+      complete();
+  }
+
+  private void complete() {
+    replyTo.tell(new StockRegistryMessages.TicksAccepted(accepted, unknown, rejected), getContext().getParent());
+    getContext().stop(getSelf());
+  }
+}
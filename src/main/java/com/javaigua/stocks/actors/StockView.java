@@ -0,0 +1,65 @@
+package com.javaigua.stocks.actors;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+
+import com.javaigua.stocks.Domain.Stock;
+
+/**
+ * A concurrent view of the latest state of the stocks whose actors run in this actor system.
+ *
+ * Stock actors remain the single writers of their stocks: every stock actor publishes the
+ * immutable Stock of every create and update here, and removes it upon delete or when it
+ * stops, before it answers. Readers on any thread get a consistent stock without messaging
+ * any actor, and without locking. A stock missing from this view may still exist, held by a
+ * passivated or a remote stock actor, so readers fall back to asking the registry.
+ */
+public class StockView implements Extension {
+
+  private final ConcurrentMap<Integer, Stock> stocks = new ConcurrentHashMap<>();
+
+  /**
+   * The view of the given actor system.
+   */
+  public static StockView get(ActorSystem system) {
+    return Id.INSTANCE.get(system);
+  }
+
+  /**
+   * The latest state of the stock with the given id, or null when it is not in this view.
+   */
+  public Stock get(Integer id) {
+    return stocks.get(id);
+  }
+
+  void put(Stock stock) {
+    stocks.put(stock.getId(), stock);
+  }
+
+  void remove(Integer id) {
+    stocks.remove(id);
+  }
+
+  /**
+   * The extension id of the view.
+   */
+  static class Id extends AbstractExtensionId<StockView> implements ExtensionIdProvider {
+    static final Id INSTANCE = new Id();
+
+    @Override
+    public Id lookup() {
+      return INSTANCE;
+    }
+
+    @Override
+    public StockView createExtension(ExtendedActorSystem system) {
+      return new StockView();
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package com.javaigua.stocks.api;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.http.javadsl.model.ws.Message;
+import akka.http.javadsl.model.ws.TextMessage;
+import akka.pattern.PatternsCS;
+import akka.stream.OverflowStrategy;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import akka.util.Timeout;
+
+import com.typesafe.config.Config;
+
+import com.javaigua.stocks.actors.StockRegistryMessages.PriceTick;
+import com.javaigua.stocks.actors.StockRegistryMessages.PriceTicks;
+import com.javaigua.stocks.actors.StockRegistryMessages.TicksAccepted;
+
+/**
+ * A WebSocket flow that ingests a continuous stream of compact price ticks.
+ *
+ * Text messages hold one tick per line, as "id,price[,epochMillis]", and binary messages
+ * hold 20 byte big-endian records of an int id, a double price and a long epoch millis.
+ * Ticks are buffered up to a bound, then sent to the registry in batches of at most
+ * batch-size ticks every ack-interval, one batch at a time, so a slow registry
+ * backpressures the client. Every batch is acknowledged with a single text message once
+ * its stocks applied it, e.g. {"accepted":997,"unknown":2,"rejected":1}, where rejected
+ * ticks were shed by the full mailbox of their stock or timed out.
+ */
+public class PriceTicksFlow {
+
+  static final int RECORD_SIZE = 4 + 8 + 8;
+
+  private PriceTicksFlow() {}
+
+  /**
+   * Creates the flow of tick messages in and acknowledgement messages out.
+   */
+  public static Flow<Message, Message, NotUsed> create(ActorRef stockRegistryActor, Config config, Timeout timeout) {
+    final FiniteDuration ackInterval = Duration.create(
+      config.getInt("application.ticks.ack-interval-millis"), TimeUnit.MILLISECONDS);
+
+    return Flow.<Message>create()
+      .flatMapConcat(PriceTicksFlow::parse)
+      .mapConcat(ticks -> ticks)
+      .buffer(config.getInt("application.ticks.buffer-size"), OverflowStrategy.backpressure())
+      .groupedWithin(config.getInt("application.ticks.batch-size"), ackInterval)
+      .mapAsync(1, ticks -> PatternsCS.ask(stockRegistryActor, new PriceTicks(ticks), timeout))
+      .map(obj -> {
+        TicksAccepted accepted = (TicksAccepted) obj;
+        return (Message) TextMessage.create(String.format("{\"accepted\":%d,\"unknown\":%d,\"rejected\":%d}",
+          accepted.getAccepted(), accepted.getUnknown(), accepted.getRejected()));
+      });
+  }
+
+  /**
+   * Parses the ticks of a text or binary message, which may be streamed in several frames.
+   */
+  private static Source<List<PriceTick>, NotUsed> parse(Message message) {
+    if (message.isText())
+      return message.asTextMessage().getStreamedText()
+        .fold(new StringBuilder(), StringBuilder::append)
+        .map(text -> parseText(text.toString()))
+        .mapMaterializedValue(mat -> NotUsed.getInstance());
+    else
+      return message.asBinaryMessage().getStreamedData()
+        .fold(ByteString.empty(), ByteString::concat)
+        .map(PriceTicksFlow::parseBinary)
+        .mapMaterializedValue(mat -> NotUsed.getInstance());
+  }
+
+  static List<PriceTick> parseText(String text) {
+    final List<PriceTick> ticks = new ArrayList<>();
+    final long now = System.currentTimeMillis();
+    for (String line : text.split("\n")) {
+      line = line.trim();
+      if (line.isEmpty()) continue;
+      String[] fields = line.split(",");
+      if (fields.length < 2 || fields.length > 3)
+        throw new IllegalArgumentException("Malformed price tick: " + line);
+      ticks.add(new PriceTick(
+        Integer.parseInt(fields[0].trim()),
+        Double.parseDouble(fields[1].trim()),
+        fields.length == 3 ? Long.parseLong(fields[2].trim()) : now));
+    }
+    return ticks;
+  }
+
+  static List<PriceTick> parseBinary(ByteString bytes) {
+    if (bytes.size() % RECORD_SIZE != 0)
+      throw new IllegalArgumentException("Malformed price ticks of " + bytes.size() + " bytes");
+    final ByteBuffer buffer = bytes.asByteBuffer();
+    final List<PriceTick> ticks = new ArrayList<>(bytes.size() / RECORD_SIZE);
+    while (buffer.hasRemaining())
+      ticks.add(new PriceTick(buffer.getInt(), buffer.getDouble(), buffer.getLong()));
+    return ticks;
+  }
+}
@@ -0,0 +1,96 @@
+package com.javaigua.stocks.api;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.http.javadsl.model.sse.ServerSentEvent;
+import akka.japi.Pair;
+import akka.stream.Materializer;
+import akka.stream.OverflowStrategy;
+import akka.stream.javadsl.BroadcastHub;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.Config;
+
+import com.javaigua.stocks.Domain.Stock;
+import com.javaigua.stocks.actors.StockRegistryMessages.StockUpdated;
+
+/**
+ * A hub that fans stock updates out to every Server-Sent Events subscriber.
+ *
+ * The registry publishes every stock update it applies to the event stream of the
+ * actor system, where a single hub input actor is subscribed, so a change is handed
+ * over once no matter how many subscribers there are. That input never backpressures
+ * the actors: it drops its oldest updates when full. Every subscriber conflates the
+ * updates it cannot keep up with, keeping the latest one per stock, so a slow client
+ * only ever skips intermediate prices and never slows down the hub or other clients.
+ */
+public class StockEventsHub {
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  private final Source<Stock, NotUsed> updates;
+  private final FiniteDuration keepAlive;
+
+  public StockEventsHub(ActorSystem system, Materializer materializer, Config config) {
+    final int bufferSize = config.getInt("application.events.buffer-size");
+    this.keepAlive = Duration.create(config.getInt("application.events.keep-alive-seconds"), TimeUnit.SECONDS);
+
+    final Pair<ActorRef, Source<Stock, NotUsed>> hub = Source.<StockUpdated>actorRef(bufferSize, OverflowStrategy.dropHead())
+      .map(StockUpdated::getStock)
+      .toMat(BroadcastHub.of(Stock.class, bufferSize), Keep.both())
+      .run(materializer);
+    system.eventStream().subscribe(hub.first(), StockUpdated.class);
+
+    // keeps the hub flowing while there are no subscribers, so they never start with stale updates
+    hub.second().runWith(Sink.ignore(), materializer);
+    this.updates = hub.second();
+  }
+
+  /**
+   * Updates of every stock, as they happen.
+   */
+  public Source<ServerSentEvent, NotUsed> updates() {
+    return updates
+      .<Map<Integer, Stock>>conflateWithSeed(
+        stock -> {
+          Map<Integer, Stock> latest = new LinkedHashMap<>();
+          latest.put(stock.getId(), stock);
+          return latest;
+        },
+        (latest, stock) -> {
+          latest.remove(stock.getId()); // keep arrival order of the latest updates
+          latest.put(stock.getId(), stock);
+          return latest;
+        })
+      .mapConcat(latest -> latest.values())
+      .map(StockEventsHub::toServerSentEvent)
+      .keepAlive(keepAlive, () -> akka.http.scaladsl.model.sse.ServerSentEvent.heartbeat());
+  }
+
+  /**
+   * Updates of the stock with the given id, as they happen.
+   */
+  public Source<ServerSentEvent, NotUsed> updates(Integer id) {
+    return updates
+      .filter(stock -> id.equals(stock.getId()))
+      .<Stock>conflate((older, newer) -> newer)
+      .map(StockEventsHub::toServerSentEvent)
+      .keepAlive(keepAlive, () -> akka.http.scaladsl.model.sse.ServerSentEvent.heartbeat());
+  }
+
+  private static ServerSentEvent toServerSentEvent(Stock stock) throws JsonProcessingException {
+    return ServerSentEvent.create(mapper.writeValueAsString(stock), "update");
+  }
+}
@@ -0,0 +1,692 @@
+package com.javaigua.stocks.api;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import akka.http.javadsl.marshalling.Marshaller;
+import akka.http.javadsl.model.HttpEntity;
+import akka.http.javadsl.model.MediaTypes;
+import akka.http.javadsl.model.RequestEntity;
+import akka.http.javadsl.unmarshalling.Unmarshaller;
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+
+import com.javaigua.stocks.Domain.Stock;
+import com.javaigua.stocks.Domain.Stocks;
+import com.javaigua.stocks.Domain.StocksPage;
+
+/**
+ * A JSON codec of stocks, a drop-in replacement of the Jackson marshallers and unmarshallers
+ * of the routes for stocks, lists and pages of stocks and batches of stocks.
+ *
+ * Stocks are written field by field into a buffer flushed to a ByteStringBuilder, in the
+ * wire format of Jackson: properties in alphabetical order, nulls written, lastUpdate as its
+ * epochSecond and nano, and doubles as Double.toString. Request bodies are parsed straight
+ * from their bytes, without reflection nor intermediate trees. Missing properties take the
+ * values of the no-args constructor of Stock, and unknown ones are rejected, as with Jackson;
+ * unlike it, lastUpdate is also read back in the format it is written in.
+ */
+public final class StockJsonCodec {
+
+  private static final byte[] CURRENT_PRICE = ascii("{\"currentPrice\":");
+  private static final byte[] ID = ascii(",\"id\":");
+  private static final byte[] LAST_UPDATE = ascii(",\"lastUpdate\":");
+  private static final byte[] EPOCH_SECOND = ascii("{\"epochSecond\":");
+  private static final byte[] NANO = ascii(",\"nano\":");
+  private static final byte[] NAME = ascii(",\"name\":");
+  private static final byte[] NULL = ascii("null");
+  private static final byte[] STOCKS = ascii("{\"stocks\":[");
+  private static final byte[] NEXT = ascii("{\"next\":");
+  private static final byte[] PAGE_STOCKS = ascii(",\"stocks\":[");
+  private static final byte[] HEX = ascii("0123456789ABCDEF");
+
+  // properties of a stock, by their index in KEYS
+  private static final int CURRENT_PRICE_KEY = 0;
+  private static final int ID_KEY = 1;
+  private static final int LAST_UPDATE_KEY = 2;
+  private static final int NAME_KEY = 3;
+  private static final byte[][] KEYS = {ascii("currentPrice"), ascii("id"), ascii("lastUpdate"), ascii("name")};
+  private static final byte[][] INSTANT_KEYS = {ascii("epochSecond"), ascii("nano")};
+
+  // exact powers of ten, a double divided by one of them is correctly rounded
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15,
+    1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private StockJsonCodec() {}
+
+  /**
+   * The marshaller of a stock to an application/json entity.
+   */
+  public static Marshaller<Stock, RequestEntity> marshaller() {
+    return Marshaller.wrapEntity(StockJsonCodec::encode, Marshaller.byteStringToEntity(), MediaTypes.APPLICATION_JSON);
+  }
+
+  /**
+   * The marshaller of a list of stocks to an application/json entity.
+   */
+  public static Marshaller<Stocks, RequestEntity> stocksMarshaller() {
+    return Marshaller.wrapEntity(StockJsonCodec::encodeStocks, Marshaller.byteStringToEntity(), MediaTypes.APPLICATION_JSON);
+  }
+
+  /**
+   * The marshaller of a page of stocks to an application/json entity.
+   */
+  public static Marshaller<StocksPage, RequestEntity> pageMarshaller() {
+    return Marshaller.wrapEntity(StockJsonCodec::encodePage, Marshaller.byteStringToEntity(), MediaTypes.APPLICATION_JSON);
+  }
+
+  /**
+   * The unmarshaller of a stock from an application/json entity.
+   */
+  public static Unmarshaller<HttpEntity, Stock> unmarshaller() {
+    return Unmarshaller.forMediaType(MediaTypes.APPLICATION_JSON, Unmarshaller.entityToByteString())
+      .thenApply(StockJsonCodec::decodeStock);
+  }
+
+  /**
+   * The unmarshaller of an array of stocks from an application/json entity.
+   */
+  public static Unmarshaller<HttpEntity, Stock[]> arrayUnmarshaller() {
+    return Unmarshaller.forMediaType(MediaTypes.APPLICATION_JSON, Unmarshaller.entityToByteString())
+      .thenApply(StockJsonCodec::decodeStocks);
+  }
+
+  /**
+   * The JSON of a stock.
+   */
+  public static ByteString encode(Stock stock) {
+    final Output out = new Output(ByteString.createBuilder(), 128);
+    out.stock(stock);
+    return out.result();
+  }
+
+  /**
+   * The JSON of a list of stocks.
+   */
+  public static ByteString encodeStocks(Stocks stocks) {
+    final List<Stock> list = stocks.getStocks();
+    final ByteStringBuilder builder = ByteString.createBuilder();
+    builder.sizeHint(16 + list.size() * 96);
+    final Output out = new Output(builder, 8192);
+    out.bytes(STOCKS);
+    out.stocks(list);
+    return out.result();
+  }
+
+  /**
+   * The JSON of a page of stocks.
+   */
+  public static ByteString encodePage(StocksPage page) {
+    final List<Stock> list = page.getStocks();
+    final ByteStringBuilder builder = ByteString.createBuilder();
+    builder.sizeHint(48 + list.size() * 96);
+    final Output out = new Output(builder, 8192);
+    out.bytes(NEXT);
+    if (page.getNext() == null)
+      out.bytes(NULL);
+    else
+      out.string(page.getNext());
+    out.bytes(PAGE_STOCKS);
+    out.stocks(list);
+    return out.result();
+  }
+
+  /**
+   * The stock of the given JSON object.
+   *
+   * @throws IllegalArgumentException when the JSON is not a stock
+   */
+  public static Stock decodeStock(ByteString json) {
+    final Input in = new Input(json);
+    return in.stock(); // trailing content is ignored, as Jackson does
+  }
+
+  /**
+   * The stocks of the given JSON array of stock objects.
+   *
+   * @throws IllegalArgumentException when the JSON is not an array of stocks
+   */
+  public static Stock[] decodeStocks(ByteString json) {
+    final Input in = new Input(json);
+    final List<Stock> stocks = new ArrayList<>();
+    in.expect('[');
+    if (!in.consume(']')) {
+      do {
+        stocks.add(in.stock());
+      } while (in.consume(','));
+      in.expect(']');
+    }
+    return stocks.toArray(new Stock[stocks.size()]);
+  }
+
+  private static byte[] ascii(String text) {
+    return text.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * A buffer of the JSON written, flushed to a ByteStringBuilder when full.
+   */
+  private static final class Output {
+    private final ByteStringBuilder builder;
+    private final byte[] buffer;
+    private int position;
+
+    Output(ByteStringBuilder builder, int size) {
+      this.builder = builder;
+      this.buffer = new byte[size];
+    }
+
+    ByteString result() {
+      flush();
+      return builder.result();
+    }
+
+    private void flush() {
+      builder.putBytes(buffer, 0, position);
+      position = 0;
+    }
+
+    // room for the given number of bytes, at most 32
+    private void reserve(int bytes) {
+      if (position + bytes > buffer.length)
+        flush();
+    }
+
+    void ascii(char c) {
+      reserve(1);
+      buffer[position++] = (byte) c;
+    }
+
+    void bytes(byte[] bytes) {
+      if (bytes.length > buffer.length - position) {
+        flush();
+        if (bytes.length > buffer.length) {
+          builder.putBytes(bytes);
+          return;
+        }
+      }
+      System.arraycopy(bytes, 0, buffer, position, bytes.length);
+      position += bytes.length;
+    }
+
+    // an ascii text, e.g. a number formatted by the JDK
+    private void text(String text) {
+      bytes(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    // the stocks of a list and the end of the object holding it
+    void stocks(List<Stock> stocks) {
+      for (int i = 0; i < stocks.size(); i++) {
+        if (i > 0)
+          ascii(',');
+        stock(stocks.get(i));
+      }
+      ascii(']');
+      ascii('}');
+    }
+
+    void stock(Stock stock) {
+      bytes(CURRENT_PRICE);
+      if (stock.getCurrentPrice() == null)
+        bytes(NULL);
+      else
+        number(stock.getCurrentPrice());
+      bytes(ID);
+      if (stock.getId() == null)
+        bytes(NULL);
+      else
+        number(stock.getId());
+      bytes(LAST_UPDATE);
+      final Instant lastUpdate = stock.getLastUpdate();
+      if (lastUpdate == null) {
+        bytes(NULL);
+      } else {
+        bytes(EPOCH_SECOND);
+        number(lastUpdate.getEpochSecond());
+        bytes(NANO);
+        number(lastUpdate.getNano());
+        ascii('}');
+      }
+      bytes(NAME);
+      if (stock.getName() == null)
+        bytes(NULL);
+      else
+        string(stock.getName());
+      ascii('}');
+    }
+
+    void number(long value) {
+      if (value == Long.MIN_VALUE) {
+        text(Long.toString(value));
+        return;
+      }
+      reserve(20);
+      if (value < 0) {
+        buffer[position++] = '-';
+        value = -value;
+      }
+      int digits = 1;
+      for (long rest = value / 10; rest > 0; rest /= 10)
+        digits++;
+      for (int i = position + digits - 1; i >= position; i--) {
+        buffer[i] = (byte) ('0' + value % 10);
+        value /= 10;
+      }
+      position += digits;
+    }
+
+    /**
+     * Writes a double as Double.toString does, prices of at most two decimals without it.
+     */
+    void number(double value) {
+      final double magnitude = Math.abs(value);
+      final long cents = Math.round(magnitude * 100);
+      if (magnitude >= 1 && magnitude < 1e7 && cents / 100d == magnitude) {
+        if (Double.doubleToRawLongBits(value) < 0)
+          ascii('-');
+        number(cents / 100);
+        ascii('.');
+        final int fraction = (int) (cents % 100);
+        ascii((char) ('0' + fraction / 10));
+        if (fraction % 10 != 0)
+          ascii((char) ('0' + fraction % 10));
+      } else if (value == 0) {
+        text(Double.toString(value));
+      } else if (Double.isNaN(value) || Double.isInfinite(value)) {
+        ascii('"');
+        text(Double.toString(value));
+        ascii('"');
+      } else {
+        text(Double.toString(value));
+      }
+    }
+
+    void string(String value) {
+      ascii('"');
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        reserve(6);
+        if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+          buffer[position++] = (byte) c;
+        } else if (c < 0x80) {
+          escape(c);
+        } else if (c < 0x800) {
+          buffer[position++] = (byte) (0xc0 | (c >> 6));
+          buffer[position++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+            && Character.isLowSurrogate(value.charAt(i + 1))) {
+          int codePoint = Character.toCodePoint(c, value.charAt(++i));
+          buffer[position++] = (byte) (0xf0 | (codePoint >> 18));
+          buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+          buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+          buffer[position++] = (byte) (0x80 | (codePoint & 0x3f));
+        } else if (Character.isSurrogate(c)) {
+          buffer[position++] = '?'; // an unpaired surrogate, as String.getBytes writes it
+        } else {
+          buffer[position++] = (byte) (0xe0 | (c >> 12));
+          buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+          buffer[position++] = (byte) (0x80 | (c & 0x3f));
+        }
+      }
+      ascii('"');
+    }
+
+    // the escapes of Jackson, short ones where JSON has them
+    private void escape(char c) {
+      buffer[position++] = '\\';
+      switch (c) {
+        case '"': buffer[position++] = '"'; break;
+        case '\\': buffer[position++] = '\\'; break;
+        case '\b': buffer[position++] = 'b'; break;
+        case '\t': buffer[position++] = 't'; break;
+        case '\f': buffer[position++] = 'f'; break;
+        case '\n': buffer[position++] = 'n'; break;
+        case '\r': buffer[position++] = 'r'; break;
+        default:
+          buffer[position++] = 'u';
+          buffer[position++] = '0';
+          buffer[position++] = '0';
+          buffer[position++] = HEX[c >> 4];
+          buffer[position++] = HEX[c & 0xf];
+      }
+    }
+  }
+
+  /**
+   * A cursor over the bytes of a JSON document.
+   */
+  private static final class Input {
+    private final byte[] bytes;
+    private int position;
+
+    Input(ByteString json) {
+      final ByteBuffer buffer = json.asByteBuffer();
+      this.bytes = new byte[buffer.remaining()];
+      buffer.get(bytes);
+    }
+
+    Stock stock() {
+      Integer id = 0;
+      String name = "";
+      Double currentPrice = 0d;
+      Instant lastUpdate = null;
+      boolean updated = false;
+      expect('{');
+      if (!consume('}')) {
+        do {
+          int key = key(KEYS);
+          expect(':');
+          switch (key) {
+            case CURRENT_PRICE_KEY:
+              currentPrice = nullableDouble();
+              break;
+            case ID_KEY:
+              id = nullableInteger();
+              break;
+            case LAST_UPDATE_KEY:
+              lastUpdate = instant();
+              updated = true;
+              break;
+            case NAME_KEY:
+              name = nullableString();
+              break;
+            default:
+              throw malformed("unknown property of a stock");
+          }
+        } while (consume(','));
+        expect('}');
+      }
+      return new Stock(id, name, currentPrice, updated ? lastUpdate : Instant.now());
+    }
+
+    /**
+     * Reads an instant as written, {"epochSecond":..,"nano":..}, or null.
+     */
+    private Instant instant() {
+      if (consumeNull())
+        return null;
+      long epochSecond = 0;
+      long nano = 0;
+      expect('{');
+      if (!consume('}')) {
+        do {
+          int key = key(INSTANT_KEYS);
+          expect(':');
+          if (key < 0)
+            throw malformed("unknown property of an instant");
+          double value = number();
+          if (value != Math.rint(value))
+            throw malformed("an instant of a fraction of a second or nano");
+          if (key == 0)
+            epochSecond = (long) value;
+          else
+            nano = (long) value;
+        } while (consume(','));
+        expect('}');
+      }
+      try {
+        return Instant.ofEpochSecond(epochSecond, nano);
+      } catch (RuntimeException e) {
+        throw malformed("an instant out of range");
+      }
+    }
+
+    private Double nullableDouble() {
+      if (consumeNull())
+        return null;
+      if (peek() == '"') { // a quoted number, as Jackson coerces them
+        String text = string().trim();
+        if (text.isEmpty())
+          return null;
+        try {
+          return Double.valueOf(text);
+        } catch (NumberFormatException e) {
+          throw malformed("a price which is not a number");
+        }
+      }
+      return number();
+    }
+
+    private Integer nullableInteger() {
+      final Double value = nullableDouble();
+      if (value == null)
+        return null;
+      if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE || Double.isNaN(value))
+        throw malformed("an id out of the range of an int");
+      return value.intValue(); // fractions are truncated, as Jackson does
+    }
+
+    private String nullableString() {
+      if (consumeNull())
+        return null;
+      if (peek() == '"')
+        return string();
+      // scalars are coerced to their text, as Jackson does
+      final int start = position;
+      if (consumeLiteral("true") || consumeLiteral("false"))
+        return new String(bytes, start, position - start, StandardCharsets.US_ASCII);
+      number();
+      return new String(bytes, start, position - start, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Reads a number, parsed without creating a String when it has at most 18 digits
+     * and its fraction digits fit an exact power of ten.
+     */
+    private double number() {
+      skipWhitespace();
+      final int start = position;
+      final boolean negative = position < bytes.length && bytes[position] == '-';
+      if (negative)
+        position++;
+      long mantissa = 0;
+      int digits = 0;
+      int fractionDigits = 0;
+      while (position < bytes.length && isDigit(bytes[position])) {
+        mantissa = mantissa * 10 + (bytes[position++] - '0');
+        digits++;
+      }
+      if (digits == 0)
+        throw malformed("a number expected");
+      if (position < bytes.length && bytes[position] == '.') {
+        position++;
+        while (position < bytes.length && isDigit(bytes[position])) {
+          mantissa = mantissa * 10 + (bytes[position++] - '0');
+          digits++;
+          fractionDigits++;
+        }
+        if (fractionDigits == 0)
+          throw malformed("fraction digits expected");
+      }
+      boolean exponent = false;
+      if (position < bytes.length && (bytes[position] == 'e' || bytes[position] == 'E')) {
+        exponent = true;
+        position++;
+        if (position < bytes.length && (bytes[position] == '+' || bytes[position] == '-'))
+          position++;
+        int exponentDigits = 0;
+        while (position < bytes.length && isDigit(bytes[position])) {
+          position++;
+          exponentDigits++;
+        }
+        if (exponentDigits == 0)
+          throw malformed("exponent digits expected");
+      }
+      if (!exponent && digits <= 15 && fractionDigits < POWERS_OF_TEN.length) {
+        // both exact, their quotient is correctly rounded
+        double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+      }
+      return Double.parseDouble(new String(bytes, start, position - start, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Reads a key, returning its index in the given keys, or -1 when unknown.
+     */
+    private int key(byte[][] keys) {
+      skipWhitespace();
+      if (peek() != '"')
+        throw malformed("a property name expected");
+      final int start = position + 1;
+      int end = start;
+      while (end < bytes.length && bytes[end] != '"' && bytes[end] != '\\')
+        end++;
+      if (end < bytes.length && bytes[end] == '"') {
+        position = end + 1;
+        for (int k = 0; k < keys.length; k++)
+          if (equals(keys[k], start, end))
+            return k;
+        return -1;
+      }
+      // an escaped key, rare enough to be decoded
+      final byte[] key = string().getBytes(StandardCharsets.UTF_8);
+      for (int k = 0; k < keys.length; k++)
+        if (Arrays.equals(keys[k], key))
+          return k;
+      return -1;
+    }
+
+    private boolean equals(byte[] key, int start, int end) {
+      if (key.length != end - start)
+        return false;
+      for (int i = 0; i < key.length; i++)
+        if (key[i] != bytes[start + i])
+          return false;
+      return true;
+    }
+
+    /**
+     * Reads a string, decoded without copies unless it has escapes.
+     */
+    private String string() {
+      expect('"');
+      final int start = position;
+      boolean ascii = true;
+      while (position < bytes.length) {
+        byte b = bytes[position];
+        if (b == '"') {
+          position++;
+          return new String(bytes, start, position - 1 - start,
+            ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+        }
+        if (b == '\\')
+          return escapedString(start);
+        if (b >= 0 && b < 0x20)
+          throw malformed("a control character in a string");
+        if (b < 0)
+          ascii = false;
+        position++;
+      }
+      throw malformed("an unterminated string");
+    }
+
+    private String escapedString(int start) {
+      final StringBuilder text = new StringBuilder(new String(bytes, start, position - start, StandardCharsets.UTF_8));
+      int run = position;
+      while (position < bytes.length) {
+        byte b = bytes[position];
+        if (b == '"' || b == '\\') {
+          text.append(new String(bytes, run, position - run, StandardCharsets.UTF_8));
+          position++;
+          if (b == '"')
+            return text.toString();
+          if (position >= bytes.length)
+            break;
+          switch (bytes[position++]) {
+            case '"': text.append('"'); break;
+            case '\\': text.append('\\'); break;
+            case '/': text.append('/'); break;
+            case 'b': text.append('\b'); break;
+            case 'f': text.append('\f'); break;
+            case 'n': text.append('\n'); break;
+            case 'r': text.append('\r'); break;
+            case 't': text.append('\t'); break;
+            case 'u':
+              if (position + 4 > bytes.length)
+                throw malformed("a truncated unicode escape");
+              int c = 0;
+              for (int i = 0; i < 4; i++)
+                c = c << 4 | hex(bytes[position++]);
+              text.append((char) c);
+              break;
+            default:
+              throw malformed("an unknown escape");
+          }
+          run = position;
+        } else if (b >= 0 && b < 0x20) {
+          throw malformed("a control character in a string");
+        } else {
+          position++;
+        }
+      }
+      throw malformed("an unterminated string");
+    }
+
+    private int hex(byte b) {
+      if (b >= '0' && b <= '9')
+        return b - '0';
+      if (b >= 'a' && b <= 'f')
+        return b - 'a' + 10;
+      if (b >= 'A' && b <= 'F')
+        return b - 'A' + 10;
+      throw malformed("a hex digit expected");
+    }
+
+    private boolean consumeNull() {
+      skipWhitespace();
+      return consumeLiteral("null");
+    }
+
+    private boolean consumeLiteral(String literal) {
+      if (position + literal.length() > bytes.length)
+        return false;
+      for (int i = 0; i < literal.length(); i++)
+        if (bytes[position + i] != literal.charAt(i))
+          return false;
+      position += literal.length();
+      return true;
+    }
+
+    boolean consume(char c) {
+      skipWhitespace();
+      if (position < bytes.length && bytes[position] == c) {
+        position++;
+        return true;
+      }
+      return false;
+    }
+
+    void expect(char c) {
+      if (!consume(c))
+        throw malformed("'" + c + "' expected");
+    }
+
+    private int peek() {
+      skipWhitespace();
+      return position < bytes.length ? bytes[position] : -1;
+    }
+
+    private void skipWhitespace() {
+      while (position < bytes.length) {
+        byte b = bytes[position];
+        if (b != ' ' && b != '\n' && b != '\r' && b != '\t')
+          return;
+        position++;
+      }
+    }
+
+    private static boolean isDigit(byte b) {
+      return b >= '0' && b <= '9';
+    }
+
+    private IllegalArgumentException malformed(String problem) {
+      return new IllegalArgumentException(String.format("Malformed stock JSON at offset %d: %s", position, problem));
+    }
+  }
+}
@@ -1,48 +1,137 @@
 package com.javaigua.stocks.api;
 
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import scala.concurrent.duration.Duration;
 
+import akka.NotUsed;
 import akka.util.Timeout;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.util.ByteString;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import akka.japi.Pair;
+import akka.pattern.AskTimeoutException;
 import akka.pattern.PatternsCS;
+import akka.http.javadsl.common.EntityStreamingSupport;
 import akka.http.javadsl.marshallers.jackson.Jackson;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpCharsets;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.MediaRange;
+import akka.http.javadsl.model.MediaType;
+import akka.http.javadsl.model.MediaTypes;
 import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.headers.Accept;
+import akka.http.javadsl.model.headers.RawHeader;
+import akka.http.javadsl.model.ws.Message;
+import akka.http.javadsl.marshalling.sse.EventStreamMarshalling;
 import akka.http.javadsl.server.AllDirectives;
+import akka.http.javadsl.server.ExceptionHandler;
 import akka.http.javadsl.server.PathMatchers;
 import akka.http.javadsl.server.Route;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Source;
 
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 
+import com.javaigua.stocks.Domain.Candles;
+import com.javaigua.stocks.Domain.Movers;
+import com.javaigua.stocks.Domain.PriceHistory;
 import com.javaigua.stocks.Domain.Stock;
+import com.javaigua.stocks.Domain.StockStats;
 import com.javaigua.stocks.Domain.Stocks;
+import com.javaigua.stocks.Domain.StocksPage;
+import com.javaigua.stocks.actors.StockView;
+import com.javaigua.stocks.actors.StockRegistryMessages.CandlesInfo;
+import com.javaigua.stocks.actors.StockRegistryMessages.GetCandles;
+import com.javaigua.stocks.actors.StockRegistryMessages.GetMovers;
+import com.javaigua.stocks.actors.StockRegistryMessages.GetPriceHistory;
 import com.javaigua.stocks.actors.StockRegistryMessages.GetStock;
+import com.javaigua.stocks.actors.StockRegistryMessages.GetStockStats;
 import com.javaigua.stocks.actors.StockRegistryMessages.GetStocks;
+import com.javaigua.stocks.actors.StockRegistryMessages.GetStocksByIds;
+import com.javaigua.stocks.actors.StockRegistryMessages.GetStocksPage;
+import com.javaigua.stocks.actors.StockRegistryMessages.PriceHistoryInfo;
+import com.javaigua.stocks.actors.StockRegistryMessages.SearchStocks;
+import com.javaigua.stocks.actors.StockRegistryMessages.StockInfo;
+import com.javaigua.stocks.actors.StockRegistryMessages.StocksByIds;
 import com.javaigua.stocks.actors.StockRegistryMessages.DeleteStock;
 import com.javaigua.stocks.actors.StockRegistryMessages.CreateStock;
 import com.javaigua.stocks.actors.StockRegistryMessages.UpdateStock;
 import com.javaigua.stocks.actors.StockRegistryMessages.ActionPerformed;
+import com.javaigua.stocks.actors.StockRegistryMessages.ActionsPerformed;
+import com.javaigua.stocks.actors.StockRegistryMessages.CreateStocks;
+import com.javaigua.stocks.actors.StockRegistryMessages.UpdateStocks;
+import com.javaigua.stocks.metrics.Histogram;
+import com.javaigua.stocks.metrics.Metrics;
+import com.javaigua.stocks.metrics.Overload;
+import com.javaigua.stocks.metrics.OverloadedException;
+import com.javaigua.stocks.store.CompactStockStore;
+import com.javaigua.stocks.store.SortedIndex;
 
 /**
  * Stocks RESTful API routes mapping.
  */
 public class StockRoutes extends AllDirectives {
 
+  // media types of the streamed list of stocks, as a chunked JSON array or as newline delimited JSON
+  static final MediaType.WithFixedCharset APPLICATION_STREAM_JSON =
+    MediaTypes.applicationWithFixedCharset("stream+json", HttpCharsets.UTF_8);
+  static final MediaType.WithFixedCharset APPLICATION_NDJSON =
+    MediaTypes.applicationWithFixedCharset("x-ndjson", HttpCharsets.UTF_8, "ndjson");
+
+  // query parameters of a page of stocks
+  private static final List<String> PAGE_PARAMETERS = Arrays.asList("limit", "after", "sort", "minPrice", "maxPrice", "from", "to");
+
+  private static final EntityStreamingSupport jsonArrayStreaming = EntityStreamingSupport.json()
+    .withContentType(ContentTypes.create(APPLICATION_STREAM_JSON));
+  private static final EntityStreamingSupport ndjsonStreaming = EntityStreamingSupport.json()
+    .withFramingRendererFlow(Flow.of(ByteString.class).map(bytes -> bytes.concat(ByteString.fromString("\n"))))
+    .withContentType(ContentTypes.create(APPLICATION_NDJSON));
+
   final private LoggingAdapter log;  
   final private ActorRef stockRegistryActor;
+  final private Flow<Message, Message, NotUsed> priceTicksFlow;
+  final private StockEventsHub stockEventsHub;
+  // the concurrent view single stocks are read from, null when disabled
+  final private StockView stockView;
+  final private Metrics metrics;
+  final private Overload overload;
+  // requests shed under overload are answered 503 right away, asking clients to retry later
+  final private ExceptionHandler overloaded = ExceptionHandler.newBuilder()
+    .match(OverloadedException.class, e -> serviceUnavailable())
+    .match(CompletionException.class, e -> e.getCause() instanceof OverloadedException, e -> serviceUnavailable())
+    .build();
   final Config config = ConfigFactory.load();
   Timeout timeout = new Timeout(
     Duration.create(config.getInt("application.timeout-millis"), TimeUnit.MILLISECONDS));
+  final String retryAfterSeconds = String.valueOf(config.getInt("application.retry-after-seconds"));
+  // candle intervals in millis, by their configured name, e.g. 1m
+  final Map<String, Long> candleIntervals = candleIntervals(config);
 
   public StockRoutes(ActorSystem system, ActorRef stockRegistryActor) {
     this.stockRegistryActor = stockRegistryActor;
+    this.priceTicksFlow = PriceTicksFlow.create(stockRegistryActor, config, timeout);
+    this.stockEventsHub = new StockEventsHub(system, ActorMaterializer.create(system), config);
+    this.stockView = config.getBoolean("application.read-view.enabled") ? StockView.get(system) : null;
+    this.metrics = Metrics.get(system);
+    this.overload = Overload.get(system);
     log = Logging.getLogger(system, this);
   }
 
@@ -50,35 +139,101 @@ public class StockRoutes extends AllDirectives {
    * Creates routes
    */
   public Route routes() {
-    return route(pathPrefix("stocks", () ->
-      route(
-        getAllOrPostStocks(),
-        path(PathMatchers.segment(), id -> route(
-          getStock(id),
-          updateStock(id),
-          deleteStock(id)
-        ))
-      )
+    return handleExceptions(overloaded, () -> route(
+      pathPrefix("stocks", () ->
+        route(
+          timed("getAllOrPostStocks", this::getAllOrPostStocks),
+          postOrPutBatch(),
+          postStocksByIds(),
+          getAllStockEvents(),
+          path("search", () -> timed("searchStocks", this::searchStocks)),
+          path("top", () -> timed("getMovers", this::getMovers)),
+          path("stats", () -> timed("getStockStats", this::getStockStats)),
+          path(PathMatchers.segment().slash("events"), this::getStockEvents),
+          path(PathMatchers.segment().slash("history"), this::getPriceHistory),
+          path(PathMatchers.segment().slash("candles"), this::getCandles),
+          path(PathMatchers.segment(), id -> route(
+            timed("getStock", () -> getStock(id)),
+            timed("updateStock", () -> updateStock(id)),
+            timed("deleteStock", () -> deleteStock(id))
+          ))
+        )
+      ),
+      path("metrics", this::getMetrics),
+      path("ticks", () -> handleWebSocketMessages(priceTicksFlow))
     ));
   }
 
+  /**
+   * Mapping to handle GET requests of the metrics of this application, in the Prometheus text format.
+   */
+  private Route getMetrics() {
+    return get(() -> complete(HttpResponse.create().withEntity(ContentTypes.TEXT_PLAIN_UTF8, metrics.render())));
+  }
+
+  /**
+   * Records the latency of every request completed by the given route, by its name.
+   */
+  private Route timed(String name, Supplier<Route> route) {
+    final Histogram latency = metrics.histogram(
+      "stocks_http_request_duration_seconds", "Time to complete a request, by route.", "route", name);
+    return extractRequestContext(context -> {
+      final long start = System.nanoTime();
+      return mapResponse(response -> {
+        latency.recordSince(start);
+        return response;
+      }, route);
+    });
+  }
+
+  /**
+   * Asks the registry, counting the asks timed out by the type of their message.
+   *
+   * While a registry is overloaded, the ask fails right away with an OverloadedException.
+   */
+  private CompletionStage<Object> ask(Object msg) {
+    if (overload.isOverloaded()) {
+      metrics.counter("stocks_requests_shed_total", "Requests shed under overload, by where they were shed.",
+        "where", "admission").increment();
+      CompletableFuture<Object> shed = new CompletableFuture<>();
+      shed.completeExceptionally(new OverloadedException("Stock registry is overloaded"));
+      return shed;
+    }
+    return PatternsCS.ask(stockRegistryActor, msg, timeout).whenComplete((reply, failure) -> {
+      if (failure instanceof AskTimeoutException || (failure != null && failure.getCause() instanceof AskTimeoutException))
+        metrics.counter("stocks_ask_timeouts_total", "Asks to the stock registry timed out, by message.",
+          "message", msg.getClass().getSimpleName()).increment();
+    });
+  }
+
+  private Route serviceUnavailable() {
+    return respondWithHeader(RawHeader.create("Retry-After", retryAfterSeconds),
+      () -> complete(StatusCodes.SERVICE_UNAVAILABLE));
+  }
+
   /**
    * Mapping to handle GET requests.
+   *
+   * Stocks of running stock actors are read from the view, without messaging any actor,
+   * every other stock is asked to the registry.
    */
   private Route getStock(String id) {
     return get(() -> {
       if (!parceId(id).isPresent()) return complete(StatusCodes.BAD_REQUEST);
+
+      Stock viewed = stockView != null ? stockView.get(Integer.valueOf(id)) : null;
+      if (viewed != null)
+        return complete(StatusCodes.OK, viewed, StockJsonCodec.marshaller());
       
-      CompletionStage<Optional<Stock>> optionalStock = PatternsCS
-        .ask(stockRegistryActor, new GetStock(Integer.valueOf(id)), timeout)
-        .thenApply(obj -> (Optional<Stock>) obj);
+      CompletionStage<Optional<Stock>> optionalStock = ask(new GetStock(Integer.valueOf(id)))
+        .thenApply(obj -> Optional.ofNullable(((StockInfo) obj).getStock()));
 
       return rejectEmptyResponse(() ->
         onSuccess(
           () -> optionalStock,
           performed -> {
             if (performed.isPresent())
-              return complete(StatusCodes.OK, (Stock) performed.get(), Jackson.<Stock>marshaller());
+              return complete(StatusCodes.OK, (Stock) performed.get(), StockJsonCodec.marshaller());
             else
               return complete(StatusCodes.NOT_FOUND);
           }
@@ -87,6 +242,76 @@ public class StockRoutes extends AllDirectives {
     });
   }
 
+  /**
+   * Mapping to handle GET requests of the server-sent events of every stock update.
+   */
+  private Route getAllStockEvents() {
+    return path("events", () ->
+      get(() -> completeOK(stockEventsHub.updates(), EventStreamMarshalling.toEventStream()))
+    );
+  }
+
+  /**
+   * Mapping to handle GET requests of the server-sent events of a stock's updates.
+   */
+  private Route getStockEvents(String id) {
+    return get(() -> {
+      if (!parceId(id).isPresent()) return complete(StatusCodes.BAD_REQUEST);
+      return completeOK(stockEventsHub.updates(Integer.valueOf(id)), EventStreamMarshalling.toEventStream());
+    });
+  }
+
+  /**
+   * Mapping to handle GET requests of the price history of a stock, optionally from and
+   * to the given times, both inclusive, as epoch millis or ISO-8601 instants.
+   */
+  private Route getPriceHistory(String id) {
+    return get(() -> parameterOptional("from", from -> parameterOptional("to", to -> {
+      Optional<Long> fromMillis = parceTimestamp(from, Long.MIN_VALUE);
+      Optional<Long> toMillis = parceTimestamp(to, Long.MAX_VALUE);
+      if (!parceId(id).isPresent() || !fromMillis.isPresent() || !toMillis.isPresent())
+        return complete(StatusCodes.BAD_REQUEST);
+
+      CompletionStage<Optional<PriceHistory>> optionalHistory = ask(new GetPriceHistory(Integer.valueOf(id), fromMillis.get(), toMillis.get()))
+        .thenApply(obj -> Optional.ofNullable(((PriceHistoryInfo) obj).getHistory()));
+
+      return onSuccess(() -> optionalHistory,
+        history -> {
+          if (history.isPresent())
+            return complete(StatusCodes.OK, history.get(), Jackson.<PriceHistory>marshaller());
+          else
+            return complete(StatusCodes.NOT_FOUND);
+        }
+      );
+    })));
+  }
+
+  /**
+   * Mapping to handle GET requests of the latest candles of a stock at one of the
+   * configured intervals, e.g. ?interval=1m&limit=60.
+   */
+  private Route getCandles(String id) {
+    return get(() -> parameter("interval", interval -> parameterOptional("limit", limit -> {
+      Long intervalMillis = candleIntervals.get(interval);
+      Optional<Integer> parsedLimit = limit.isPresent() ?
+        parceId(limit.get()) : Optional.of(config.getInt("application.candles.default-limit"));
+      if (!parceId(id).isPresent() || intervalMillis == null || !parsedLimit.isPresent() || parsedLimit.get() < 0)
+        return complete(StatusCodes.BAD_REQUEST);
+
+      CompletionStage<Optional<Candles>> optionalCandles = ask(new GetCandles(Integer.valueOf(id), intervalMillis, parsedLimit.get()))
+        .thenApply(obj -> Optional.ofNullable(((CandlesInfo) obj).getCandles()));
+
+      return onSuccess(() -> optionalCandles,
+        candles -> {
+          if (candles.isPresent())
+            return complete(StatusCodes.OK, candles.get(), Jackson.<Candles>marshaller());
+          else
+            return complete(StatusCodes.NOT_FOUND);
+        }
+      );
+    })));
+  }
+
   /**
    * Mapping to handle DELETE requests.
    */
@@ -94,8 +319,7 @@ public class StockRoutes extends AllDirectives {
     return delete(() -> {
       if (!parceId(id).isPresent()) return complete(StatusCodes.BAD_REQUEST);
       
-      CompletionStage<ActionPerformed> stockDeleted = PatternsCS
-        .ask(stockRegistryActor, new DeleteStock(Integer.valueOf(id)), timeout)
+      CompletionStage<ActionPerformed> stockDeleted = ask(new DeleteStock(Integer.valueOf(id)))
         .thenApply(obj -> (ActionPerformed) obj);
 
         return onSuccess(() -> stockDeleted,
@@ -117,15 +341,14 @@ public class StockRoutes extends AllDirectives {
       return route(
         put(() ->
           entity(
-            Jackson.unmarshaller(Stock.class),
+            StockJsonCodec.unmarshaller(),
               stock -> {
                 Stock stockWithPathId = new Stock(
                   Integer.valueOf(id),
                   stock.getName(),
                   stock.getCurrentPrice(),
                   null);
-                CompletionStage<ActionPerformed> stockUpdated = PatternsCS
-                  .ask(stockRegistryActor, new UpdateStock(stockWithPathId), timeout)
+                CompletionStage<ActionPerformed> stockUpdated = ask(new UpdateStock(stockWithPathId))
                   .thenApply(obj -> (ActionPerformed) obj);
                 return onSuccess(() -> stockUpdated,
                   performed -> {
@@ -142,23 +365,28 @@ public class StockRoutes extends AllDirectives {
 
   /**
    * Mapping to handle GET and POST requests with JSON formated payloads.
+   *
+   * The list of stocks is streamed one stock at a time, respecting the backpressure of the
+   * client, when it accepts a chunked JSON array or newline delimited JSON. Only the stocks
+   * with the given ids are retrieved when the ids parameter is present, e.g. ?ids=1,2,3, and
+   * a page of stocks when any parameter of pages is.
    */
   private Route getAllOrPostStocks() {
     return pathEnd(() ->
       route(
-        get(() -> {
-          CompletionStage<Stocks> futureStocks = PatternsCS
-            .ask(stockRegistryActor, new GetStocks(), timeout)
-            .thenApply(obj -> (Stocks) obj);
-          return onSuccess(() -> futureStocks,
-            stocks -> complete(StatusCodes.OK, stocks, Jackson.marshaller()));
-        }),
+        get(() -> parameterMap(params -> {
+          if (params.containsKey("ids"))
+            return getStocksByIds(params.get("ids"));
+          if (PAGE_PARAMETERS.stream().anyMatch(params::containsKey))
+            return getStocksPage(params);
+          return getAllStocks();
+        })),
         post(() ->
           entity(
-            Jackson.unmarshaller(Stock.class),
+            StockJsonCodec.unmarshaller(),
               stock -> {
-                CompletionStage<ActionPerformed> stockCreated = PatternsCS
-                  .ask(stockRegistryActor, new CreateStock(stock), timeout)
+                if (stock.getId() == null) return complete(StatusCodes.BAD_REQUEST);
+                CompletionStage<ActionPerformed> stockCreated = ask(new CreateStock(stock))
                   .thenApply(obj -> (ActionPerformed) obj);
                 return onSuccess(() -> stockCreated,
                   performed -> {
@@ -173,6 +401,351 @@ public class StockRoutes extends AllDirectives {
     );
   }
   
+  /**
+   * Retrieves all stocks, streamed page by page when the client accepts a streaming media type.
+   */
+  private Route getAllStocks() {
+    return optionalHeaderValueByType(Accept.class, accept -> {
+      Optional<EntityStreamingSupport> streaming = accept.flatMap(this::streamingSupport);
+      if (streaming.isPresent())
+        return completeOKWithSource(streamStocks(), StockJsonCodec.marshaller(), streaming.get());
+      CompletionStage<Stocks> futureStocks = ask(new GetStocks())
+        .thenApply(obj -> (Stocks) obj);
+      return onSuccess(() -> futureStocks,
+        stocks -> complete(StatusCodes.OK, stocks, StockJsonCodec.stocksMarshaller()));
+    });
+  }
+
+  /**
+   * Every stock in id order, asked to the registry a page of pages.max-limit stocks at a time,
+   * the next page only once the client took the stocks of the previous one, so no list of every
+   * stock is ever built for a streamed response.
+   */
+  private Source<Stock, NotUsed> streamStocks() {
+    final int pageLimit = config.getInt("application.pages.max-limit");
+    return Source.unfoldAsync(Optional.of(new GetStocksPage(CompactStockStore.Order.ID, pageLimit)), page -> {
+      if (!page.isPresent()) // the previous page was the last one
+        return CompletableFuture.completedFuture(Optional.empty());
+      return ask(page.get()).thenApply(obj -> {
+        List<Stock> stocks = ((Stocks) obj).getStocks();
+        Optional<GetStocksPage> next = stocks.size() < pageLimit ? Optional.empty() : Optional.of(
+          new GetStocksPage(CompactStockStore.Order.ID, stocks.get(stocks.size() - 1).getId(),
+            stocks.get(stocks.size() - 1).getId(), Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+            Long.MIN_VALUE, Long.MAX_VALUE, pageLimit));
+        return Optional.of(Pair.create(next, stocks));
+      });
+    }).mapConcat(stocks -> stocks);
+  }
+
+  /**
+   * Mapping to handle GET requests of the stocks whose names start with or contain a query,
+   * regardless of case, those starting with it first, e.g. ?q=acm&limit=10.
+   */
+  private Route searchStocks() {
+    return get(() -> parameter("q", query -> parameterOptional("limit", limit -> {
+      Optional<Integer> parsedLimit = limit.isPresent() ?
+        parceId(limit.get()) : Optional.of(config.getInt("application.search.default-limit"));
+      if (query.trim().isEmpty() || !parsedLimit.isPresent() || parsedLimit.get() < 1)
+        return complete(StatusCodes.BAD_REQUEST);
+
+      final int searchLimit = Math.min(parsedLimit.get(), config.getInt("application.search.max-limit"));
+      CompletionStage<Stocks> futureStocks = ask(new SearchStocks(query.trim(), searchLimit))
+        .thenApply(obj -> (Stocks) obj);
+      return onSuccess(() -> futureStocks,
+        stocks -> complete(StatusCodes.OK, stocks, StockJsonCodec.stocksMarshaller()));
+    })));
+  }
+
+  /**
+   * Mapping to handle GET requests of the n stocks that moved the most since their open
+   * prices, by the largest change either way, rise or fall, e.g. ?by=change&n=20.
+   */
+  private Route getMovers() {
+    return get(() -> parameterOptional("by", by -> parameterOptional("n", n -> {
+      Optional<CompactStockStore.Move> move = parceMove(by.orElse("change"));
+      Optional<Integer> limit = n.isPresent() ?
+        parceId(n.get()) : Optional.of(config.getInt("application.top.default-limit"));
+      if (!move.isPresent() || !limit.isPresent() || limit.get() < 1)
+        return complete(StatusCodes.BAD_REQUEST);
+
+      CompletionStage<Movers> futureMovers = ask(new GetMovers(move.get(),
+        Math.min(limit.get(), config.getInt("application.top.max-limit"))))
+        .thenApply(obj -> (Movers) obj);
+      return onSuccess(() -> futureMovers,
+        movers -> complete(StatusCodes.OK, movers, Jackson.<Movers>marshaller()));
+    })));
+  }
+
+  /**
+   * Mapping to handle GET requests of market-wide statistics: the number of stocks, their
+   * lowest, highest and average prices, and the number of updates of the last minute.
+   */
+  private Route getStockStats() {
+    return get(() -> {
+      CompletionStage<StockStats> futureStats = ask(new GetStockStats())
+        .thenApply(obj -> (StockStats) obj);
+      return onSuccess(() -> futureStats,
+        stats -> complete(StatusCodes.OK, stats, Jackson.<StockStats>marshaller()));
+    });
+  }
+
+  /**
+   * Retrieves a page of stocks, after the cursor of the previous page, in the order of their
+   * id, price or lastUpdate, and within bounds of price and of last update, as epoch millis or
+   * ISO-8601 instants, e.g. ?sort=price&minPrice=10&maxPrice=20&limit=50, then &after= the
+   * next cursor of the page.
+   *
+   * Pages are in the order of the bounds given, price first, when no sort is, so the bounds
+   * narrow the scan of a sorted index of the registry.
+   */
+  private Route getStocksPage(Map<String, String> params) {
+    Optional<Double> minPrice = parcePrice(params.get("minPrice"), Double.NEGATIVE_INFINITY);
+    Optional<Double> maxPrice = parcePrice(params.get("maxPrice"), Double.POSITIVE_INFINITY);
+    Optional<Long> from = parceTimestamp(Optional.ofNullable(params.get("from")), Long.MIN_VALUE);
+    Optional<Long> to = parceTimestamp(Optional.ofNullable(params.get("to")), Long.MAX_VALUE);
+    Optional<Integer> limit = params.containsKey("limit") ?
+      parceId(params.get("limit")) : Optional.of(config.getInt("application.pages.default-limit"));
+    Optional<CompactStockStore.Order> order = parceOrder(params);
+    if (!minPrice.isPresent() || !maxPrice.isPresent() || !from.isPresent() || !to.isPresent()
+        || !limit.isPresent() || limit.get() < 1 || !order.isPresent())
+      return complete(StatusCodes.BAD_REQUEST);
+    Optional<Pair<Long, Integer>> after = parceCursor(order.get(), params.get("after"));
+    if (!after.isPresent())
+      return complete(StatusCodes.BAD_REQUEST);
+
+    final int pageLimit = Math.min(limit.get(), config.getInt("application.pages.max-limit"));
+    CompletionStage<Stocks> futurePage = ask(new GetStocksPage(order.get(), after.get().first(), after.get().second(),
+      minPrice.get(), maxPrice.get(), from.get(), to.get(), pageLimit))
+      .thenApply(obj -> (Stocks) obj);
+    return onSuccess(() -> futurePage,
+      page -> {
+        List<Stock> stocks = page.getStocks();
+        String next = stocks.size() == pageLimit ? cursor(order.get(), stocks.get(stocks.size() - 1)) : null;
+        return complete(StatusCodes.OK, new StocksPage(stocks, next), StockJsonCodec.pageMarshaller());
+      });
+  }
+
+  /**
+   * The cursor of the page after the given stock, its id, or its price or last update then its id.
+   */
+  private static String cursor(CompactStockStore.Order order, Stock stock) {
+    switch (order) {
+      case PRICE:
+        return stock.getCurrentPrice() + "_" + stock.getId();
+      case LAST_UPDATE:
+        return stock.getLastUpdate().toEpochMilli() + "_" + stock.getId();
+      default:
+        return String.valueOf(stock.getId());
+    }
+  }
+
+  /**
+   * Mapping to handle POST requests of the stocks with the ids of a JSON array, for id
+   * lists too large for a query parameter.
+   *
+   * Every element must be an integer, as in the query form, so a null or a fraction is
+   * rejected rather than coerced.
+   */
+  private Route postStocksByIds() {
+    return path("ids", () ->
+      post(() ->
+        entity(
+          Jackson.unmarshaller(Object[].class),
+            ids -> {
+              List<Integer> idList = new ArrayList<>(ids.length);
+              for (Object id : ids) {
+                if (!(id instanceof Integer)) return complete(StatusCodes.BAD_REQUEST);
+                idList.add((Integer) id);
+              }
+              return getStocksByIds(idList);
+            }
+        )
+      )
+    );
+  }
+
+  /**
+   * Retrieves the stocks with the given comma separated ids.
+   */
+  private Route getStocksByIds(String ids) {
+    List<Integer> idList = new ArrayList<>();
+    for (String id : ids.split(",")) {
+      Optional<Integer> parsedId = parceId(id.trim());
+      if (!parsedId.isPresent()) return complete(StatusCodes.BAD_REQUEST);
+      idList.add(parsedId.get());
+    }
+    return getStocksByIds(idList);
+  }
+
+  /**
+   * Retrieves the stocks with the given ids, in a single round-trip to the registry.
+   */
+  private Route getStocksByIds(List<Integer> ids) {
+    CompletionStage<StocksByIds> futureStocks = ask(new GetStocksByIds(ids))
+      .thenApply(obj -> (StocksByIds) obj);
+    return onSuccess(() -> futureStocks,
+      stocks -> complete(StatusCodes.OK, stocks, Jackson.marshaller()));
+  }
+
+  /**
+   * Mapping to handle POST and PUT requests of batches of stocks, as JSON arrays.
+   *
+   * A whole batch is a single message to the registry, which answers with the result
+   * of every stock in batch order.
+   */
+  private Route postOrPutBatch() {
+    return path("batch", () ->
+      route(
+        post(() ->
+          entity(
+            StockJsonCodec.arrayUnmarshaller(),
+              stocks -> {
+                if (!hasIds(stocks)) return complete(StatusCodes.BAD_REQUEST);
+                CompletionStage<ActionsPerformed> stocksCreated = ask(new CreateStocks(Arrays.asList(stocks)))
+                  .thenApply(obj -> (ActionsPerformed) obj);
+                return onSuccess(() -> stocksCreated,
+                  performed -> {
+                    log.info("Created batch of {} stocks", stocks.length);
+                    return complete(StatusCodes.OK, performed, Jackson.marshaller());
+                  }
+                );
+              }
+          )
+        ),
+        put(() ->
+          entity(
+            StockJsonCodec.arrayUnmarshaller(),
+              stocks -> {
+                if (!hasIds(stocks)) return complete(StatusCodes.BAD_REQUEST);
+                CompletionStage<ActionsPerformed> stocksUpdated = ask(new UpdateStocks(Arrays.asList(stocks)))
+                  .thenApply(obj -> (ActionsPerformed) obj);
+                return onSuccess(() -> stocksUpdated,
+                  performed -> {
+                    log.info("Updated batch of {} stocks", stocks.length);
+                    return complete(StatusCodes.OK, performed, Jackson.marshaller());
+                  }
+                );
+              }
+          )
+        )
+      )
+    );
+  }
+
+  /**
+   * Whether every stock of a batch has an id, without which the registry cannot place it.
+   */
+  private static boolean hasIds(Stock[] stocks) {
+    for (Stock stock : stocks)
+      if (stock == null || stock.getId() == null)
+        return false;
+    return true;
+  }
+
+  /**
+   * Picks the streaming support of the media types explicitly accepted by the client, if any.
+   *
+   * A range matching a streaming media type but not plain JSON names the streaming type itself,
+   * so wildcards keep the non-streamed response.
+   */
+  private Optional<EntityStreamingSupport> streamingSupport(Accept accept) {
+    for (MediaRange range : accept.getMediaRanges()) {
+      if (range.matches(MediaTypes.APPLICATION_JSON))
+        continue;
+      if (range.matches(APPLICATION_NDJSON))
+        return Optional.of(ndjsonStreaming);
+      if (range.matches(APPLICATION_STREAM_JSON))
+        return Optional.of(jsonArrayStreaming);
+    }
+    return Optional.empty();
+  }
+
+  private static Map<String, Long> candleIntervals(Config config) {
+    final List<String> names = config.getStringList("application.candles.intervals");
+    final List<Long> millis = config.getDurationList("application.candles.intervals", TimeUnit.MILLISECONDS);
+    final Map<String, Long> intervals = new HashMap<>();
+    for (int i = 0; i < names.size(); i++)
+      intervals.put(names.get(i), millis.get(i));
+    return intervals;
+  }
+
+  private Optional<Long> parceTimestamp(Optional<String> timestamp, long absent) {
+    if (!timestamp.isPresent())
+      return Optional.of(absent);
+    try {
+      return Optional.of(Long.valueOf(timestamp.get()));
+    } catch (NumberFormatException e) {
+      try {
+        return Optional.of(Instant.parse(timestamp.get()).toEpochMilli());
+      } catch (DateTimeParseException | ArithmeticException ex) {
+        return Optional.empty();
+      }
+    }
+  }
+
+  /**
+   * The key and id of a cursor, those before the first stock when there is none.
+   */
+  private Optional<Pair<Long, Integer>> parceCursor(CompactStockStore.Order order, String cursor) {
+    if (cursor == null)
+      return Optional.of(Pair.create(Long.MIN_VALUE, Integer.MIN_VALUE));
+    if (order == CompactStockStore.Order.ID)
+      return parceId(cursor).map(id -> Pair.create((long) id, id));
+    final int separator = cursor.lastIndexOf('_');
+    final Optional<Integer> id = parceId(cursor.substring(separator + 1));
+    if (separator < 0 || !id.isPresent())
+      return Optional.empty();
+    final String key = cursor.substring(0, separator);
+    if (order == CompactStockStore.Order.LAST_UPDATE)
+      return parceTimestamp(Optional.of(key), Long.MIN_VALUE).map(millis -> Pair.create(millis, id.get()));
+    return parcePrice(key, Double.NaN).map(price -> Pair.create(SortedIndex.key(price), id.get()));
+  }
+
+  /**
+   * The order of a page, of the sort parameter or else of the bounds given.
+   */
+  private Optional<CompactStockStore.Order> parceOrder(Map<String, String> params) {
+    final String sort = params.get("sort");
+    if (sort == null)
+      return Optional.of(params.containsKey("minPrice") || params.containsKey("maxPrice") ? CompactStockStore.Order.PRICE :
+        params.containsKey("from") || params.containsKey("to") ? CompactStockStore.Order.LAST_UPDATE :
+        CompactStockStore.Order.ID);
+    switch (sort) {
+      case "id":
+        return Optional.of(CompactStockStore.Order.ID);
+      case "price":
+        return Optional.of(CompactStockStore.Order.PRICE);
+      case "lastUpdate":
+        return Optional.of(CompactStockStore.Order.LAST_UPDATE);
+      default:
+        return Optional.empty();
+    }
+  }
+
+  private Optional<CompactStockStore.Move> parceMove(String by) {
+    switch (by) {
+      case "change":
+        return Optional.of(CompactStockStore.Move.CHANGE);
+      case "gain":
+        return Optional.of(CompactStockStore.Move.GAIN);
+      case "loss":
+        return Optional.of(CompactStockStore.Move.LOSS);
+      default:
+        return Optional.empty();
+    }
+  }
+
+  private Optional<Double> parcePrice(String price, double absent) {
+    if (price == null)
+      return Optional.of(absent);
+    try {
+      Double parsed = Double.valueOf(price);
+      return parsed.isNaN() ? Optional.empty() : Optional.of(parsed);
+    } catch (NumberFormatException e) {
+      return Optional.empty();
+    }
+  }
+
   private Optional<Integer> parceId(String id) {
     try {
       return Optional.of(Integer.valueOf(id));
@@ -1,10 +1,19 @@
 package com.javaigua.stocks.api;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
 
 import akka.NotUsed;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.cluster.sharding.ClusterSharding;
+import akka.cluster.sharding.ClusterShardingSettings;
 import akka.http.javadsl.ConnectHttp;
 import akka.http.javadsl.Http;
 import akka.http.javadsl.ServerBinding;
@@ -12,13 +21,19 @@ import akka.http.javadsl.model.HttpRequest;
 import akka.http.javadsl.model.HttpResponse;
 import akka.http.javadsl.server.AllDirectives;
 import akka.http.javadsl.server.Route;
+import akka.pattern.PatternsCS;
 import akka.stream.ActorMaterializer;
+import akka.stream.ActorMaterializerSettings;
 import akka.stream.javadsl.Flow;
 
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 
+import com.javaigua.stocks.actors.StockActor;
+import com.javaigua.stocks.actors.StockMessageExtractor;
 import com.javaigua.stocks.actors.StockRegistryActor;
+import com.javaigua.stocks.actors.StockRegistryMessages;
+import com.javaigua.stocks.store.StockSnapshotFile;
 
 /**
  * Main entry point of the Stocks RESTful application.
@@ -29,6 +44,10 @@ import com.javaigua.stocks.actors.StockRegistryActor;
  */
 public class StocksServer extends AllDirectives {
 
+  // journals and snapshot stores that keep their data on the disk, or in the memory, of a node
+  private static final List<String> NODE_LOCAL_PLUGINS = Arrays.asList(
+    "akka.persistence.journal.leveldb", "akka.persistence.journal.inmem", "akka.persistence.snapshot-store.local");
+
   private final StockRoutes stockRoutes;
 
   public StocksServer(ActorSystem system, ActorRef stockRegistryActor) {
@@ -44,17 +63,86 @@ public class StocksServer extends AllDirectives {
    */
   private static CompletionStage<ServerBinding> bindHttpServer(Config config, StocksServer app, ActorSystem system) {
     final Http http = Http.get(system);
-    final ActorMaterializer materializer = ActorMaterializer.create(system);
+    // http connections and routes run on their own dispatcher, apart from registries and stock actors
+    final ActorMaterializer materializer = ActorMaterializer.create(
+      ActorMaterializerSettings.create(system).withDispatcher(config.getString("application.dispatchers.http")), system);
     final Flow<HttpRequest, HttpResponse, NotUsed> routeFlow =  app.createRoute().flow(system, materializer);
     return http.bindAndHandle(routeFlow, ConnectHttp.toHost("localhost", config.getInt("application.exposed-port")), materializer);
   }
 
+  /**
+   * Given the config and an actor system, create the stock registry of this node, backed
+   * by a cluster shard region of stock entities when sharding is enabled.
+   */
+  private static ActorRef createStockRegistry(Config config, ActorSystem system) {
+    if (!config.getBoolean("application.sharding.enabled"))
+      return system.actorOf(StockRegistryActor.props(), "stockRegistry");
+    
+    final ActorRef stockRegion = ClusterSharding.get(system).start(
+      "Stock",
+      StockActor.entityProps(),
+      ClusterShardingSettings.create(system),
+      new StockMessageExtractor(config.getInt("application.sharding.number-of-shards")));
+    return system.actorOf(StockRegistryActor.props(stockRegion), "stockRegistry");
+  }
+
+  /**
+   * Given the config, fail unless sharded stocks, which move between nodes with their shards,
+   * recover from a journal and a snapshot store shared by every node.
+   */
+  private static void checkSharedJournal(Config config) {
+    if (!config.getBoolean("application.persistence.enabled"))
+      throw new IllegalStateException("Sharded stocks need application.persistence.enabled = on");
+    for (String plugin : Arrays.asList(
+        config.getString("akka.persistence.journal.plugin"), config.getString("akka.persistence.snapshot-store.plugin")))
+      if (NODE_LOCAL_PLUGINS.contains(plugin))
+        throw new IllegalStateException(String.format(
+          "Sharded stocks need a journal and a snapshot store shared by every node, %s is local to a node", plugin));
+  }
+
+  /**
+   * Given the config and the local stock registry, load the stocks of the last snapshot file
+   * written by a previous run, if any.
+   *
+   * Stock actors persisted to the journal are recovered from it instead, since a snapshot file
+   * written before a stock was deleted would bring it back.
+   */
+  static void loadSnapshot(Config config, ActorRef stockRegistryActor) throws Exception {
+    final Path file = Paths.get(config.getString("application.snapshot-file.path"));
+    if (!StockRegistryActor.snapshotFileEnabled(config, config.getString("application.registry.backend"))
+        || !Files.exists(file))
+      return;
+    
+    final long start = System.nanoTime();
+    try {
+      final StockSnapshotFile snapshot = StockSnapshotFile.open(file);
+      final StockRegistryMessages.SnapshotLoaded loaded = (StockRegistryMessages.SnapshotLoaded) PatternsCS.ask(
+        stockRegistryActor, new StockRegistryMessages.LoadSnapshot(snapshot),
+        config.getDuration("application.snapshot-file.load-timeout", TimeUnit.MILLISECONDS)).toCompletableFuture().get();
+      System.out.println(String.format("Loaded %d stocks from %s in %d ms",
+        loaded.getLoaded(), file, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    } catch (IOException e) {
+      System.err.println(String.format("Could not load stocks from %s: %s", file, e.getMessage()));
+    }
+  }
+
   public static void main(String[] args) throws Exception {
     final Config config = ConfigFactory.load();
+    if (config.getBoolean("application.sharding.enabled"))
+      checkSharedJournal(config); // before joining the cluster
     
     // bootstrap the actor system
     ActorSystem system = ActorSystem.create(config.getString("application.name"), config);
-    ActorRef stockRegistryActor = system.actorOf(StockRegistryActor.props(), "stockRegistry");
+    ActorRef stockRegistryActor = createStockRegistry(config, system);
+    if (!config.getBoolean("application.sharding.enabled")) {
+      System.out.println(String.format("Local registry of %d partitions, %s backend, snapshot file %s",
+        config.getInt("application.registry.partitions"), config.getString("application.registry.backend"),
+        StockRegistryActor.snapshotFileEnabled(config, config.getString("application.registry.backend")) ? "on" :
+          config.getBoolean("application.snapshot-file.enabled") ? "off, the journal recovers stocks" : "off"));
+      loadSnapshot(config, stockRegistryActor); // before serving any request
+    } else {
+      System.out.println("Sharded registry, registry partitions, backend and snapshot file apply to local registries only");
+    }
     StocksServer app = new StocksServer(system, stockRegistryActor);
     
     // create and bind the http server to the actor system
@@ -0,0 +1,59 @@
+package com.javaigua.stocks.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies, counted in buckets of fixed upper bounds like a Prometheus one.
+ *
+ * Latencies are recorded in nanos into a counter per bucket, without locking, and rendered
+ * as cumulative buckets in seconds.
+ */
+public class Histogram {
+
+  private final double[] bounds;
+  private final long[] boundNanos;
+  // a count per bucket, the last one above every bound
+  private final LongAdder[] counts;
+  private final LongAdder sumNanos = new LongAdder();
+
+  Histogram(double[] bounds) {
+    this.bounds = bounds;
+    this.boundNanos = new long[bounds.length];
+    this.counts = new LongAdder[bounds.length + 1];
+    for (int i = 0; i < bounds.length; i++)
+      boundNanos[i] = (long) (bounds[i] * TimeUnit.SECONDS.toNanos(1));
+    for (int i = 0; i < counts.length; i++)
+      counts[i] = new LongAdder();
+  }
+
+  /**
+   * Records a latency, in nanos.
+   */
+  public void record(long nanos) {
+    int bucket = 0;
+    while (bucket < boundNanos.length && nanos > boundNanos[bucket])
+      bucket++;
+    counts[bucket].increment();
+    sumNanos.add(nanos);
+  }
+
+  /**
+   * Records the latency since the given System.nanoTime().
+   */
+  public void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  void render(StringBuilder text, String name, String labels) {
+    final String separator = labels.isEmpty() ? "" : ",";
+    long count = 0;
+    for (int i = 0; i < counts.length; i++) {
+      count += counts[i].sum();
+      String le = i < bounds.length ? String.valueOf(bounds[i]) : "+Inf";
+      Metrics.sample(text, name + "_bucket", labels + separator + "le=\"" + le + "\"", count);
+    }
+    Metrics.sample(text, name + "_sum", labels, sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1));
+    Metrics.sample(text, name + "_count", labels, count);
+  }
+}
@@ -0,0 +1,169 @@
+package com.javaigua.stocks.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import scala.Option;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Status;
+import akka.dispatch.DequeBasedMessageQueueSemantics;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+
+import com.typesafe.config.Config;
+
+/**
+ * A mailbox which tracks the number of messages waiting in it, optionally published as
+ * the stocks_mailbox_depth gauge of its actor, and which may be bounded.
+ *
+ * Messages are always served in the order they arrived, so a write is never overtaken
+ * by a later delete, nor a read by a later write. Priorities only decide which requests
+ * are shed first: requests of the classes listed under requests.low are answered with a
+ * failure of OverloadedException right away once the mailbox holds half its capacity,
+ * those under requests.normal once it holds three quarters of it, and those under
+ * requests.high once it is full, e.g. bulk writes before single writes, and those before
+ * reads. Other messages, internal to the application, are never shed. With
+ * admission-control on, a mailbox at its capacity marks its actor system overloaded
+ * until it drains below it, see Overload.
+ *
+ * Messages may be put back at the front of the queue, so persistent actors, which
+ * stash messages while persisting, can use this mailbox.
+ *
+ * Actors get this mailbox by implementing RequiresMessageQueue of InstrumentedMessageQueueSemantics,
+ * or from their props.
+ */
+public class InstrumentedMailbox implements MailboxType, ProducesMessageQueue<InstrumentedMailbox.InstrumentedMessageQueue> {
+
+  static final String DEPTH = "stocks_mailbox_depth";
+
+  static final int HIGH = 0;
+  static final int NORMAL = 1;
+  static final int LOW = 2;
+
+  // 0 for an unbounded mailbox
+  private final int capacity;
+  // messages waiting beyond which requests are shed, by priority
+  private final int[] admitted;
+  private final boolean admissionControl;
+  private final boolean depthGauge;
+  // priorities of the requests by class name, other messages are of normal priority
+  private final Map<String, Integer> requests = new HashMap<>();
+
+  public InstrumentedMailbox(ActorSystem.Settings settings, Config config) {
+    this.capacity = config.hasPath("capacity") ? config.getInt("capacity") : 0;
+    this.admitted = new int[] {capacity, Math.max(1, capacity * 3 / 4), Math.max(1, capacity / 2)};
+    this.admissionControl = config.hasPath("admission-control") && config.getBoolean("admission-control");
+    this.depthGauge = !config.hasPath("depth-gauge") || config.getBoolean("depth-gauge");
+    String[] priorities = {"high", "normal", "low"};
+    for (int priority = HIGH; priority <= LOW; priority++) {
+      String path = "requests." + priorities[priority];
+      if (config.hasPath(path))
+        for (String request : config.getStringList(path))
+          requests.put(request, priority);
+    }
+  }
+
+  @Override
+  public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+    final InstrumentedMessageQueue queue = new InstrumentedMessageQueue(this,
+      system.isDefined() ? Metrics.get(system.get()) : null,
+      system.isDefined() && admissionControl ? Overload.get(system.get()) : null,
+      owner.isDefined() && depthGauge ? owner.get().path().toStringWithoutAddress() : null);
+    if (queue.metrics != null && queue.actor != null)
+      queue.metrics.gauge(DEPTH, "Messages waiting in the mailbox of an actor.", queue.depth::get, "actor", queue.actor);
+    return queue;
+  }
+
+  /**
+   * The semantics of the message queue of this mailbox.
+   */
+  public interface InstrumentedMessageQueueSemantics {}
+
+  /**
+   * A message queue counting its messages.
+   */
+  public static class InstrumentedMessageQueue
+    implements MessageQueue, InstrumentedMessageQueueSemantics, DequeBasedMessageQueueSemantics {
+    private final InstrumentedMailbox mailbox;
+    private final ConcurrentLinkedDeque<Envelope> queue = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final Metrics metrics;
+    // null unless this mailbox takes part in admission control
+    private final Overload overload;
+    // null unless the depth of this mailbox is published
+    private final String actor;
+
+    InstrumentedMessageQueue(InstrumentedMailbox mailbox, Metrics metrics, Overload overload, String actor) {
+      this.mailbox = mailbox;
+      this.metrics = metrics;
+      this.overload = overload;
+      this.actor = actor;
+    }
+
+    @Override
+    public void enqueue(ActorRef receiver, Envelope handle) {
+      final Integer priority = mailbox.requests.get(handle.message().getClass().getName());
+      if (priority != null && mailbox.capacity > 0 && depth.get() >= mailbox.admitted[priority]) {
+        reject(receiver, handle);
+        return;
+      }
+      queue.offer(handle);
+      counted();
+    }
+
+    /**
+     * Puts back a message to be served before any other, e.g. one unstashed.
+     */
+    @Override
+    public void enqueueFirst(ActorRef receiver, Envelope handle) {
+      queue.offerFirst(handle);
+      counted();
+    }
+
+    private void counted() {
+      if (depth.incrementAndGet() == mailbox.capacity && overload != null)
+        overload.filled();
+    }
+
+    private void reject(ActorRef receiver, Envelope handle) {
+      if (handle.sender() != null)
+        handle.sender().tell(new Status.Failure(new OverloadedException(
+          String.format("Mailbox of %s is full", receiver.path().toStringWithoutAddress()))), receiver);
+      if (metrics != null)
+        metrics.counter("stocks_requests_shed_total", "Requests shed under overload, by where they were shed.",
+          "where", "mailbox").increment();
+    }
+
+    @Override
+    public Envelope dequeue() {
+      final Envelope handle = queue.poll();
+      if (handle != null && depth.decrementAndGet() == mailbox.capacity - 1 && overload != null)
+        overload.drained();
+      return handle;
+    }
+
+    @Override
+    public int numberOfMessages() {
+      return depth.get();
+    }
+
+    @Override
+    public boolean hasMessages() {
+      return !queue.isEmpty();
+    }
+
+    @Override
+    public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+      for (Envelope handle = dequeue(); handle != null; handle = dequeue())
+        deadLetters.enqueue(owner, handle);
+      if (metrics != null && actor != null)
+        metrics.remove(DEPTH, "actor", actor);
+    }
+  }
+}
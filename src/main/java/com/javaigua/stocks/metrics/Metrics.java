@@ -0,0 +1,162 @@
+package com.javaigua.stocks.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+
+/**
+ * The metrics of this application, rendered in the Prometheus text format.
+ *
+ * Counters and histograms are looked up once by name and labels, then updated without
+ * locking nor allocation, so they are cheap enough to update upon every request and message.
+ * Gauges read their value only when metrics are rendered.
+ */
+public class Metrics implements Extension {
+
+  // upper bounds of the buckets of latency histograms, in seconds
+  static final double[] LATENCY_BUCKETS =
+    {0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+  // metric families by name, in rendering order
+  private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+  /**
+   * The metrics of the given actor system.
+   */
+  public static Metrics get(ActorSystem system) {
+    return Id.INSTANCE.get(system);
+  }
+
+  /**
+   * The counter of the given name and labels, given as name and value pairs.
+   */
+  public LongAdder counter(String name, String help, String... labels) {
+    return (LongAdder) family(name, help, "counter").metrics.computeIfAbsent(labels(labels), l -> new LongAdder());
+  }
+
+  /**
+   * The gauge of the given name and labels, counting up and down, e.g. running actors.
+   */
+  public LongAdder upDownCounter(String name, String help, String... labels) {
+    return (LongAdder) family(name, help, "gauge").metrics.computeIfAbsent(labels(labels), l -> new LongAdder());
+  }
+
+  /**
+   * The latency histogram of the given name and labels, given as name and value pairs.
+   */
+  public Histogram histogram(String name, String help, String... labels) {
+    return (Histogram) family(name, help, "histogram").metrics.computeIfAbsent(labels(labels),
+      l -> new Histogram(LATENCY_BUCKETS));
+  }
+
+  /**
+   * Registers a gauge of the given name and labels, replacing the previous one.
+   */
+  public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+    family(name, help, "gauge").metrics.put(labels(labels), value);
+  }
+
+  /**
+   * Removes the metric of the given name and labels, e.g. the gauge of a stopped actor.
+   */
+  public void remove(String name, String... labels) {
+    Family family = families.get(name);
+    if (family != null)
+      family.metrics.remove(labels(labels));
+  }
+
+  /**
+   * Every metric, in the Prometheus text format.
+   */
+  public String render() {
+    final StringBuilder text = new StringBuilder();
+    for (Map.Entry<String, Family> entry : families.entrySet()) {
+      String name = entry.getKey();
+      Family family = entry.getValue();
+      text.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+      text.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+      for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+        String labels = metric.getKey();
+        Object value = metric.getValue();
+        if (value instanceof LongAdder)
+          sample(text, name, labels, ((LongAdder) value).sum());
+        else if (value instanceof DoubleSupplier)
+          sample(text, name, labels, ((DoubleSupplier) value).getAsDouble());
+        else
+          ((Histogram) value).render(text, name, labels);
+      }
+    }
+    return text.toString();
+  }
+
+  private Family family(String name, String help, String type) {
+    final Family family = families.computeIfAbsent(name, n -> new Family(help, type));
+    if (!family.type.equals(type))
+      throw new IllegalArgumentException(String.format("Metric %s is a %s", name, family.type));
+    return family;
+  }
+
+  /**
+   * The labels of a sample, e.g. route="getStock",method="GET", from name and value pairs.
+   */
+  static String labels(String... labels) {
+    if (labels.length % 2 != 0)
+      throw new IllegalArgumentException("Labels are name and value pairs");
+    final StringBuilder text = new StringBuilder();
+    for (int i = 0; i < labels.length; i += 2) {
+      text.append(i > 0 ? "," : "").append(labels[i]).append("=\"")
+        .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+    }
+    return text.toString();
+  }
+
+  static void sample(StringBuilder text, String name, String labels, double value) {
+    text.append(name);
+    if (!labels.isEmpty())
+      text.append('{').append(labels).append('}');
+    text.append(' ');
+    if (value == Math.rint(value) && !Double.isInfinite(value))
+      text.append((long) value);
+    else
+      text.append(value);
+    text.append('\n');
+  }
+
+  // the help, type and metrics by labels of a metric name
+  private static class Family {
+    final String help;
+    final String type;
+    final ConcurrentMap<String, Object> metrics = new ConcurrentHashMap<>();
+
+    Family(String help, String type) {
+      this.help = help;
+      this.type = type;
+    }
+  }
+
+  /**
+   * The extension id of the metrics.
+   */
+  static class Id extends AbstractExtensionId<Metrics> implements ExtensionIdProvider {
+    static final Id INSTANCE = new Id();
+
+    @Override
+    public Id lookup() {
+      return INSTANCE;
+    }
+
+    @Override
+    public Metrics createExtension(ExtendedActorSystem system) {
+      return new Metrics();
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package com.javaigua.stocks.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+
+/**
+ * Whether the actors of an actor system are overloaded, i.e. whether any mailbox taking
+ * part in admission control holds as many messages as its capacity.
+ *
+ * Mailboxes count themselves in and out as they cross their capacity, so checking for
+ * overload upon every request is a single volatile read.
+ */
+public class Overload implements Extension {
+
+  private final AtomicInteger fullMailboxes = new AtomicInteger();
+
+  /**
+   * The overload of the given actor system.
+   */
+  public static Overload get(ActorSystem system) {
+    return Id.INSTANCE.get(system);
+  }
+
+  /**
+   * Whether requests should be shed.
+   */
+  public boolean isOverloaded() {
+    return fullMailboxes.get() > 0;
+  }
+
+  /**
+   * The number of mailboxes at their capacity.
+   */
+  public int fullMailboxes() {
+    return fullMailboxes.get();
+  }
+
+  void filled() {
+    fullMailboxes.incrementAndGet();
+  }
+
+  void drained() {
+    fullMailboxes.decrementAndGet();
+  }
+
+  /**
+   * The extension id of the overload.
+   */
+  static class Id extends AbstractExtensionId<Overload> implements ExtensionIdProvider {
+    static final Id INSTANCE = new Id();
+
+    @Override
+    public Id lookup() {
+      return INSTANCE;
+    }
+
+    @Override
+    public Overload createExtension(ExtendedActorSystem system) {
+      final Overload overload = new Overload();
+      Metrics.get(system).gauge("stocks_full_mailboxes", "Mailboxes at their capacity, shedding requests.",
+        overload::fullMailboxes);
+      return overload;
+    }
+  }
+}
@@ -0,0 +1,12 @@
+package com.javaigua.stocks.metrics;
+
+/**
+ * The failure of a request shed because the actors it needs are overloaded, which
+ * is answered right away instead of waiting for the request to time out.
+ */
+public class OverloadedException extends RuntimeException {
+
+  public OverloadedException(String message) {
+    super(message, null, false, false);
+  }
+}
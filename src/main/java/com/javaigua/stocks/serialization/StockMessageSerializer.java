@@ -0,0 +1,662 @@
+package com.javaigua.stocks.serialization;
+
+import java.io.NotSerializableException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import akka.serialization.SerializerWithStringManifest;
+
+import com.javaigua.stocks.Domain.Candles;
+import com.javaigua.stocks.Domain.Movers;
+import com.javaigua.stocks.Domain.PriceHistory;
+import com.javaigua.stocks.Domain.Stock;
+import com.javaigua.stocks.Domain.StockStats;
+import com.javaigua.stocks.Domain.Stocks;
+import com.javaigua.stocks.actors.StockActor;
+import com.javaigua.stocks.actors.StockRegistryMessages;
+import com.javaigua.stocks.store.CandleSeries;
+import com.javaigua.stocks.store.CompactStockStore;
+import com.javaigua.stocks.store.PriceRingBuffer;
+
+/**
+ * A compact binary serializer of stocks and of the messages and events that carry them,
+ * for remote messages between the nodes of the cluster, and for persisted stock events and
+ * the snapshots of stock actors.
+ *
+ * Fields are written as big-endian primitives: a stock is an int id, a byte of flags for
+ * its optional fields, then the name as an int length and UTF-8 bytes, the price as a
+ * double and the last update as long epoch seconds and int nanos, when present.
+ *
+ * Every manifest names a message and the version of its format, e.g. "S1" for the first
+ * format of a stock. Readers ignore trailing bytes, so a format may be extended with new
+ * trailing fields in place, while an incompatible change gets a new manifest version and
+ * keeps the old one readable, which matters for events persisted with it.
+ *
+ * Lists are written as an int size then their elements, strings as an int length, -1 for
+ * null, then UTF-8 bytes, and enums by name. The load of a snapshot file, and the private
+ * messages of registries, never leave their node, so they are not bound to this serializer.
+ */
+public class StockMessageSerializer extends SerializerWithStringManifest {
+
+  static final String STOCK = "S1";
+  static final String GET_STOCKS = "L1";
+  static final String CREATE_STOCK = "C1";
+  static final String UPDATE_STOCK = "U1";
+  static final String GET_STOCK = "G1";
+  static final String DELETE_STOCK = "D1";
+  static final String STOCK_INFO = "I1";
+  static final String PRICE_HISTORY_INFO = "HI1";
+  static final String CANDLES_INFO = "KI1";
+  static final String ACTION_PERFORMED = "A1";
+  static final String STOCK_CREATED = "EC1";
+  static final String STOCK_UPDATED = "EU1";
+  static final String STOCK_DELETED = "ED1";
+  static final String STOCK_SNAPSHOT = "SN1";
+  static final String GET_PRICE_HISTORY = "H1";
+  static final String GET_CANDLES = "K1";
+  static final String PRICE_TICK = "T1";
+  static final String PRICE_TICKS = "TB1";
+  static final String TICKS_ACCEPTED = "TA1";
+  static final String GET_STOCKS_BY_IDS = "B1";
+  static final String STOCKS_BY_IDS = "BI1";
+  static final String CREATE_STOCKS = "CB1";
+  static final String UPDATE_STOCKS = "UB1";
+  static final String ACTIONS_PERFORMED = "AB1";
+  static final String PASSIVATE = "P1";
+  static final String GET_STOCKS_PAGE = "PG1";
+  static final String SEARCH_STOCKS = "Q1";
+  static final String GET_MOVERS = "M1";
+  static final String GET_STOCK_STATS = "ST1";
+  static final String STOCKS = "LS1";
+  static final String MOVERS = "MV1";
+  static final String STOCK_STATS = "SS1";
+
+  private static final byte HAS_ID = 1;
+  private static final byte HAS_NAME = 1 << 1;
+  private static final byte HAS_PRICE = 1 << 2;
+  private static final byte HAS_LAST_UPDATE = 1 << 3;
+
+  private static final byte HAS_MIN_PRICE = 1;
+  private static final byte HAS_MAX_PRICE = 1 << 1;
+  private static final byte HAS_AVERAGE_PRICE = 1 << 2;
+
+  private static final byte[] EMPTY = new byte[0];
+
+  @Override
+  public int identifier() {
+    return 9001;
+  }
+
+  @Override
+  public String manifest(Object o) {
+    if (o instanceof Stock)
+      return STOCK;
+    else if (o instanceof StockRegistryMessages.GetStocks)
+      return GET_STOCKS;
+    else if (o instanceof StockRegistryMessages.CreateStock)
+      return CREATE_STOCK;
+    else if (o instanceof StockRegistryMessages.UpdateStock)
+      return UPDATE_STOCK;
+    else if (o instanceof StockRegistryMessages.GetStock)
+      return GET_STOCK;
+    else if (o instanceof StockRegistryMessages.DeleteStock)
+      return DELETE_STOCK;
+    else if (o instanceof StockRegistryMessages.StockInfo)
+      return STOCK_INFO;
+    else if (o instanceof StockRegistryMessages.PriceHistoryInfo)
+      return PRICE_HISTORY_INFO;
+    else if (o instanceof StockRegistryMessages.CandlesInfo)
+      return CANDLES_INFO;
+    else if (o instanceof StockRegistryMessages.ActionPerformed)
+      return ACTION_PERFORMED;
+    else if (o instanceof StockRegistryMessages.StockCreated)
+      return STOCK_CREATED;
+    else if (o instanceof StockRegistryMessages.StockUpdated)
+      return STOCK_UPDATED;
+    else if (o instanceof StockRegistryMessages.StockDeleted)
+      return STOCK_DELETED;
+    else if (o instanceof StockActor.Snapshot)
+      return STOCK_SNAPSHOT;
+    else if (o instanceof StockRegistryMessages.GetPriceHistory)
+      return GET_PRICE_HISTORY;
+    else if (o instanceof StockRegistryMessages.GetCandles)
+      return GET_CANDLES;
+    else if (o instanceof StockRegistryMessages.PriceTick)
+      return PRICE_TICK;
+    else if (o instanceof StockRegistryMessages.PriceTicks)
+      return PRICE_TICKS;
+    else if (o instanceof StockRegistryMessages.TicksAccepted)
+      return TICKS_ACCEPTED;
+    else if (o instanceof StockRegistryMessages.GetStocksByIds)
+      return GET_STOCKS_BY_IDS;
+    else if (o instanceof StockRegistryMessages.StocksByIds)
+      return STOCKS_BY_IDS;
+    else if (o instanceof StockRegistryMessages.CreateStocks)
+      return CREATE_STOCKS;
+    else if (o instanceof StockRegistryMessages.UpdateStocks)
+      return UPDATE_STOCKS;
+    else if (o instanceof StockRegistryMessages.ActionsPerformed)
+      return ACTIONS_PERFORMED;
+    else if (o instanceof StockRegistryMessages.Passivate)
+      return PASSIVATE;
+    else if (o instanceof StockRegistryMessages.GetStocksPage)
+      return GET_STOCKS_PAGE;
+    else if (o instanceof StockRegistryMessages.SearchStocks)
+      return SEARCH_STOCKS;
+    else if (o instanceof StockRegistryMessages.GetMovers)
+      return GET_MOVERS;
+    else if (o instanceof StockRegistryMessages.GetStockStats)
+      return GET_STOCK_STATS;
+    else if (o instanceof Stocks)
+      return STOCKS;
+    else if (o instanceof Movers)
+      return MOVERS;
+    else if (o instanceof StockStats)
+      return STOCK_STATS;
+    else
+      throw new IllegalArgumentException("Cannot serialize " + o.getClass());
+  }
+
+  @Override
+  public byte[] toBinary(Object o) {
+    if (o instanceof Stock)
+      return stockToBinary((Stock) o);
+    else if (o instanceof StockRegistryMessages.GetStocks)
+      return EMPTY;
+    else if (o instanceof StockRegistryMessages.CreateStock)
+      return stockToBinary(((StockRegistryMessages.CreateStock) o).getStock());
+    else if (o instanceof StockRegistryMessages.UpdateStock)
+      return stockToBinary(((StockRegistryMessages.UpdateStock) o).getStock());
+    else if (o instanceof StockRegistryMessages.GetStock)
+      return intToBinary(((StockRegistryMessages.GetStock) o).getId());
+    else if (o instanceof StockRegistryMessages.DeleteStock)
+      return intToBinary(((StockRegistryMessages.DeleteStock) o).getId());
+    else if (o instanceof StockRegistryMessages.StockInfo)
+      return stockInfoToBinary(((StockRegistryMessages.StockInfo) o).getStock());
+    else if (o instanceof StockRegistryMessages.PriceHistoryInfo)
+      return priceHistoryToBinary(((StockRegistryMessages.PriceHistoryInfo) o).getHistory());
+    else if (o instanceof StockRegistryMessages.CandlesInfo)
+      return candlesToBinary(((StockRegistryMessages.CandlesInfo) o).getCandles());
+    else if (o instanceof StockRegistryMessages.ActionPerformed)
+      return ((StockRegistryMessages.ActionPerformed) o).getDescription().getBytes(StandardCharsets.UTF_8);
+    else if (o instanceof StockRegistryMessages.StockCreated)
+      return stockToBinary(((StockRegistryMessages.StockCreated) o).getStock());
+    else if (o instanceof StockRegistryMessages.StockUpdated)
+      return stockToBinary(((StockRegistryMessages.StockUpdated) o).getStock());
+    else if (o instanceof StockRegistryMessages.StockDeleted)
+      return intToBinary(((StockRegistryMessages.StockDeleted) o).getId());
+    else if (o instanceof StockActor.Snapshot)
+      return snapshotToBinary((StockActor.Snapshot) o);
+    else if (o instanceof StockRegistryMessages.GetPriceHistory)
+      return ByteBuffer.allocate(4 + 8 + 8)
+        .putInt(((StockRegistryMessages.GetPriceHistory) o).getId())
+        .putLong(((StockRegistryMessages.GetPriceHistory) o).getFrom())
+        .putLong(((StockRegistryMessages.GetPriceHistory) o).getTo()).array();
+    else if (o instanceof StockRegistryMessages.GetCandles)
+      return ByteBuffer.allocate(4 + 8 + 4)
+        .putInt(((StockRegistryMessages.GetCandles) o).getId())
+        .putLong(((StockRegistryMessages.GetCandles) o).getIntervalMillis())
+        .putInt(((StockRegistryMessages.GetCandles) o).getLimit()).array();
+    else if (o instanceof StockRegistryMessages.PriceTick)
+      return priceTickToBinary(ByteBuffer.allocate(TICK_SIZE), (StockRegistryMessages.PriceTick) o).array();
+    else if (o instanceof StockRegistryMessages.PriceTicks)
+      return priceTicksToBinary(((StockRegistryMessages.PriceTicks) o).getTicks());
+    else if (o instanceof StockRegistryMessages.TicksAccepted)
+      return ByteBuffer.allocate(4 + 4 + 4)
+        .putInt(((StockRegistryMessages.TicksAccepted) o).getAccepted())
+        .putInt(((StockRegistryMessages.TicksAccepted) o).getUnknown())
+        .putInt(((StockRegistryMessages.TicksAccepted) o).getRejected()).array();
+    else if (o instanceof StockRegistryMessages.GetStocksByIds)
+      return intsToBinary(((StockRegistryMessages.GetStocksByIds) o).getIds());
+    else if (o instanceof StockRegistryMessages.StocksByIds)
+      return concat(stocksToBinary(((StockRegistryMessages.StocksByIds) o).getStocks()),
+        intsToBinary(((StockRegistryMessages.StocksByIds) o).getMissingIds()));
+    else if (o instanceof StockRegistryMessages.CreateStocks)
+      return stocksToBinary(((StockRegistryMessages.CreateStocks) o).getStocks());
+    else if (o instanceof StockRegistryMessages.UpdateStocks)
+      return stocksToBinary(((StockRegistryMessages.UpdateStocks) o).getStocks());
+    else if (o instanceof StockRegistryMessages.ActionsPerformed)
+      return actionsToBinary(((StockRegistryMessages.ActionsPerformed) o).getActions());
+    else if (o instanceof StockRegistryMessages.Passivate)
+      return EMPTY;
+    else if (o instanceof StockRegistryMessages.GetStocksPage)
+      return stocksPageToBinary((StockRegistryMessages.GetStocksPage) o);
+    else if (o instanceof StockRegistryMessages.SearchStocks)
+      return concat(intToBinary(((StockRegistryMessages.SearchStocks) o).getLimit()),
+        stringToBinary(((StockRegistryMessages.SearchStocks) o).getQuery()));
+    else if (o instanceof StockRegistryMessages.GetMovers)
+      return concat(stringToBinary(((StockRegistryMessages.GetMovers) o).getBy().name()),
+        intToBinary(((StockRegistryMessages.GetMovers) o).getLimit()));
+    else if (o instanceof StockRegistryMessages.GetStockStats)
+      return EMPTY;
+    else if (o instanceof Stocks)
+      return stocksToBinary(((Stocks) o).getStocks());
+    else if (o instanceof Movers)
+      return concat(stringToBinary(((Movers) o).getBy()), stocksToBinary(((Movers) o).getStocks()),
+        doublesToBinary(((Movers) o).getChanges()));
+    else if (o instanceof StockStats)
+      return statsToBinary((StockStats) o);
+    else
+      throw new IllegalArgumentException("Cannot serialize " + o.getClass());
+  }
+
+  @Override
+  public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException {
+    switch (manifest) {
+      case STOCK:
+        return stockFromBinary(ByteBuffer.wrap(bytes));
+      case GET_STOCKS:
+        return new StockRegistryMessages.GetStocks();
+      case CREATE_STOCK:
+        return new StockRegistryMessages.CreateStock(stockFromBinary(ByteBuffer.wrap(bytes)));
+      case UPDATE_STOCK:
+        return new StockRegistryMessages.UpdateStock(stockFromBinary(ByteBuffer.wrap(bytes)));
+      case GET_STOCK:
+        return new StockRegistryMessages.GetStock(ByteBuffer.wrap(bytes).getInt());
+      case DELETE_STOCK:
+        return new StockRegistryMessages.DeleteStock(ByteBuffer.wrap(bytes).getInt());
+      case STOCK_INFO:
+        return new StockRegistryMessages.StockInfo(bytes.length == 0 ? null : stockFromBinary(ByteBuffer.wrap(bytes)));
+      case PRICE_HISTORY_INFO:
+        return new StockRegistryMessages.PriceHistoryInfo(bytes.length == 0 ? null : priceHistoryFromBinary(ByteBuffer.wrap(bytes)));
+      case CANDLES_INFO:
+        return new StockRegistryMessages.CandlesInfo(bytes.length == 0 ? null : candlesFromBinary(ByteBuffer.wrap(bytes)));
+      case ACTION_PERFORMED:
+        return new StockRegistryMessages.ActionPerformed(new String(bytes, StandardCharsets.UTF_8));
+      case STOCK_CREATED:
+        return new StockRegistryMessages.StockCreated(stockFromBinary(ByteBuffer.wrap(bytes)));
+      case STOCK_UPDATED:
+        return new StockRegistryMessages.StockUpdated(stockFromBinary(ByteBuffer.wrap(bytes)));
+      case STOCK_DELETED:
+        return new StockRegistryMessages.StockDeleted(ByteBuffer.wrap(bytes).getInt());
+      case STOCK_SNAPSHOT:
+        return snapshotFromBinary(ByteBuffer.wrap(bytes));
+      case GET_PRICE_HISTORY: {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new StockRegistryMessages.GetPriceHistory(buffer.getInt(), buffer.getLong(), buffer.getLong());
+      }
+      case GET_CANDLES: {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new StockRegistryMessages.GetCandles(buffer.getInt(), buffer.getLong(), buffer.getInt());
+      }
+      case PRICE_TICK:
+        return priceTickFromBinary(ByteBuffer.wrap(bytes));
+      case PRICE_TICKS: {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final int size = buffer.getInt();
+        final List<StockRegistryMessages.PriceTick> ticks = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+          ticks.add(priceTickFromBinary(buffer));
+        return new StockRegistryMessages.PriceTicks(ticks);
+      }
+      case TICKS_ACCEPTED: {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        // acks written before rejected ticks were counted end with the unknown ones
+        return new StockRegistryMessages.TicksAccepted(buffer.getInt(), buffer.getInt(),
+          buffer.hasRemaining() ? buffer.getInt() : 0);
+      }
+      case GET_STOCKS_BY_IDS:
+        return new StockRegistryMessages.GetStocksByIds(intsFromBinary(ByteBuffer.wrap(bytes)));
+      case STOCKS_BY_IDS: {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new StockRegistryMessages.StocksByIds(stocksFromBinary(buffer), intsFromBinary(buffer));
+      }
+      case CREATE_STOCKS:
+        return new StockRegistryMessages.CreateStocks(stocksFromBinary(ByteBuffer.wrap(bytes)));
+      case UPDATE_STOCKS:
+        return new StockRegistryMessages.UpdateStocks(stocksFromBinary(ByteBuffer.wrap(bytes)));
+      case ACTIONS_PERFORMED:
+        return actionsFromBinary(ByteBuffer.wrap(bytes));
+      case PASSIVATE:
+        return new StockRegistryMessages.Passivate();
+      case GET_STOCKS_PAGE:
+        return stocksPageFromBinary(ByteBuffer.wrap(bytes));
+      case SEARCH_STOCKS: {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final int limit = buffer.getInt();
+        return new StockRegistryMessages.SearchStocks(stringFromBinary(buffer), limit);
+      }
+      case GET_MOVERS: {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new StockRegistryMessages.GetMovers(
+          CompactStockStore.Move.valueOf(stringFromBinary(buffer)), buffer.getInt());
+      }
+      case GET_STOCK_STATS:
+        return new StockRegistryMessages.GetStockStats();
+      case STOCKS:
+        return new Stocks(stocksFromBinary(ByteBuffer.wrap(bytes)));
+      case MOVERS: {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new Movers(stringFromBinary(buffer), stocksFromBinary(buffer), doublesFromBinary(buffer));
+      }
+      case STOCK_STATS:
+        return statsFromBinary(ByteBuffer.wrap(bytes));
+      default:
+        throw new NotSerializableException("Unknown manifest " + manifest);
+    }
+  }
+
+  private static byte[] intToBinary(int value) {
+    return ByteBuffer.allocate(4).putInt(value).array();
+  }
+
+  private static byte[] concat(byte[]... parts) {
+    int size = 0;
+    for (byte[] part : parts)
+      size += part.length;
+    final ByteBuffer buffer = ByteBuffer.allocate(size);
+    for (byte[] part : parts)
+      buffer.put(part);
+    return buffer.array();
+  }
+
+  private static byte[] stringToBinary(String value) {
+    if (value == null)
+      return intToBinary(-1);
+    final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    return ByteBuffer.allocate(4 + bytes.length).putInt(bytes.length).put(bytes).array();
+  }
+
+  private static String stringFromBinary(ByteBuffer buffer) {
+    final int length = buffer.getInt();
+    if (length < 0)
+      return null;
+    final byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static byte[] intsToBinary(List<Integer> values) {
+    final ByteBuffer buffer = ByteBuffer.allocate(4 + values.size() * 4).putInt(values.size());
+    for (Integer value : values)
+      buffer.putInt(value);
+    return buffer.array();
+  }
+
+  private static List<Integer> intsFromBinary(ByteBuffer buffer) {
+    final int size = buffer.getInt();
+    final List<Integer> values = new ArrayList<>(size);
+    for (int i = 0; i < size; i++)
+      values.add(buffer.getInt());
+    return values;
+  }
+
+  private static byte[] doublesToBinary(List<Double> values) {
+    final ByteBuffer buffer = ByteBuffer.allocate(4 + values.size() * 8).putInt(values.size());
+    for (Double value : values)
+      buffer.putDouble(value);
+    return buffer.array();
+  }
+
+  private static List<Double> doublesFromBinary(ByteBuffer buffer) {
+    final int size = buffer.getInt();
+    final List<Double> values = new ArrayList<>(size);
+    for (int i = 0; i < size; i++)
+      values.add(buffer.getDouble());
+    return values;
+  }
+
+  private static byte[] stocksToBinary(List<Stock> stocks) {
+    final byte[][] parts = new byte[stocks.size() + 1][];
+    parts[0] = intToBinary(stocks.size());
+    for (int i = 0; i < stocks.size(); i++)
+      parts[i + 1] = stockToBinary(stocks.get(i));
+    return concat(parts);
+  }
+
+  private static List<Stock> stocksFromBinary(ByteBuffer buffer) {
+    final int size = buffer.getInt();
+    final List<Stock> stocks = new ArrayList<>(size);
+    for (int i = 0; i < size; i++)
+      stocks.add(stockFromBinary(buffer));
+    return stocks;
+  }
+
+  private static final int TICK_SIZE = 4 + 8 + 8;
+
+  private static ByteBuffer priceTickToBinary(ByteBuffer buffer, StockRegistryMessages.PriceTick tick) {
+    return buffer.putInt(tick.getId()).putDouble(tick.getPrice()).putLong(tick.getTimestamp());
+  }
+
+  private static StockRegistryMessages.PriceTick priceTickFromBinary(ByteBuffer buffer) {
+    return new StockRegistryMessages.PriceTick(buffer.getInt(), buffer.getDouble(), buffer.getLong());
+  }
+
+  private static byte[] priceTicksToBinary(List<StockRegistryMessages.PriceTick> ticks) {
+    final ByteBuffer buffer = ByteBuffer.allocate(4 + ticks.size() * TICK_SIZE).putInt(ticks.size());
+    for (StockRegistryMessages.PriceTick tick : ticks)
+      priceTickToBinary(buffer, tick);
+    return buffer.array();
+  }
+
+  private static byte[] actionsToBinary(List<StockRegistryMessages.ActionPerformed> actions) {
+    final byte[][] parts = new byte[actions.size() + 1][];
+    parts[0] = intToBinary(actions.size());
+    for (int i = 0; i < actions.size(); i++)
+      parts[i + 1] = stringToBinary(actions.get(i).getDescription());
+    return concat(parts);
+  }
+
+  private static StockRegistryMessages.ActionsPerformed actionsFromBinary(ByteBuffer buffer) {
+    final int size = buffer.getInt();
+    final List<StockRegistryMessages.ActionPerformed> actions = new ArrayList<>(size);
+    for (int i = 0; i < size; i++)
+      actions.add(new StockRegistryMessages.ActionPerformed(stringFromBinary(buffer)));
+    return new StockRegistryMessages.ActionsPerformed(actions);
+  }
+
+  private static byte[] stocksPageToBinary(StockRegistryMessages.GetStocksPage page) {
+    return concat(stringToBinary(page.getOrder().name()), ByteBuffer.allocate(8 + 4 + 8 + 8 + 8 + 8 + 4)
+      .putLong(page.getAfterKey()).putInt(page.getAfterId())
+      .putDouble(page.getMinPrice()).putDouble(page.getMaxPrice())
+      .putLong(page.getFrom()).putLong(page.getTo())
+      .putInt(page.getLimit()).array());
+  }
+
+  private static StockRegistryMessages.GetStocksPage stocksPageFromBinary(ByteBuffer buffer) {
+    final CompactStockStore.Order order = CompactStockStore.Order.valueOf(stringFromBinary(buffer));
+    return new StockRegistryMessages.GetStocksPage(order, buffer.getLong(), buffer.getInt(),
+      buffer.getDouble(), buffer.getDouble(), buffer.getLong(), buffer.getLong(), buffer.getInt());
+  }
+
+  /**
+   * Stats are their counts, a byte of flags for their prices, then the prices present.
+   */
+  private static byte[] statsToBinary(StockStats stats) {
+    byte flags = 0;
+    int size = 8 + 8 + 1 + 8;
+    if (stats.getMinPrice() != null) {
+      flags |= HAS_MIN_PRICE;
+      size += 8;
+    }
+    if (stats.getMaxPrice() != null) {
+      flags |= HAS_MAX_PRICE;
+      size += 8;
+    }
+    if (stats.getAveragePrice() != null) {
+      flags |= HAS_AVERAGE_PRICE;
+      size += 8;
+    }
+    final ByteBuffer buffer = ByteBuffer.allocate(size);
+    buffer.putLong(stats.getCount()).putLong(stats.getPriced()).putLong(stats.getUpdatesLastMinute()).put(flags);
+    if (stats.getMinPrice() != null)
+      buffer.putDouble(stats.getMinPrice());
+    if (stats.getMaxPrice() != null)
+      buffer.putDouble(stats.getMaxPrice());
+    if (stats.getAveragePrice() != null)
+      buffer.putDouble(stats.getAveragePrice());
+    return buffer.array();
+  }
+
+  private static StockStats statsFromBinary(ByteBuffer buffer) {
+    final long count = buffer.getLong();
+    final long priced = buffer.getLong();
+    final long updatesLastMinute = buffer.getLong();
+    final byte flags = buffer.get();
+    final Double minPrice = (flags & HAS_MIN_PRICE) != 0 ? buffer.getDouble() : null;
+    final Double maxPrice = (flags & HAS_MAX_PRICE) != 0 ? buffer.getDouble() : null;
+    final Double averagePrice = (flags & HAS_AVERAGE_PRICE) != 0 ? buffer.getDouble() : null;
+    return new StockStats(count, priced, minPrice, maxPrice, averagePrice, updatesLastMinute);
+  }
+
+  private static byte[] stockToBinary(Stock stock) {
+    final byte[] name = stock.getName() != null ? stock.getName().getBytes(StandardCharsets.UTF_8) : null;
+    byte flags = 0;
+    int size = 4 + 1;
+    if (stock.getId() != null) {
+      flags |= HAS_ID;
+    }
+    if (name != null) {
+      flags |= HAS_NAME;
+      size += 4 + name.length;
+    }
+    if (stock.getCurrentPrice() != null) {
+      flags |= HAS_PRICE;
+      size += 8;
+    }
+    if (stock.getLastUpdate() != null) {
+      flags |= HAS_LAST_UPDATE;
+      size += 8 + 4;
+    }
+
+    final ByteBuffer buffer = ByteBuffer.allocate(size);
+    buffer.putInt(stock.getId() != null ? stock.getId() : 0);
+    buffer.put(flags);
+    if (name != null)
+      buffer.putInt(name.length).put(name);
+    if (stock.getCurrentPrice() != null)
+      buffer.putDouble(stock.getCurrentPrice());
+    if (stock.getLastUpdate() != null)
+      buffer.putLong(stock.getLastUpdate().getEpochSecond()).putInt(stock.getLastUpdate().getNano());
+    return buffer.array();
+  }
+
+  /**
+   * A missing stock is written as no bytes at all, as every stock takes some.
+   */
+  private static byte[] stockInfoToBinary(Stock stock) {
+    return stock != null ? stockToBinary(stock) : EMPTY;
+  }
+
+  private static byte[] priceHistoryToBinary(PriceHistory history) {
+    if (history == null)
+      return EMPTY;
+    final int size = history.getTimestamps().length;
+    final ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + size * (8 + 8));
+    buffer.putInt(history.getId()).putInt(size);
+    for (long timestamp : history.getTimestamps())
+      buffer.putLong(timestamp);
+    for (double price : history.getPrices())
+      buffer.putDouble(price);
+    return buffer.array();
+  }
+
+  private static PriceHistory priceHistoryFromBinary(ByteBuffer buffer) {
+    final int id = buffer.getInt();
+    final long[] timestamps = new long[buffer.getInt()];
+    final double[] prices = new double[timestamps.length];
+    for (int i = 0; i < timestamps.length; i++)
+      timestamps[i] = buffer.getLong();
+    for (int i = 0; i < prices.length; i++)
+      prices[i] = buffer.getDouble();
+    return new PriceHistory(id, timestamps, prices);
+  }
+
+  private static byte[] candlesToBinary(Candles candles) {
+    if (candles == null)
+      return EMPTY;
+    final int size = candles.getStarts().length;
+    final ByteBuffer buffer = ByteBuffer.allocate(4 + 8 + 4 + size * (8 + 4 * 8 + 4));
+    buffer.putInt(candles.getId()).putLong(candles.getIntervalMillis()).putInt(size);
+    for (int i = 0; i < size; i++)
+      buffer.putLong(candles.getStarts()[i])
+        .putDouble(candles.getOpens()[i]).putDouble(candles.getHighs()[i])
+        .putDouble(candles.getLows()[i]).putDouble(candles.getCloses()[i])
+        .putInt(candles.getTicks()[i]);
+    return buffer.array();
+  }
+
+  private static Candles candlesFromBinary(ByteBuffer buffer) {
+    final int id = buffer.getInt();
+    final long intervalMillis = buffer.getLong();
+    final int size = buffer.getInt();
+    final long[] starts = new long[size];
+    final double[] opens = new double[size], highs = new double[size], lows = new double[size], closes = new double[size];
+    final int[] ticks = new int[size];
+    for (int i = 0; i < size; i++) {
+      starts[i] = buffer.getLong();
+      opens[i] = buffer.getDouble();
+      highs[i] = buffer.getDouble();
+      lows[i] = buffer.getDouble();
+      closes[i] = buffer.getDouble();
+      ticks[i] = buffer.getInt();
+    }
+    return new Candles(id, intervalMillis, starts, opens, highs, lows, closes, ticks);
+  }
+
+  /**
+   * A snapshot is its stock, then the capacity, size, timestamps and prices of its history,
+   * then the number of its candle series, and the interval, capacity, size and candles of each.
+   */
+  private static byte[] snapshotToBinary(StockActor.Snapshot snapshot) {
+    final byte[] stock = stockToBinary(snapshot.getStock());
+    final PriceRingBuffer.Range history = snapshot.getHistory().range(Long.MIN_VALUE, Long.MAX_VALUE);
+    final CandleSeries.Slice[] candles = new CandleSeries.Slice[snapshot.getCandles().length];
+    int size = stock.length + 4 + 4 + history.getTimestamps().length * (8 + 8) + 4;
+    for (int i = 0; i < candles.length; i++) {
+      candles[i] = snapshot.getCandles()[i].latest(snapshot.getCandles()[i].size());
+      size += 8 + 4 + 4 + candles[i].getStarts().length * (8 + 4 * 8 + 4);
+    }
+
+    final ByteBuffer buffer = ByteBuffer.allocate(size);
+    buffer.put(stock);
+    buffer.putInt(snapshot.getHistory().capacity()).putInt(history.getTimestamps().length);
+    for (int i = 0; i < history.getTimestamps().length; i++)
+      buffer.putLong(history.getTimestamps()[i]).putDouble(history.getPrices()[i]);
+    buffer.putInt(candles.length);
+    for (int i = 0; i < candles.length; i++) {
+      final CandleSeries.Slice slice = candles[i];
+      buffer.putLong(snapshot.getCandles()[i].intervalMillis()).putInt(snapshot.getCandles()[i].capacity())
+        .putInt(slice.getStarts().length);
+      for (int j = 0; j < slice.getStarts().length; j++)
+        buffer.putLong(slice.getStarts()[j])
+          .putDouble(slice.getOpens()[j]).putDouble(slice.getHighs()[j])
+          .putDouble(slice.getLows()[j]).putDouble(slice.getCloses()[j])
+          .putInt(slice.getTicks()[j]);
+    }
+    return buffer.array();
+  }
+
+  private static StockActor.Snapshot snapshotFromBinary(ByteBuffer buffer) {
+    final Stock stock = stockFromBinary(buffer);
+    final PriceRingBuffer history = new PriceRingBuffer(buffer.getInt());
+    for (int i = buffer.getInt(); i > 0; i--)
+      history.add(buffer.getLong(), buffer.getDouble());
+    final CandleSeries[] candles = new CandleSeries[buffer.getInt()];
+    for (int i = 0; i < candles.length; i++) {
+      candles[i] = new CandleSeries(buffer.getLong(), buffer.getInt());
+      for (int j = buffer.getInt(); j > 0; j--)
+        candles[i].append(buffer.getLong(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble(),
+          buffer.getDouble(), buffer.getInt());
+    }
+    return new StockActor.Snapshot(stock, history, candles);
+  }
+
+  private static Stock stockFromBinary(ByteBuffer buffer) {
+    final int id = buffer.getInt();
+    final byte flags = buffer.get();
+    String name = null;
+    if ((flags & HAS_NAME) != 0) {
+      byte[] bytes = new byte[buffer.getInt()];
+      buffer.get(bytes);
+      name = new String(bytes, StandardCharsets.UTF_8);
+    }
+    final Double price = (flags & HAS_PRICE) != 0 ? buffer.getDouble() : null;
+    final Instant lastUpdate = (flags & HAS_LAST_UPDATE) != 0 ?
+      Instant.ofEpochSecond(buffer.getLong(), buffer.getInt()) : null;
+    return new Stock((flags & HAS_ID) != 0 ? id : null, name, price, lastUpdate);
+  }
+}
@@ -0,0 +1,205 @@
+package com.javaigua.stocks.store;
+
+import java.io.Serializable;
+
+/**
+ * A fixed-capacity series of open/high/low/close candles of a stock, at a single interval.
+ *
+ * Candles are kept in parallel primitive arrays used as a ring, and every price updates
+ * the latest candle, or opens a new one, in constant time and without allocating. Candles
+ * are aligned to epoch multiples of the interval, and intervals without prices have no
+ * candle. Once full, every new candle overwrites the oldest one.
+ *
+ * Prices older than the latest candle are dropped. This class is not thread safe, it is
+ * meant to be owned by a single actor.
+ */
+public class CandleSeries implements Serializable {
+
+  private final long intervalMillis;
+  private final long[] starts;
+  private final double[] opens;
+  private final double[] highs;
+  private final double[] lows;
+  private final double[] closes;
+  private final int[] ticks;
+  // physical index of the oldest candle
+  private int start;
+  private int size;
+
+  public CandleSeries(long intervalMillis, int capacity) {
+    if (intervalMillis < 1)
+      throw new IllegalArgumentException("Interval must be positive: " + intervalMillis);
+    if (capacity < 1)
+      throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+    this.intervalMillis = intervalMillis;
+    this.starts = new long[capacity];
+    this.opens = new double[capacity];
+    this.highs = new double[capacity];
+    this.lows = new double[capacity];
+    this.closes = new double[capacity];
+    this.ticks = new int[capacity];
+  }
+
+  public long intervalMillis() {
+    return intervalMillis;
+  }
+
+  public int capacity() {
+    return starts.length;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Adds a price to the candle of its interval, unless it is older than the latest candle.
+   *
+   * @return whether the price was added
+   */
+  public boolean add(long timestamp, double price) {
+    final long candleStart = Math.floorDiv(timestamp, intervalMillis) * intervalMillis;
+    if (size > 0) {
+      int latest = physical(size - 1);
+      if (candleStart == starts[latest]) {
+        highs[latest] = Math.max(highs[latest], price);
+        lows[latest] = Math.min(lows[latest], price);
+        closes[latest] = price;
+        ticks[latest]++;
+        return true;
+      } else if (candleStart < starts[latest]) {
+        return false;
+      }
+    }
+    int index;
+    if (size < starts.length) {
+      index = physical(size++);
+    } else {
+      index = start;
+      start = physical(1);
+    }
+    starts[index] = candleStart;
+    opens[index] = price;
+    highs[index] = price;
+    lows[index] = price;
+    closes[index] = price;
+    ticks[index] = 1;
+    return true;
+  }
+
+  /**
+   * Appends a whole candle, e.g. read back from a snapshot, unless it starts no later than
+   * the latest candle.
+   *
+   * @return whether the candle was appended
+   */
+  public boolean append(long candleStart, double open, double high, double low, double close, int candleTicks) {
+    if (size > 0 && candleStart <= starts[physical(size - 1)])
+      return false;
+    int index;
+    if (size < starts.length) {
+      index = physical(size++);
+    } else {
+      index = start;
+      start = physical(1);
+    }
+    starts[index] = candleStart;
+    opens[index] = open;
+    highs[index] = high;
+    lows[index] = low;
+    closes[index] = close;
+    ticks[index] = candleTicks;
+    return true;
+  }
+
+  public void clear() {
+    start = 0;
+    size = 0;
+  }
+
+  /**
+   * The latest candles, at most the given number of them, oldest first.
+   */
+  public Slice latest(int limit) {
+    final int count = Math.max(0, Math.min(limit, size));
+    final Slice slice = new Slice(count);
+    for (int i = 0; i < count; i++) {
+      int index = physical(size - count + i);
+      slice.starts[i] = starts[index];
+      slice.opens[i] = opens[index];
+      slice.highs[i] = highs[index];
+      slice.lows[i] = lows[index];
+      slice.closes[i] = closes[index];
+      slice.ticks[i] = ticks[index];
+    }
+    return slice;
+  }
+
+  /**
+   * A copy of these candles, to be handed over to another thread.
+   */
+  public CandleSeries copy() {
+    final CandleSeries copy = new CandleSeries(intervalMillis, starts.length);
+    System.arraycopy(starts, 0, copy.starts, 0, starts.length);
+    System.arraycopy(opens, 0, copy.opens, 0, starts.length);
+    System.arraycopy(highs, 0, copy.highs, 0, starts.length);
+    System.arraycopy(lows, 0, copy.lows, 0, starts.length);
+    System.arraycopy(closes, 0, copy.closes, 0, starts.length);
+    System.arraycopy(ticks, 0, copy.ticks, 0, starts.length);
+    copy.start = start;
+    copy.size = size;
+    return copy;
+  }
+
+  private int physical(int logical) {
+    int index = start + logical;
+    return index < starts.length ? index : index - starts.length;
+  }
+
+  /**
+   * Consecutive candles of a series, as parallel arrays.
+   */
+  public static class Slice implements Serializable {
+    public static final Slice EMPTY = new Slice(0);
+
+    private final long[] starts;
+    private final double[] opens;
+    private final double[] highs;
+    private final double[] lows;
+    private final double[] closes;
+    private final int[] ticks;
+
+    Slice(int size) {
+      this.starts = new long[size];
+      this.opens = new double[size];
+      this.highs = new double[size];
+      this.lows = new double[size];
+      this.closes = new double[size];
+      this.ticks = new int[size];
+    }
+
+    public long[] getStarts() {
+      return starts;
+    }
+
+    public double[] getOpens() {
+      return opens;
+    }
+
+    public double[] getHighs() {
+      return highs;
+    }
+
+    public double[] getLows() {
+      return lows;
+    }
+
+    public double[] getCloses() {
+      return closes;
+    }
+
+    public int[] getTicks() {
+      return ticks;
+    }
+  }
+}
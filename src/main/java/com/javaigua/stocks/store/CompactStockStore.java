@@ -0,0 +1,554 @@
+package com.javaigua.stocks.store;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+import com.javaigua.stocks.Domain.Movers;
+import com.javaigua.stocks.Domain.Stock;
+import com.javaigua.stocks.Domain.StockStats;
+
+/**
+ * A columnar store of the latest state of stocks, keyed by stock id.
+ *
+ * Stocks are kept as rows of primitive columns, densely packed: int ids, int ids of names
+ * interned in a name table, double prices and long epoch millis of the last update. Rows
+ * are found through an open addressing index of row numbers. A stock takes 28 bytes of
+ * columns and some 8 bytes of index, plus its name once per distinct name, so millions of
+ * stocks fit in a modest heap and a full scan of a column runs at memory speed. Stock
+ * objects are only created when read, and last updates are kept to the millisecond.
+ *
+ * Stocks are also kept in sorted indexes by id, by price and by last update, some 36 bytes
+ * more a stock, so a page of stocks in any of these orders costs a search of its index plus
+ * the size of the page, however many stocks there are, and in a NameIndex of their names,
+ * some 4 bytes more a char of name, so stocks are searched by name in about the same time.
+ *
+ * Market-wide figures are kept up to date upon every change too: the open price of every
+ * stock, its first price in this store, with a sorted index of changes since then, so the
+ * top movers are read from its ends, some 20 bytes more a stock, the sum of prices for
+ * their average, read along with the ends of the index by price, and counts of the updates
+ * of the last minute, so neither needs a scan of the stocks.
+ *
+ * Rows are numbered from zero to size, and the columns of a row are read by number, e.g. to
+ * aggregate prices, until the store is modified again.
+ *
+ * This class is not thread safe, it is meant to be owned by a single actor.
+ */
+public class CompactStockStore {
+
+  private static final int NO_NAME = -1;
+  private static final long NO_LAST_UPDATE = Long.MIN_VALUE;
+
+  private final NameTable names = new NameTable();
+  private final SortedIndex byId = new SortedIndex();
+  // prices as keys of the index, stocks without a price are left out
+  private final SortedIndex byPrice = new SortedIndex();
+  // stocks without a last update are left out
+  private final SortedIndex byLastUpdate = new SortedIndex();
+  private final NameIndex byName = new NameIndex();
+  // percent changes since open prices as keys, stocks without a change are left out
+  private final SortedIndex byChange = new SortedIndex();
+  private final UpdateCounts updates = new UpdateCounts();
+  // stocks with a price, and the sum of their prices, compensated for rounding errors
+  private int priced;
+  private double priceSum;
+  private double priceSumError;
+  // row number plus one of every id, by its hash, zero for free slots
+  private int[] index;
+  private int[] ids;
+  private int[] nameIds;
+  // ids of the folded names of the name index
+  private int[] foldedNameIds;
+  // NaN for stocks without a price
+  private double[] prices;
+  // the first price of every stock, NaN for stocks never priced
+  private double[] opens;
+  private long[] updateMillis;
+  private int size;
+
+  /**
+   * An order of the stocks of a page, the order of one of the indexes.
+   */
+  public enum Order {
+    ID, PRICE, LAST_UPDATE;
+
+    /**
+     * The key of a stock in this order, ties being in id order.
+     */
+    public long key(Stock stock) {
+      switch (this) {
+        case PRICE:
+          return stock.getCurrentPrice() != null ? SortedIndex.key(stock.getCurrentPrice()) : Long.MIN_VALUE;
+        case LAST_UPDATE:
+          return stock.getLastUpdate() != null ? stock.getLastUpdate().toEpochMilli() : NO_LAST_UPDATE;
+        default:
+          return stock.getId();
+      }
+    }
+  }
+
+  /**
+   * A ranking of movers: the largest rises, the largest falls or the largest changes either way.
+   */
+  public enum Move {
+    GAIN, LOSS, CHANGE;
+
+    /**
+     * Compares the changes of two stocks in this ranking, first mover first, ties in id order.
+     */
+    public int compare(double change, int id, double otherChange, int otherId) {
+      final int byChange;
+      switch (this) {
+        case GAIN:
+          byChange = Double.compare(otherChange, change);
+          break;
+        case LOSS:
+          byChange = Double.compare(change, otherChange);
+          break;
+        default:
+          byChange = Double.compare(Math.abs(otherChange), Math.abs(change));
+      }
+      return byChange != 0 ? byChange : Integer.compare(id, otherId);
+    }
+  }
+
+  public CompactStockStore() {
+    this(16);
+  }
+
+  public CompactStockStore(int initialCapacity) {
+    final int rows = Math.max(initialCapacity, 4);
+    this.index = new int[tableSize(rows)];
+    this.ids = new int[rows];
+    this.nameIds = new int[rows];
+    this.foldedNameIds = new int[rows];
+    this.prices = new double[rows];
+    this.opens = new double[rows];
+    this.updateMillis = new long[rows];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean contains(int id) {
+    return row(id) >= 0;
+  }
+
+  /**
+   * The stock with the given id, or null when there is none.
+   */
+  public Stock get(int id) {
+    final int row = row(id);
+    return row >= 0 ? stock(row) : null;
+  }
+
+  /**
+   * Adds a stock, or replaces the one with the same id.
+   */
+  public void put(Stock stock) {
+    put(stock.getId(),
+      stock.getName() != null ? names.acquire(stock.getName()) : NO_NAME,
+      stock.getCurrentPrice() != null ? stock.getCurrentPrice() : Double.NaN,
+      stock.getLastUpdate() != null ? stock.getLastUpdate().toEpochMilli() : NO_LAST_UPDATE);
+  }
+
+  /**
+   * Replaces a stock upon an update of it, counting the update as of the given epoch
+   * millis it arrived at, rather than its last update, which a client may date freely.
+   * Stocks put, created, recovered or loaded, are not counted as updates.
+   */
+  public void update(Stock stock, long nowMillis) {
+    put(stock);
+    updates.record(nowMillis);
+  }
+
+  /**
+   * Adds a stock of the given columns, its name as UTF-8 bytes, unless there is one with
+   * the same id already.
+   *
+   * @return whether it was added
+   */
+  boolean putIfAbsent(int id, byte[] name, double price, long epochMillis) {
+    if (contains(id))
+      return false;
+    put(id, name != null ? names.acquire(name) : NO_NAME, price, epochMillis);
+    return true;
+  }
+
+  private void put(int id, int nameId, double price, long epochMillis) {
+    int row = row(id);
+    if (row < 0) {
+      if (size == ids.length)
+        grow();
+      row = size++;
+      ids[row] = id;
+      nameIds[row] = NO_NAME;
+      foldedNameIds[row] = NO_NAME;
+      prices[row] = Double.NaN;
+      opens[row] = Double.NaN;
+      updateMillis[row] = NO_LAST_UPDATE;
+      index[slot(id)] = row + 1;
+      byId.add(id, id);
+    }
+    if (nameId != nameIds[row]) {
+      if (foldedNameIds[row] != NO_NAME)
+        byName.remove(id, foldedNameIds[row]);
+      foldedNameIds[row] = nameId != NO_NAME ? byName.add(id, names.name(nameId)) : NO_NAME;
+    }
+    if (nameIds[row] != NO_NAME)
+      names.release(nameIds[row]);
+    nameIds[row] = nameId;
+    setPrice(row, price, epochMillis);
+  }
+
+  /**
+   * Sets the price of the stock with the given id in place, its name left as is, and
+   * counts the update as of the given epoch millis it arrived at, see update.
+   *
+   * @return the stock updated, null when there is none
+   */
+  public Stock updatePrice(int id, double price, long epochMillis, long nowMillis) {
+    final int row = row(id);
+    if (row < 0)
+      return null;
+    setPrice(row, price, epochMillis);
+    updates.record(nowMillis);
+    return stockAt(row);
+  }
+
+  /**
+   * Sets the price and last update of a row, moving it in the indexes by them.
+   */
+  private void setPrice(int row, double price, long epochMillis) {
+    final int id = ids[row];
+    if (Double.doubleToLongBits(price) != Double.doubleToLongBits(prices[row])) {
+      if (hasChange(row))
+        byChange.remove(SortedIndex.key(change(row)), id);
+      if (!Double.isNaN(prices[row]))
+        removePrice(id, prices[row]);
+      if (!Double.isNaN(price)) {
+        addPrice(id, price);
+        if (Double.isNaN(opens[row]))
+          opens[row] = price;
+      }
+      prices[row] = price;
+      if (hasChange(row))
+        byChange.add(SortedIndex.key(change(row)), id);
+    }
+    if (epochMillis != updateMillis[row]) {
+      if (updateMillis[row] != NO_LAST_UPDATE)
+        byLastUpdate.remove(updateMillis[row], id);
+      if (epochMillis != NO_LAST_UPDATE)
+        byLastUpdate.add(epochMillis, id);
+      updateMillis[row] = epochMillis;
+    }
+  }
+
+  /**
+   * Removes the stock with the given id, the last row takes its place.
+   *
+   * @return whether there was one
+   */
+  public boolean remove(int id) {
+    final int slot = slot(id);
+    if (index[slot] == 0)
+      return false;
+    final int row = index[slot] - 1;
+    delete(slot);
+    byId.remove(id, id);
+    if (hasChange(row))
+      byChange.remove(SortedIndex.key(change(row)), id);
+    if (!Double.isNaN(prices[row]))
+      removePrice(id, prices[row]);
+    if (updateMillis[row] != NO_LAST_UPDATE)
+      byLastUpdate.remove(updateMillis[row], id);
+    if (foldedNameIds[row] != NO_NAME)
+      byName.remove(id, foldedNameIds[row]);
+    if (nameIds[row] != NO_NAME)
+      names.release(nameIds[row]);
+    final int last = --size;
+    if (row != last) {
+      ids[row] = ids[last];
+      nameIds[row] = nameIds[last];
+      foldedNameIds[row] = foldedNameIds[last];
+      prices[row] = prices[last];
+      opens[row] = opens[last];
+      updateMillis[row] = updateMillis[last];
+      index[slot(ids[row])] = row + 1;
+    }
+    return true;
+  }
+
+  /**
+   * Every stock of this store, in row order.
+   */
+  public List<Stock> toList() {
+    final List<Stock> stocks = new ArrayList<>(size);
+    for (int row = 0; row < size; row++)
+      stocks.add(stock(row));
+    return stocks;
+  }
+
+  /**
+   * A page of at most limit stocks in the given order, after the stock of the given key in
+   * that order and id, whose price and last update lie within the given bounds, inclusive.
+   *
+   * The first page is after Long.MIN_VALUE and Integer.MIN_VALUE. Open bounds are infinite
+   * prices and Long.MIN_VALUE and Long.MAX_VALUE millis; stocks without a price, or last
+   * update, are left out by bounds on it, and of pages in its order. Bounds on the column
+   * of the order narrow the scan of its index, those on another column are checked stock
+   * by stock as the index is scanned.
+   */
+  public List<Stock> page(Order order, long afterKey, int afterId, double minPrice, double maxPrice,
+      long fromMillis, long toMillis, int limit) {
+    final List<Stock> page = new ArrayList<>(Math.min(limit, size));
+    if (limit <= 0)
+      return page;
+    final boolean pricesBounded = minPrice > Double.NEGATIVE_INFINITY || maxPrice < Double.POSITIVE_INFINITY;
+    final boolean updatesBounded = fromMillis > Long.MIN_VALUE || toMillis < Long.MAX_VALUE;
+    final SortedIndex sorted;
+    // the last entry before the bounds of the order, and the last key within them
+    long lowKey = Long.MIN_VALUE;
+    int lowId = Integer.MIN_VALUE;
+    long highKey = Long.MAX_VALUE;
+    switch (order) {
+      case PRICE:
+        sorted = byPrice;
+        lowKey = SortedIndex.key(minPrice) - 1;
+        lowId = Integer.MAX_VALUE;
+        highKey = SortedIndex.key(maxPrice);
+        break;
+      case LAST_UPDATE:
+        sorted = byLastUpdate;
+        if (fromMillis > Long.MIN_VALUE) {
+          lowKey = fromMillis - 1;
+          lowId = Integer.MAX_VALUE;
+        }
+        highKey = toMillis;
+        break;
+      default:
+        sorted = byId;
+    }
+    if (SortedIndex.compare(afterKey, afterId, lowKey, lowId) > 0) {
+      lowKey = afterKey;
+      lowId = afterId;
+    }
+    sorted.scan(lowKey, lowId, highKey, (key, id) -> {
+      final int row = row(id);
+      if (pricesBounded && !(prices[row] >= minPrice && prices[row] <= maxPrice))
+        return true;
+      if (updatesBounded && (updateMillis[row] == NO_LAST_UPDATE
+          || updateMillis[row] < fromMillis || updateMillis[row] > toMillis))
+        return true;
+      page.add(stock(row));
+      return page.size() < limit;
+    });
+    return page;
+  }
+
+  /**
+   * At most limit stocks whose names contain the given query, regardless of case, ranked as
+   * NameIndex.ranking does: those whose names start with it first. Names are only searched
+   * past their start for queries of three chars or more.
+   */
+  public List<Stock> search(String query, int limit) {
+    final List<Integer> found = byName.search(query, limit, id -> foldedNameIds[row(id)]);
+    final List<Stock> stocks = new ArrayList<>(found.size());
+    for (Integer id : found)
+      stocks.add(stock(row(id)));
+    return stocks;
+  }
+
+  /**
+   * At most limit stocks that moved the most since their open prices, first mover first,
+   * with their percent changes, read from one end of the index by change, or from both for
+   * changes either way.
+   */
+  public Movers movers(Move by, int limit) {
+    final List<Integer> scanned = new ArrayList<>();
+    if (limit > 0) {
+      if (by != Move.GAIN)
+        byChange.scanFrom(Long.MIN_VALUE, Integer.MIN_VALUE, (key, id) -> scanned.add(id) && scanned.size() < limit);
+      final int falls = scanned.size();
+      if (by != Move.LOSS)
+        byChange.scanBack((key, id) -> scanned.add(id) && scanned.size() - falls < limit);
+    }
+    // the largest changes either way are among the largest falls and rises
+    final List<Integer> found = by != Move.CHANGE ? scanned : scanned.stream().distinct()
+      .sorted((id, other) -> by.compare(change(row(id)), id, change(row(other)), other))
+      .limit(limit)
+      .collect(Collectors.toList());
+    final List<Stock> stocks = new ArrayList<>(found.size());
+    final List<Double> changes = new ArrayList<>(found.size());
+    for (Integer id : found) {
+      stocks.add(stock(row(id)));
+      changes.add(change(row(id)));
+    }
+    return new Movers(by.name().toLowerCase(Locale.ROOT), stocks, changes);
+  }
+
+  /**
+   * The statistics of the stocks of this store, with the updates of the minute up to the
+   * given epoch millis.
+   */
+  public StockStats stats(long nowMillis) {
+    final double[] extremes = {Double.NaN, Double.NaN};
+    byPrice.scanFrom(Long.MIN_VALUE, Integer.MIN_VALUE, (key, id) -> {
+      extremes[0] = prices[row(id)];
+      return false;
+    });
+    byPrice.scanBack((key, id) -> {
+      extremes[1] = prices[row(id)];
+      return false;
+    });
+    return new StockStats(size, priced,
+      priced > 0 ? extremes[0] : null,
+      priced > 0 ? extremes[1] : null,
+      priced > 0 ? priceSum / priced : null,
+      updates.lastMinute(nowMillis));
+  }
+
+  public int idAt(int row) {
+    return ids[row];
+  }
+
+  /**
+   * The name of a row, or null.
+   */
+  public String nameAt(int row) {
+    return nameIds[row] != NO_NAME ? names.name(nameIds[row]) : null;
+  }
+
+  // the UTF-8 bytes of the name of a row, or null, not to be modified
+  byte[] nameBytesAt(int row) {
+    return nameIds[row] != NO_NAME ? names.bytes(nameIds[row]) : null;
+  }
+
+  /**
+   * The price of a row, NaN when it has none.
+   */
+  public double priceAt(int row) {
+    return prices[row];
+  }
+
+  /**
+   * The epoch millis of the last update of a row, Long.MIN_VALUE when it has none.
+   */
+  public long lastUpdateAt(int row) {
+    return updateMillis[row];
+  }
+
+  /**
+   * The stock of a row, created upon every call.
+   */
+  public Stock stockAt(int row) {
+    return stock(row);
+  }
+
+  private boolean hasChange(int row) {
+    return !Double.isNaN(prices[row]) && !Double.isNaN(opens[row]) && opens[row] != 0;
+  }
+
+  /**
+   * The percent change of the price of a row since its open price.
+   */
+  private double change(int row) {
+    return (prices[row] - opens[row]) / opens[row] * 100;
+  }
+
+  private void addPrice(int id, double price) {
+    byPrice.add(SortedIndex.key(price), id);
+    sum(price);
+    priced++;
+  }
+
+  private void removePrice(int id, double price) {
+    byPrice.remove(SortedIndex.key(price), id);
+    priced--;
+    if (priced > 0) {
+      sum(-price);
+    } else { // a fresh sum, without the rounding errors of the previous one
+      priceSum = 0;
+      priceSumError = 0;
+    }
+  }
+
+  /**
+   * Adds to the sum of prices, compensating the rounding errors of the sum.
+   */
+  private void sum(double price) {
+    final double compensated = price - priceSumError;
+    final double sum = priceSum + compensated;
+    priceSumError = (sum - priceSum) - compensated;
+    priceSum = sum;
+  }
+
+  private Stock stock(int row) {
+    return new Stock(
+      ids[row],
+      nameAt(row),
+      Double.isNaN(prices[row]) ? null : prices[row],
+      updateMillis[row] != NO_LAST_UPDATE ? Instant.ofEpochMilli(updateMillis[row]) : null);
+  }
+
+  private int row(int id) {
+    return index[slot(id)] - 1;
+  }
+
+  /**
+   * The slot of the given id in the index, or the free slot where it belongs.
+   */
+  private int slot(int id) {
+    final int mask = index.length - 1;
+    int slot = hash(id) & mask;
+    while (index[slot] != 0 && ids[index[slot] - 1] != id)
+      slot = (slot + 1) & mask;
+    return slot;
+  }
+
+  /**
+   * Frees a slot of the index, shifting back the entries probed past it.
+   */
+  private void delete(int slot) {
+    final int mask = index.length - 1;
+    int free = slot;
+    int next = (free + 1) & mask;
+    while (index[next] != 0) {
+      int home = hash(ids[index[next] - 1]) & mask;
+      // the entry at next may move to the free slot unless its home lies between them
+      if (((next - home) & mask) >= ((next - free) & mask)) {
+        index[free] = index[next];
+        free = next;
+      }
+      next = (next + 1) & mask;
+    }
+    index[free] = 0;
+  }
+
+  private void grow() {
+    final int rows = ids.length * 2;
+    ids = Arrays.copyOf(ids, rows);
+    nameIds = Arrays.copyOf(nameIds, rows);
+    foldedNameIds = Arrays.copyOf(foldedNameIds, rows);
+    prices = Arrays.copyOf(prices, rows);
+    opens = Arrays.copyOf(opens, rows);
+    updateMillis = Arrays.copyOf(updateMillis, rows);
+    index = new int[tableSize(rows)];
+    for (int row = 0; row < size; row++)
+      index[slot(ids[row])] = row + 1;
+  }
+
+  // at most half full, so probes stay short
+  private static int tableSize(int rows) {
+    return Integer.highestOneBit(rows * 2 - 1) << 1;
+  }
+
+  private static int hash(int id) {
+    final int h = id * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
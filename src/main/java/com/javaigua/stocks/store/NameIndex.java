@@ -0,0 +1,224 @@
+package com.javaigua.stocks.store;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.IntUnaryOperator;
+
+import com.javaigua.stocks.Domain.Stock;
+
+/**
+ * An index of stock ids by name, for lookups by prefix and by substring regardless of case.
+ *
+ * Names are folded to lower case and interned in a name table of their own. Stocks are kept
+ * in a sorted index by folded name, the leaves of a prefix trie in order, so the stocks whose
+ * names start with a prefix are a range of it, found by a binary search. Every distinct
+ * trigram of a folded name, three chars packed into a long, has a posting of the sorted ids
+ * of its stocks: a substring of three chars or more is looked up in the posting of its
+ * rarest trigram, whose names are then checked for the whole substring. Stocks are mostly
+ * created in id order, so ids are mostly appended to postings, and removed by shifting the
+ * rest of them. A name of n chars takes some 12 + 4 * (n - 2) bytes of index, plus its
+ * folded copy.
+ *
+ * This class is not thread safe, it is meant to be owned by a single actor.
+ */
+public class NameIndex {
+
+  // the key standing for the folded query, in the order of the index by name
+  private static final long QUERY = -1;
+
+  private final NameTable folded = new NameTable();
+  private final SortedIndex byName = new SortedIndex(this::compareNames);
+  private final Map<Long, Posting> postings = new HashMap<>();
+  // the folded query being looked up, compared with the names of the index
+  private byte[] query;
+
+  /**
+   * The ranking of the stocks found for a query: those whose names start with it, in the
+   * order of their folded names, then those whose names contain it, shorter names first.
+   */
+  public static Comparator<Stock> ranking(String query) {
+    final byte[] prefix = fold(query).getBytes(StandardCharsets.UTF_8);
+    return Comparator.<Stock, byte[]>comparing(stock -> fold(stock.getName()).getBytes(StandardCharsets.UTF_8), ranking(prefix))
+      .thenComparing(Stock::getId);
+  }
+
+  /**
+   * The ranking of folded names for a folded query, before ties in id order.
+   */
+  private static Comparator<byte[]> ranking(byte[] query) {
+    return Comparator.<byte[]>comparingInt(name -> startsWith(name, query) ? 0 : 1 + name.length)
+      .thenComparing(NameIndex::compare);
+  }
+
+  /**
+   * Indexes a stock by its name.
+   *
+   * @return the id of its folded name, to remove it by
+   */
+  int add(int id, String name) {
+    final String lower = fold(name);
+    final int nameId = folded.acquire(lower);
+    byName.add(nameId, id);
+    for (long trigram : trigrams(lower))
+      postings.computeIfAbsent(trigram, t -> new Posting()).add(id);
+    return nameId;
+  }
+
+  /**
+   * Removes a stock of the given folded name id from this index.
+   */
+  void remove(int id, int nameId) {
+    byName.remove(nameId, id);
+    for (long trigram : trigrams(folded.name(nameId))) {
+      Posting posting = postings.get(trigram);
+      posting.remove(id);
+      if (posting.size == 0)
+        postings.remove(trigram);
+    }
+    folded.release(nameId);
+  }
+
+  /**
+   * The ids of at most limit stocks whose names contain the given query, in the order of
+   * their ranking, those whose names contain it past their start only when the query has
+   * three chars or more. Those are the best ranked ones of the posting of the rarest trigram
+   * of the query, kept in a heap of at most limit ids while the posting is scanned.
+   *
+   * @param foldedNameOf the folded name id of a stock id of this index
+   */
+  List<Integer> search(String query, int limit, IntUnaryOperator foldedNameOf) {
+    final List<Integer> found = new ArrayList<>();
+    final String lower = fold(query);
+    if (lower.isEmpty() || limit <= 0)
+      return found;
+    final byte[] bytes = lower.getBytes(StandardCharsets.UTF_8);
+
+    this.query = bytes;
+    byName.scanFrom(QUERY, Integer.MIN_VALUE, (nameId, id) -> {
+      if (!startsWith(folded.bytes((int) nameId), bytes))
+        return false;
+      found.add(id);
+      return found.size() < limit;
+    });
+    this.query = null;
+
+    final long[] trigrams = trigrams(lower);
+    if (found.size() == limit || trigrams.length == 0)
+      return found;
+    Posting rarest = null;
+    for (long trigram : trigrams) {
+      Posting posting = postings.get(trigram);
+      if (posting == null)
+        return found;
+      if (rarest == null || posting.size < rarest.size)
+        rarest = posting;
+    }
+    final int remaining = limit - found.size();
+    final Comparator<Integer> rank = Comparator.<Integer, byte[]>comparing(
+      id -> folded.bytes(foldedNameOf.applyAsInt(id)), ranking(bytes)).thenComparing(Comparator.naturalOrder());
+    // the worst ranked of the best ids found so far on top
+    final PriorityQueue<Integer> best = new PriorityQueue<>(Math.min(remaining, rarest.size) + 1, rank.reversed());
+    for (int i = 0; i < rarest.size; i++) {
+      byte[] name = folded.bytes(foldedNameOf.applyAsInt(rarest.ids[i]));
+      if (indexOf(name, bytes) <= 0) // names starting with the query are found already
+        continue;
+      if (best.size() == remaining && rank.compare(rarest.ids[i], best.peek()) >= 0)
+        continue;
+      best.add(rarest.ids[i]);
+      if (best.size() > remaining)
+        best.poll();
+    }
+    final int prefixed = found.size();
+    found.addAll(best);
+    found.subList(prefixed, found.size()).sort(rank);
+    return found;
+  }
+
+  /**
+   * The sorted ids of the stocks of a trigram.
+   */
+  private static final class Posting {
+    int[] ids = new int[2];
+    int size;
+
+    void add(int id) {
+      final int position = size == 0 || ids[size - 1] < id ? size : -Arrays.binarySearch(ids, 0, size, id) - 1;
+      if (size == ids.length)
+        ids = Arrays.copyOf(ids, size * 2);
+      System.arraycopy(ids, position, ids, position + 1, size - position);
+      ids[position] = id;
+      size++;
+    }
+
+    void remove(int id) {
+      final int position = Arrays.binarySearch(ids, 0, size, id);
+      System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+      size--;
+    }
+  }
+
+  private int compareNames(long nameId, long otherNameId) {
+    return compare(nameId == QUERY ? query : folded.bytes((int) nameId),
+      otherNameId == QUERY ? query : folded.bytes((int) otherNameId));
+  }
+
+  static String fold(String name) {
+    return name.toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * The distinct trigrams of a name, in order.
+   */
+  static long[] trigrams(String name) {
+    if (name.length() < 3)
+      return new long[0];
+    final long[] trigrams = new long[name.length() - 2];
+    for (int i = 0; i < trigrams.length; i++)
+      trigrams[i] = ((long) name.charAt(i) << 32) | ((long) name.charAt(i + 1) << 16) | name.charAt(i + 2);
+    Arrays.sort(trigrams);
+    int distinct = 0;
+    for (int i = 0; i < trigrams.length; i++)
+      if (i == 0 || trigrams[i] != trigrams[i - 1])
+        trigrams[distinct++] = trigrams[i];
+    return Arrays.copyOf(trigrams, distinct);
+  }
+
+  /**
+   * Compares UTF-8 bytes as unsigned bytes, which is the order of their code points.
+   */
+  private static int compare(byte[] bytes, byte[] other) {
+    final int length = Math.min(bytes.length, other.length);
+    for (int i = 0; i < length; i++) {
+      if (bytes[i] != other[i])
+        return (bytes[i] & 0xff) - (other[i] & 0xff);
+    }
+    return bytes.length - other.length;
+  }
+
+  private static boolean startsWith(byte[] bytes, byte[] prefix) {
+    if (bytes.length < prefix.length)
+      return false;
+    for (int i = 0; i < prefix.length; i++)
+      if (bytes[i] != prefix[i])
+        return false;
+    return true;
+  }
+
+  private static int indexOf(byte[] bytes, byte[] part) {
+    outer:
+    for (int i = 0; i <= bytes.length - part.length; i++) {
+      for (int j = 0; j < part.length; j++)
+        if (bytes[i + j] != part[j])
+          continue outer;
+      return i;
+    }
+    return -1;
+  }
+}
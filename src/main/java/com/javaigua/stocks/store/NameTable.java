@@ -0,0 +1,157 @@
+package com.javaigua.stocks.store;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * An interned table of stock names, shared by the rows of a store.
+ *
+ * Every distinct name is kept once, as UTF-8 bytes, under an int name id found through an
+ * open addressing index of the name bytes. Names are reference counted by the rows using
+ * them, and the id of an unused name is reused by the next new name, so the table only
+ * grows with the distinct names in use.
+ *
+ * This class is not thread safe, it is meant to be owned by a single actor.
+ */
+public class NameTable {
+
+  // name id plus one of every name, by its hash, zero for free slots
+  private int[] index;
+  private byte[][] names;
+  private int[] hashes;
+  private int[] references;
+  // ids of unused names, to be reused
+  private int[] free;
+  private int freeCount;
+  private int count;
+
+  public NameTable() {
+    this(16);
+  }
+
+  public NameTable(int initialCapacity) {
+    final int capacity = Math.max(initialCapacity, 4);
+    this.index = new int[tableSize(capacity)];
+    this.names = new byte[capacity][];
+    this.hashes = new int[capacity];
+    this.references = new int[capacity];
+    this.free = new int[capacity];
+  }
+
+  /**
+   * The number of distinct names in use.
+   */
+  public int size() {
+    return count - freeCount;
+  }
+
+  /**
+   * The id of the given name, adding a reference to it.
+   */
+  public int acquire(String name) {
+    return acquire(name.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * The id of the name of the given UTF-8 bytes, adding a reference to it.
+   */
+  public int acquire(byte[] bytes) {
+    final int hash = Arrays.hashCode(bytes);
+    final int slot = slot(bytes, hash);
+    if (index[slot] != 0) {
+      references[index[slot] - 1]++;
+      return index[slot] - 1;
+    }
+
+    final int id;
+    if (freeCount > 0) {
+      id = free[--freeCount];
+    } else {
+      if (count == names.length) {
+        grow();
+        return acquire(bytes);
+      }
+      id = count++;
+    }
+    names[id] = bytes;
+    hashes[id] = hash;
+    references[id] = 1;
+    index[slot] = id + 1;
+    return id;
+  }
+
+  /**
+   * Removes a reference to the name with the given id, and the name once it is unused.
+   */
+  public void release(int id) {
+    if (--references[id] > 0)
+      return;
+    delete(slot(names[id], hashes[id]));
+    names[id] = null;
+    free[freeCount++] = id;
+  }
+
+  public String name(int id) {
+    return new String(names[id], StandardCharsets.UTF_8);
+  }
+
+  // the UTF-8 bytes of a name, not to be modified
+  byte[] bytes(int id) {
+    return names[id];
+  }
+
+  /**
+   * The slot of the given name bytes in the index, or the free slot where they belong.
+   */
+  private int slot(byte[] bytes, int hash) {
+    final int mask = index.length - 1;
+    int slot = spread(hash) & mask;
+    while (index[slot] != 0) {
+      int id = index[slot] - 1;
+      if (hashes[id] == hash && Arrays.equals(names[id], bytes))
+        break;
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  /**
+   * Frees a slot of the index, shifting back the entries probed past it.
+   */
+  private void delete(int slot) {
+    final int mask = index.length - 1;
+    int empty = slot;
+    int next = (empty + 1) & mask;
+    while (index[next] != 0) {
+      int home = spread(hashes[index[next] - 1]) & mask;
+      if (((next - home) & mask) >= ((next - empty) & mask)) {
+        index[empty] = index[next];
+        empty = next;
+      }
+      next = (next + 1) & mask;
+    }
+    index[empty] = 0;
+  }
+
+  private void grow() {
+    final int capacity = names.length * 2;
+    names = Arrays.copyOf(names, capacity);
+    hashes = Arrays.copyOf(hashes, capacity);
+    references = Arrays.copyOf(references, capacity);
+    free = Arrays.copyOf(free, capacity);
+    index = new int[tableSize(capacity)];
+    for (int id = 0; id < count; id++)
+      if (names[id] != null)
+        index[slot(names[id], hashes[id])] = id + 1;
+  }
+
+  // at most half full, so probes stay short
+  private static int tableSize(int capacity) {
+    return Integer.highestOneBit(capacity * 2 - 1) << 1;
+  }
+
+  private static int spread(int hash) {
+    final int h = hash * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
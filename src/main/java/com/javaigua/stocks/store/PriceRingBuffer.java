@@ -0,0 +1,148 @@
+package com.javaigua.stocks.store;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A fixed-capacity history of the prices of a stock, in time order.
+ *
+ * Timestamps and prices are kept in two parallel primitive arrays used as a ring,
+ * so a stock takes 16 bytes per price of capacity, allocated once, and recording
+ * a price neither allocates nor boxes. Once full, every new price overwrites the
+ * oldest one. Range lookups binary search the timestamps.
+ *
+ * Prices older than the latest one are dropped, which keeps the history sorted
+ * by time. This class is not thread safe, it is meant to be owned by a single actor.
+ */
+public class PriceRingBuffer implements Serializable {
+
+  private final long[] timestamps;
+  private final double[] prices;
+  // physical index of the oldest price
+  private int start;
+  private int size;
+
+  public PriceRingBuffer(int capacity) {
+    if (capacity < 1)
+      throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+    this.timestamps = new long[capacity];
+    this.prices = new double[capacity];
+  }
+
+  private PriceRingBuffer(PriceRingBuffer other) {
+    this.timestamps = other.timestamps.clone();
+    this.prices = other.prices.clone();
+    this.start = other.start;
+    this.size = other.size;
+  }
+
+  public int capacity() {
+    return timestamps.length;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Records a price, unless it is older than the latest one.
+   *
+   * @return whether the price was recorded
+   */
+  public boolean add(long timestamp, double price) {
+    if (size > 0 && timestamp < timestamps[physical(size - 1)])
+      return false;
+    int index;
+    if (size < timestamps.length) {
+      index = physical(size++);
+    } else {
+      index = start;
+      start = physical(1);
+    }
+    timestamps[index] = timestamp;
+    prices[index] = price;
+    return true;
+  }
+
+  public void clear() {
+    start = 0;
+    size = 0;
+  }
+
+  /**
+   * The prices from, and to, the given epoch millis, both inclusive, oldest first.
+   */
+  public Range range(long from, long to) {
+    final int first = lowerBound(from);
+    final int last = to == Long.MAX_VALUE ? size : lowerBound(to + 1);
+    final int count = Math.max(0, last - first);
+    final long[] rangeTimestamps = new long[count];
+    final double[] rangePrices = new double[count];
+    for (int i = 0; i < count; ) { // at most two contiguous chunks of the ring
+      int index = physical(first + i);
+      int chunk = Math.min(count - i, timestamps.length - index);
+      System.arraycopy(timestamps, index, rangeTimestamps, i, chunk);
+      System.arraycopy(prices, index, rangePrices, i, chunk);
+      i += chunk;
+    }
+    return new Range(rangeTimestamps, rangePrices);
+  }
+
+  /**
+   * A copy of this history, to be handed over to another thread.
+   */
+  public PriceRingBuffer copy() {
+    return new PriceRingBuffer(this);
+  }
+
+  /**
+   * The logical index of the first price at or after the given epoch millis.
+   */
+  private int lowerBound(long timestamp) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (timestamps[physical(mid)] < timestamp)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  private int physical(int logical) {
+    int index = start + logical;
+    return index < timestamps.length ? index : index - timestamps.length;
+  }
+
+  /**
+   * The prices of a time range, as parallel arrays.
+   */
+  public static class Range implements Serializable {
+    private final long[] timestamps;
+    private final double[] prices;
+
+    public Range(long[] timestamps, double[] prices) {
+      this.timestamps = timestamps;
+      this.prices = prices;
+    }
+
+    public long[] getTimestamps() {
+      return timestamps;
+    }
+
+    public double[] getPrices() {
+      return prices;
+    }
+
+    @Override
+    public String toString() {
+      return new StringBuilder()
+        .append("[timestamps=").append(Arrays.toString(timestamps))
+        .append(", prices=").append(Arrays.toString(prices))
+        .append("]")
+        .toString();
+    }
+  }
+}
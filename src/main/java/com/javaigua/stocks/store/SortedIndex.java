@@ -0,0 +1,269 @@
+package com.javaigua.stocks.store;
+
+import java.util.Arrays;
+
+/**
+ * A sorted index of stock ids by a long key, e.g. a price or the time of an update,
+ * ties in id order. Keys are in numeric order, or in the given order of what they stand
+ * for, e.g. the names of name ids.
+ *
+ * Entries are kept in blocks of at most BLOCK entries, parallel arrays of keys and ids
+ * sorted within and across blocks. An entry is found by a binary search of the last entries
+ * of the blocks, copied side by side so that search stays in cache, then of its block, and
+ * added or removed shifting at most a block, so a change costs O(log n + BLOCK) and a scan
+ * of k entries from any entry, or back from the last one, O(log n + k), at some 12 bytes
+ * an entry.
+ *
+ * This class is not thread safe, it is meant to be owned by a single actor.
+ */
+public class SortedIndex {
+
+  static final int BLOCK = 512;
+
+  /**
+   * A visitor of the entries of a scan, in order.
+   */
+  public interface Visitor {
+    /**
+     * @return whether to go on with the next entry
+     */
+    boolean visit(long key, int id);
+  }
+
+  /**
+   * An order of keys other than their numeric one.
+   */
+  public interface KeyOrder {
+    int compare(long key, long otherKey);
+  }
+
+  // null for the numeric order of keys
+  private final KeyOrder order;
+  // blocks in order, only the first one may be empty, when this index is
+  private long[][] keys = {new long[BLOCK]};
+  private int[][] ids = {new int[BLOCK]};
+  private int[] sizes = new int[1];
+  // the last entry of every block
+  private long[] lastKeys = new long[1];
+  private int[] lastIds = new int[1];
+  private int blocks = 1;
+  private int size;
+
+  /**
+   * The key of a double, in the same order as the double itself, NaN aside.
+   */
+  public static long key(double value) {
+    final long bits = Double.doubleToLongBits(value);
+    return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+  }
+
+  public SortedIndex() {
+    this(null);
+  }
+
+  public SortedIndex(KeyOrder order) {
+    this.order = order;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Adds an entry, which must not be in this index already.
+   */
+  public void add(long key, int id) {
+    int block = block(key, id);
+    int position = position(block, key, id);
+    if (sizes[block] == BLOCK) {
+      split(block);
+      if (position > BLOCK / 2) {
+        position -= BLOCK / 2;
+        block++;
+      }
+    }
+    final int moved = sizes[block] - position;
+    System.arraycopy(keys[block], position, keys[block], position + 1, moved);
+    System.arraycopy(ids[block], position, ids[block], position + 1, moved);
+    keys[block][position] = key;
+    ids[block][position] = id;
+    sizes[block]++;
+    size++;
+    last(block);
+  }
+
+  /**
+   * Removes an entry.
+   *
+   * @return whether there was one
+   */
+  public boolean remove(long key, int id) {
+    final int block = block(key, id);
+    final int position = position(block, key, id);
+    if (position == sizes[block] || keys[block][position] != key || ids[block][position] != id)
+      return false;
+    final int moved = sizes[block] - position - 1;
+    System.arraycopy(keys[block], position + 1, keys[block], position, moved);
+    System.arraycopy(ids[block], position + 1, ids[block], position, moved);
+    sizes[block]--;
+    size--;
+    if (block + 1 < blocks && sizes[block] + sizes[block + 1] <= BLOCK / 2)
+      merge(block);
+    else if (sizes[block] == 0 && blocks > 1)
+      removeBlock(block);
+    else
+      last(block);
+    return true;
+  }
+
+  /**
+   * Visits the entries after the given one, exclusive, up to the given key, inclusive.
+   */
+  public void scan(long afterKey, int afterId, long toKey, Visitor visitor) {
+    int block = block(afterKey, afterId);
+    int position = position(block, afterKey, afterId);
+    if (position < sizes[block] && keys[block][position] == afterKey && ids[block][position] == afterId)
+      position++;
+    scan(block, position, (key, id) -> compareKeys(key, toKey) <= 0 && visitor.visit(key, id));
+  }
+
+  /**
+   * Visits the entries from the given one, inclusive, until the visitor stops.
+   */
+  public void scanFrom(long fromKey, int fromId, Visitor visitor) {
+    final int block = block(fromKey, fromId);
+    scan(block, position(block, fromKey, fromId), visitor);
+  }
+
+  /**
+   * Visits the entries from the last one backwards, until the visitor stops.
+   */
+  public void scanBack(Visitor visitor) {
+    for (int block = blocks - 1; block >= 0; block--)
+      for (int position = sizes[block] - 1; position >= 0; position--) {
+        if (!visitor.visit(keys[block][position], ids[block][position]))
+          return;
+      }
+  }
+
+  private void scan(int block, int position, Visitor visitor) {
+    for (; block < blocks; block++, position = 0)
+      for (; position < sizes[block]; position++) {
+        if (!visitor.visit(keys[block][position], ids[block][position]))
+          return;
+      }
+  }
+
+  /**
+   * Compares two entries in numeric order, by key then by id.
+   */
+  public static int compare(long key, int id, long otherKey, int otherId) {
+    final int byKey = Long.compare(key, otherKey);
+    return byKey != 0 ? byKey : Integer.compare(id, otherId);
+  }
+
+  private int compareKeys(long key, long otherKey) {
+    return order == null ? Long.compare(key, otherKey) : order.compare(key, otherKey);
+  }
+
+  private int compareEntries(long key, int id, long otherKey, int otherId) {
+    final int byKey = compareKeys(key, otherKey);
+    return byKey != 0 ? byKey : Integer.compare(id, otherId);
+  }
+
+  /**
+   * The first block whose last entry is not before the given one, or the last block.
+   */
+  private int block(long key, int id) {
+    int low = 0;
+    int high = blocks - 1;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (compareEntries(lastKeys[middle], lastIds[middle], key, id) < 0)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  /**
+   * The position of the first entry of a block not before the given one, or its size.
+   */
+  private int position(int block, long key, int id) {
+    int low = 0;
+    int high = sizes[block];
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (compareEntries(keys[block][middle], ids[block][middle], key, id) < 0)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  /**
+   * Moves the upper half of a full block to a new block right after it.
+   */
+  private void split(int block) {
+    insertBlock(block + 1);
+    System.arraycopy(keys[block], BLOCK / 2, keys[block + 1], 0, BLOCK / 2);
+    System.arraycopy(ids[block], BLOCK / 2, ids[block + 1], 0, BLOCK / 2);
+    sizes[block] = BLOCK / 2;
+    sizes[block + 1] = BLOCK / 2;
+    last(block);
+    last(block + 1);
+  }
+
+  /**
+   * Moves the entries of the block after the given one into it.
+   */
+  private void merge(int block) {
+    System.arraycopy(keys[block + 1], 0, keys[block], sizes[block], sizes[block + 1]);
+    System.arraycopy(ids[block + 1], 0, ids[block], sizes[block], sizes[block + 1]);
+    sizes[block] += sizes[block + 1];
+    removeBlock(block + 1);
+    last(block);
+  }
+
+  /**
+   * Copies the last entry of a block, when it has one.
+   */
+  private void last(int block) {
+    if (sizes[block] > 0) {
+      lastKeys[block] = keys[block][sizes[block] - 1];
+      lastIds[block] = ids[block][sizes[block] - 1];
+    }
+  }
+
+  private void insertBlock(int block) {
+    if (blocks == sizes.length) {
+      keys = Arrays.copyOf(keys, blocks * 2);
+      ids = Arrays.copyOf(ids, blocks * 2);
+      sizes = Arrays.copyOf(sizes, blocks * 2);
+      lastKeys = Arrays.copyOf(lastKeys, blocks * 2);
+      lastIds = Arrays.copyOf(lastIds, blocks * 2);
+    }
+    System.arraycopy(keys, block, keys, block + 1, blocks - block);
+    System.arraycopy(ids, block, ids, block + 1, blocks - block);
+    System.arraycopy(sizes, block, sizes, block + 1, blocks - block);
+    System.arraycopy(lastKeys, block, lastKeys, block + 1, blocks - block);
+    System.arraycopy(lastIds, block, lastIds, block + 1, blocks - block);
+    keys[block] = new long[BLOCK];
+    ids[block] = new int[BLOCK];
+    sizes[block] = 0;
+    blocks++;
+  }
+
+  private void removeBlock(int block) {
+    blocks--;
+    System.arraycopy(keys, block + 1, keys, block, blocks - block);
+    System.arraycopy(ids, block + 1, ids, block, blocks - block);
+    System.arraycopy(sizes, block + 1, sizes, block, blocks - block);
+    System.arraycopy(lastKeys, block + 1, lastKeys, block, blocks - block);
+    System.arraycopy(lastIds, block + 1, lastIds, block, blocks - block);
+    keys[blocks] = null;
+    ids[blocks] = null;
+  }
+}
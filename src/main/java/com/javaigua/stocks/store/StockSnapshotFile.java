@@ -0,0 +1,167 @@
+package com.javaigua.stocks.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * A binary snapshot of stocks in a file, written from the stores of a registry and mapped
+ * in memory to load them back.
+ *
+ * The file holds a segment per store, each one laid out like the columns of the store:
+ * the number of stocks and of name bytes, then ids, prices, epoch millis of last updates
+ * and lengths of names, then the UTF-8 bytes of every name. Stocks are loaded by reading
+ * these columns straight from the mapped file, without parsing them nor creating any Stock.
+ *
+ * A snapshot is written to a temporary file, then moved over the previous one, so a crash
+ * while writing keeps the previous snapshot.
+ */
+public class StockSnapshotFile {
+
+  private static final int MAGIC = 0x53544b31; // STK1
+  private static final int NO_NAME = -1;
+  // count of stocks and count of name bytes
+  private static final int SEGMENT_HEADER = 8;
+  // id, price, last update and name length
+  private static final int ROW_BYTES = 4 + 8 + 8 + 4;
+
+  private final ByteBuffer buffer;
+  private final int[] segments;
+  private final int size;
+
+  private StockSnapshotFile(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    if (buffer.limit() < 8 || buffer.getInt(0) != MAGIC)
+      throw new IOException("Not a stock snapshot");
+    this.segments = new int[buffer.getInt(4)];
+    long offset = 8;
+    int size = 0;
+    for (int i = 0; i < segments.length; i++) {
+      if (offset + SEGMENT_HEADER > buffer.limit())
+        throw new IOException("Truncated stock snapshot");
+      segments[i] = (int) offset;
+      int rows = buffer.getInt(segments[i]);
+      offset += SEGMENT_HEADER + (long) rows * ROW_BYTES + buffer.getInt(segments[i] + 4);
+      size += rows;
+    }
+    if (offset != buffer.limit())
+      throw new IOException("Truncated stock snapshot");
+    this.size = size;
+  }
+
+  /**
+   * Maps the snapshot in the given file.
+   */
+  public static StockSnapshotFile open(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE)
+        throw new IOException("Stock snapshot too large: " + file);
+      return new StockSnapshotFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Writes a snapshot of the given segments to the given file, replacing the previous one.
+   */
+  public static void write(Path file, List<byte[]> segments) throws IOException {
+    long size = 8;
+    for (byte[] segment : segments)
+      size += segment.length;
+    if (size > Integer.MAX_VALUE)
+      throw new IOException("Stock snapshot too large: " + size + " bytes");
+
+    final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temp,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      final MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      out.putInt(MAGIC).putInt(segments.size());
+      for (byte[] segment : segments)
+        out.put(segment);
+      out.force();
+    }
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * The segment of a snapshot holding every stock of the given store.
+   */
+  public static byte[] segment(CompactStockStore store) {
+    final int rows = store.size();
+    int nameBytes = 0;
+    for (int row = 0; row < rows; row++) {
+      byte[] name = store.nameBytesAt(row);
+      if (name != null)
+        nameBytes += name.length;
+    }
+
+    final ByteBuffer out = ByteBuffer.allocate(SEGMENT_HEADER + rows * ROW_BYTES + nameBytes);
+    out.putInt(rows).putInt(nameBytes);
+    for (int row = 0; row < rows; row++)
+      out.putInt(store.idAt(row));
+    for (int row = 0; row < rows; row++)
+      out.putDouble(store.priceAt(row));
+    for (int row = 0; row < rows; row++)
+      out.putLong(store.lastUpdateAt(row));
+    for (int row = 0; row < rows; row++) {
+      byte[] name = store.nameBytesAt(row);
+      out.putInt(name != null ? name.length : NO_NAME);
+    }
+    for (int row = 0; row < rows; row++) {
+      byte[] name = store.nameBytesAt(row);
+      if (name != null)
+        out.put(name);
+    }
+    return out.array();
+  }
+
+  /**
+   * The number of stocks in this snapshot.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Adds the stocks of this snapshot whose id is accepted to the given store, except those
+   * already in it. Safe to call from many threads at once.
+   *
+   * @return the number of stocks added
+   */
+  public int loadInto(CompactStockStore store, IntPredicate accept) {
+    final ByteBuffer names = buffer.duplicate();
+    int loaded = 0;
+    for (int segment : segments) {
+      final int rows = buffer.getInt(segment);
+      final int ids = segment + SEGMENT_HEADER;
+      final int prices = ids + rows * 4;
+      final int lastUpdates = prices + rows * 8;
+      final int lengths = lastUpdates + rows * 8;
+      names.position(lengths + rows * 4);
+      for (int row = 0; row < rows; row++) {
+        int id = buffer.getInt(ids + row * 4);
+        int length = buffer.getInt(lengths + row * 4);
+        if (!accept.test(id)) {
+          if (length != NO_NAME)
+            names.position(names.position() + length);
+          continue;
+        }
+        byte[] name = null;
+        if (length != NO_NAME) {
+          name = new byte[length];
+          names.get(name);
+        }
+        if (store.putIfAbsent(id, name, buffer.getDouble(prices + row * 8), buffer.getLong(lastUpdates + row * 8)))
+          loaded++;
+      }
+    }
+    return loaded;
+  }
+}
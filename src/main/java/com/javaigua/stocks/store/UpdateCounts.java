@@ -0,0 +1,52 @@
+package com.javaigua.stocks.store;
+
+import java.util.Arrays;
+
+/**
+ * Counts of the updates of the last minute, by the second of their time.
+ *
+ * Counts are kept in a ring of a bucket per second, stamped with its epoch second, so
+ * recording an update and counting the updates of the last minute cost a constant time
+ * and space however many updates there are. A bucket is reused once its second is more
+ * than a minute old; updates older than the second of their bucket are not counted.
+ *
+ * This class is not thread safe, it is meant to be owned by a single actor.
+ */
+public class UpdateCounts {
+
+  private static final int SECONDS = 60;
+
+  private final long[] seconds = new long[SECONDS];
+  private final int[] counts = new int[SECONDS];
+
+  public UpdateCounts() {
+    Arrays.fill(seconds, Long.MIN_VALUE);
+  }
+
+  /**
+   * Counts an update of the given epoch millis.
+   */
+  public void record(long epochMillis) {
+    final long second = Math.floorDiv(epochMillis, 1000);
+    final int bucket = (int) Math.floorMod(second, (long) SECONDS);
+    if (second < seconds[bucket])
+      return;
+    if (second > seconds[bucket]) {
+      seconds[bucket] = second;
+      counts[bucket] = 0;
+    }
+    counts[bucket]++;
+  }
+
+  /**
+   * The updates of the minute up to the given epoch millis, that second included.
+   */
+  public long lastMinute(long epochMillis) {
+    final long second = Math.floorDiv(epochMillis, 1000);
+    long updates = 0;
+    for (int bucket = 0; bucket < SECONDS; bucket++)
+      if (seconds[bucket] > second - SECONDS && seconds[bucket] <= second)
+        updates += counts[bucket];
+    return updates;
+  }
+}
@@ -1,6 +1,5 @@
 package com.javaigua.stocks.actors;
 
-import java.util.Optional;
 import java.time.Instant;
 
 import org.scalatest.junit.JUnitSuite;
@@ -16,6 +15,8 @@ import akka.actor.Props;
 import akka.actor.AbstractActor;
 import scala.concurrent.duration.Duration;
 
+import com.javaigua.stocks.Domain.Candles;
+import com.javaigua.stocks.Domain.PriceHistory;
 import com.javaigua.stocks.Domain.Stock;
 import com.javaigua.stocks.Domain.Stocks;
 
@@ -62,6 +63,35 @@ public class StockActorTest extends JUnitSuite {
     }};
   }
 
+  @Test
+  public void testHandleCreateExistingStock() {
+    new TestKit(system) {{
+      final Props props = Props.create(StockActor.class);
+      final ActorRef subject = system.actorOf(props);
+      
+      within(duration("2 seconds"), () -> {
+        subject.tell(
+          new StockRegistryMessages.CreateStock(
+            new Stock(1, "ABC", 2d, Instant.now())), 
+          getRef());
+        expectMsgClass(StockRegistryMessages.ActionPerformed.class);
+
+        subject.tell(
+          new StockRegistryMessages.CreateStock(
+            new Stock(1, "CBA", 3d, Instant.now())), 
+          getRef());
+        expectMsgPF(duration("1 seconds"), "Should not create stock twice", (msg) -> {
+          StockRegistryMessages.ActionPerformed action = (StockRegistryMessages.ActionPerformed) msg;
+          Assert.assertEquals(action.getDescription(), "Stock 1 already exists.");
+          return null;
+        });
+
+        expectNoMsg();
+        return null;
+      });
+    }};
+  }
+
   @Test
   public void testHandleGetStock() {
     new TestKit(system) {{
@@ -78,8 +108,28 @@ public class StockActorTest extends JUnitSuite {
 
         subject.tell(new StockRegistryMessages.GetStock(1), getRef());
         expectMsgPF(duration("1 seconds"), "Should retrieve stock", (msg) -> {
-          Optional<Stock> s = (Optional<Stock>) msg;
-          Assert.assertEquals(s.get(), stock);
+          StockRegistryMessages.StockInfo s = (StockRegistryMessages.StockInfo) msg;
+          Assert.assertEquals(s.getStock(), stock);
+          return null;
+        });
+
+        expectNoMsg();
+        return null;
+      });
+    }};
+  }
+
+  @Test
+  public void testHandleGetSeededStock() {
+    new TestKit(system) {{
+      final Stock stock = new Stock(8, "ABC", 2d, Instant.now());
+      final ActorRef subject = system.actorOf(StockActor.props(stock));
+
+      within(duration("2 seconds"), () -> {
+        subject.tell(new StockRegistryMessages.GetStock(8), getRef());
+        expectMsgPF(duration("1 seconds"), "Should retrieve the seeded stock", (msg) -> {
+          StockRegistryMessages.StockInfo s = (StockRegistryMessages.StockInfo) msg;
+          Assert.assertEquals(stock, s.getStock());
           return null;
         });
 
@@ -143,4 +193,89 @@ public class StockActorTest extends JUnitSuite {
       });
     }};
   }
+
+  @Test
+  public void testHandleGetPriceHistory() {
+    new TestKit(system) {{
+      final Props props = Props.create(StockActor.class);
+      final ActorRef subject = system.actorOf(props);
+      
+      within(duration("2 seconds"), () -> {
+        subject.tell(
+          new StockRegistryMessages.CreateStock(
+            new Stock(1, "ABC", 1d, Instant.ofEpochMilli(1000))), 
+          getRef());
+        expectMsgClass(StockRegistryMessages.ActionPerformed.class);
+
+        subject.tell(new StockRegistryMessages.PriceTick(1, 2d, 2000), getRef());
+        subject.tell(new StockRegistryMessages.PriceTick(1, 3d, 3000), getRef());
+        subject.tell(new StockRegistryMessages.GetPriceHistory(1, 1500, 3000), getRef());
+        expectMsgPF(duration("1 seconds"), "Should retrieve price history", (msg) -> {
+          PriceHistory history = ((StockRegistryMessages.PriceHistoryInfo) msg).getHistory();
+          Assert.assertArrayEquals(new long[] {2000, 3000}, history.getTimestamps());
+          Assert.assertArrayEquals(new double[] {2d, 3d}, history.getPrices(), 0d);
+          return null;
+        });
+
+        expectNoMsg();
+        return null;
+      });
+    }};
+  }
+
+  @Test
+  public void testHandleGetCandles() {
+    new TestKit(system) {{
+      final Props props = Props.create(StockActor.class);
+      final ActorRef subject = system.actorOf(props);
+      
+      within(duration("2 seconds"), () -> {
+        subject.tell(
+          new StockRegistryMessages.CreateStock(
+            new Stock(1, "ABC", 2d, Instant.ofEpochMilli(60000))), 
+          getRef());
+        expectMsgClass(StockRegistryMessages.ActionPerformed.class);
+
+        subject.tell(new StockRegistryMessages.PriceTick(1, 4d, 61000), getRef());
+        subject.tell(new StockRegistryMessages.PriceTick(1, 1d, 62000), getRef());
+        subject.tell(new StockRegistryMessages.PriceTick(1, 3d, 120000), getRef());
+        subject.tell(new StockRegistryMessages.GetCandles(1, 60000, 10), getRef());
+        expectMsgPF(duration("1 seconds"), "Should retrieve candles", (msg) -> {
+          Candles candles = ((StockRegistryMessages.CandlesInfo) msg).getCandles();
+          Assert.assertArrayEquals(new long[] {60000, 120000}, candles.getStarts());
+          Assert.assertArrayEquals(new double[] {2d, 3d}, candles.getOpens(), 0d);
+          Assert.assertArrayEquals(new double[] {4d, 3d}, candles.getHighs(), 0d);
+          Assert.assertArrayEquals(new double[] {1d, 3d}, candles.getLows(), 0d);
+          Assert.assertArrayEquals(new double[] {1d, 3d}, candles.getCloses(), 0d);
+          Assert.assertArrayEquals(new int[] {3, 1}, candles.getTicks());
+          return null;
+        });
+
+        expectNoMsg();
+        return null;
+      });
+    }};
+  }
+
+  @Test
+  public void testPublishToStockView() {
+    new TestKit(system) {{
+      final Props props = Props.create(StockActor.class);
+      final ActorRef subject = system.actorOf(props);
+      
+      final Stock stock = new Stock(7, "ABC", 2d, Instant.now());
+      within(duration("2 seconds"), () -> {
+        subject.tell(new StockRegistryMessages.CreateStock(stock), getRef());
+        expectMsgClass(StockRegistryMessages.ActionPerformed.class);
+        Assert.assertEquals(stock, StockView.get(system).get(7));
+
+        subject.tell(new StockRegistryMessages.DeleteStock(7), getRef());
+        expectMsgClass(StockRegistryMessages.ActionPerformed.class);
+        Assert.assertNull(StockView.get(system).get(7));
+
+        expectNoMsg();
+        return null;
+      });
+    }};
+  }
 }
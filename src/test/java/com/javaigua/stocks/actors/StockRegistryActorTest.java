@@ -1,7 +1,11 @@
 package com.javaigua.stocks.actors;
 
-import java.util.Optional;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.time.Instant;
+import java.util.stream.Collectors;
 
 import org.scalatest.junit.JUnitSuite;
 import akka.testkit.javadsl.TestKit;
@@ -14,10 +18,27 @@ import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.actor.Props;
 import akka.actor.AbstractActor;
+import akka.actor.Status;
+import akka.cluster.Cluster;
+import akka.cluster.sharding.ClusterSharding;
+import akka.cluster.sharding.ClusterShardingSettings;
+import akka.dispatch.Envelope;
+import akka.dispatch.MessageQueue;
+import scala.Option;
 import scala.concurrent.duration.Duration;
 
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import com.javaigua.stocks.Domain.Movers;
 import com.javaigua.stocks.Domain.Stock;
+import com.javaigua.stocks.Domain.StockStats;
 import com.javaigua.stocks.Domain.Stocks;
+import com.javaigua.stocks.metrics.InstrumentedMailbox;
+import com.javaigua.stocks.metrics.Overload;
+import com.javaigua.stocks.metrics.OverloadedException;
+import com.javaigua.stocks.store.CompactStockStore;
+import com.javaigua.stocks.store.StockSnapshotFile;
 
 /**
  * A test suit for the StockRegistryActor class.
@@ -40,7 +61,7 @@ public class StockRegistryActorTest extends JUnitSuite {
   @Test
   public void testHandleEmptyGetStocks() {
     new TestKit(system) {{
-      final Props props = Props.create(StockRegistryActor.class);
+      final Props props = StockRegistryActor.props();
       final ActorRef subject = system.actorOf(props);
       final TestKit probe = new TestKit(system);
       
@@ -57,7 +78,7 @@ public class StockRegistryActorTest extends JUnitSuite {
   @Test
   public void testHandleNonEmptyGetStocks() {
     new TestKit(system) {{
-      final Props props = Props.create(StockRegistryActor.class);
+      final Props props = StockRegistryActor.props();
       final ActorRef subject = system.actorOf(props);
       final TestKit probe = new TestKit(system);
       
@@ -84,7 +105,7 @@ public class StockRegistryActorTest extends JUnitSuite {
   @Test
   public void testHandleGetStock() {
     new TestKit(system) {{
-      final Props props = Props.create(StockRegistryActor.class);
+      final Props props = StockRegistryActor.props();
       final ActorRef subject = system.actorOf(props);
       final TestKit probe = new TestKit(system);
       
@@ -97,8 +118,35 @@ public class StockRegistryActorTest extends JUnitSuite {
 
         subject.tell(new StockRegistryMessages.GetStock(1), getRef());
         expectMsgPF(duration("1 seconds"), "Should retrieve stock", (msg) -> {
-          Optional<Stock> s = (Optional<Stock>) msg;
-          Assert.assertEquals(s.get(), stock);
+          StockRegistryMessages.StockInfo s = (StockRegistryMessages.StockInfo) msg;
+          Assert.assertEquals(s.getStock(), stock);
+          return null;
+        });
+
+        expectNoMsg();
+        return null;
+      });
+    }};
+  }
+
+  @Test
+  public void testHandleGetStocksByIds() {
+    new TestKit(system) {{
+      final Props props = StockRegistryActor.props();
+      final ActorRef subject = system.actorOf(props);
+      
+      final Stock stock = new Stock(1, "ABC", 2d, Instant.now());
+      within(duration("2 seconds"), () -> {
+        subject.tell(
+          new StockRegistryMessages.CreateStock(stock), 
+          getRef());
+        expectMsgClass(StockRegistryMessages.ActionPerformed.class);
+
+        subject.tell(new StockRegistryMessages.GetStocksByIds(Arrays.asList(1, 2)), getRef());
+        expectMsgPF(duration("1 seconds"), "Should retrieve stocks by ids", (msg) -> {
+          StockRegistryMessages.StocksByIds s = (StockRegistryMessages.StocksByIds) msg;
+          Assert.assertEquals(s.getStocks(), Arrays.asList(stock));
+          Assert.assertEquals(s.getMissingIds(), Arrays.asList(2));
           return null;
         });
 
@@ -111,7 +159,7 @@ public class StockRegistryActorTest extends JUnitSuite {
   @Test
   public void testHandleCreateStock() {
     new TestKit(system) {{
-      final Props props = Props.create(StockRegistryActor.class);
+      final Props props = StockRegistryActor.props();
       final ActorRef subject = system.actorOf(props);
       final TestKit probe = new TestKit(system);
       
@@ -133,10 +181,46 @@ public class StockRegistryActorTest extends JUnitSuite {
     }};
   }
 
+  @Test
+  public void testHandleCreateStocks() {
+    new TestKit(system) {{
+      final Props props = StockRegistryActor.props();
+      final ActorRef subject = system.actorOf(props);
+      
+      within(duration("3 seconds"), () -> {
+        subject.tell(
+          new StockRegistryMessages.CreateStocks(Arrays.asList(
+            new Stock(1, "ABC", 2d, Instant.now()),
+            new Stock(2, "DEF", 3d, Instant.now()),
+            new Stock(1, "GHI", 4d, Instant.now()))), 
+          getRef());
+        
+        expectMsgPF(duration("2 seconds"), "Should create batch of stocks", (msg) -> {
+          StockRegistryMessages.ActionsPerformed actions = (StockRegistryMessages.ActionsPerformed) msg;
+          Assert.assertEquals(actions.getActions().size(), 3);
+          Assert.assertEquals(actions.getActions().get(0).getDescription(), "Stock 1 created.");
+          Assert.assertEquals(actions.getActions().get(1).getDescription(), "Stock 2 created.");
+          Assert.assertEquals(actions.getActions().get(2).getDescription(), "Stock 1 already exists.");
+          return null;
+        });
+
+        subject.tell(new StockRegistryMessages.GetStocks(), getRef());
+        expectMsgPF(duration("1 seconds"), "Should retrieve batch of stocks", (msg) -> {
+          Stocks stocks = (Stocks) msg;
+          Assert.assertEquals(stocks.getStocks().size(), 2);
+          return null;
+        });
+
+        expectNoMsg();
+        return null;
+      });
+    }};
+  }
+
   @Test
   public void testHandleUpdateStock() {
     new TestKit(system) {{
-      final Props props = Props.create(StockRegistryActor.class);
+      final Props props = StockRegistryActor.props();
       final ActorRef subject = system.actorOf(props);
       final TestKit probe = new TestKit(system);
       
@@ -161,10 +245,494 @@ public class StockRegistryActorTest extends JUnitSuite {
     }};
   }
 
+  @Test
+  public void testHandlePassivatedStock() {
+    new TestKit(system) {{
+      final Props props = StockRegistryActor.partitionProps(0, 1);
+      final ActorRef subject = system.actorOf(props);
+      
+      within(duration("3 seconds"), () -> {
+        subject.tell(
+          new StockRegistryMessages.CreateStock(new Stock(1, "ABC", 2d, Instant.now())), 
+          getRef());
+        expectMsgClass(StockRegistryMessages.ActionPerformed.class);
+
+        // as if the stock actor went idle, then the stock is updated while it stops
+        final ActorRef stockActor = system.actorSelection(subject.path().child("1"))
+          .resolveOneCS(duration("1 second")).toCompletableFuture().join();
+        watch(stockActor);
+        subject.tell(new StockRegistryMessages.Passivate(), stockActor);
+        subject.tell(new StockRegistryMessages.UpdateStock(new Stock(1, null, 3d, Instant.now())), getRef());
+        expectTerminated(stockActor);
+        expectMsgPF(duration("1 seconds"), "Should update rehydrated stock", (msg) -> {
+          StockRegistryMessages.ActionPerformed action = (StockRegistryMessages.ActionPerformed) msg;
+          Assert.assertEquals(action.getDescription(), "Stock 1 updated.");
+          return null;
+        });
+
+        subject.tell(new StockRegistryMessages.GetStock(1), getRef());
+        expectMsgPF(duration("1 seconds"), "Should keep the name of the rehydrated stock", (msg) -> {
+          Stock stock = ((StockRegistryMessages.StockInfo) msg).getStock();
+          Assert.assertEquals("ABC", stock.getName());
+          Assert.assertEquals(3d, stock.getCurrentPrice(), 0d);
+          return null;
+        });
+
+        expectNoMsg();
+        return null;
+      });
+    }};
+  }
+
+  @Test
+  public void testExtractStockEntities() {
+    final StockMessageExtractor extractor = new StockMessageExtractor(10);
+    Assert.assertEquals("1", extractor.entityId(
+      new StockRegistryMessages.CreateStock(new Stock(1, "ABC", 2d, Instant.now()))));
+    Assert.assertEquals("2", extractor.entityId(
+      new StockRegistryMessages.UpdateStock(new Stock(2, null, 3d, null))));
+    Assert.assertEquals("3", extractor.entityId(new StockRegistryMessages.GetStock(3)));
+    Assert.assertEquals("4", extractor.entityId(new StockRegistryMessages.GetPriceHistory(4, 0, 1000)));
+    Assert.assertEquals("5", extractor.entityId(new StockRegistryMessages.GetCandles(5, 60000, 10)));
+    Assert.assertEquals("6", extractor.entityId(new StockRegistryMessages.DeleteStock(6)));
+    Assert.assertEquals("7", extractor.entityId(new StockRegistryMessages.PriceTick(7, 2d, 1000)));
+    Assert.assertNull(extractor.entityId(new StockRegistryMessages.GetStocks()));
+
+    // every msg of a stock goes to the same shard, one of the given number
+    final String shardId = extractor.shardId(new StockRegistryMessages.GetStock(42));
+    Assert.assertEquals(shardId, extractor.shardId(new StockRegistryMessages.DeleteStock(42)));
+    Assert.assertEquals(shardId, extractor.shardId(new StockRegistryMessages.PriceTick(42, 2d, 1000)));
+    Assert.assertTrue(Integer.parseInt(shardId) >= 0 && Integer.parseInt(shardId) < 10);
+  }
+
+  @Test
+  public void testHandleShardedStocks() {
+    // a cluster of a single node, on a free port
+    final ActorSystem clustered = ActorSystem.create("ShardedStocks", ConfigFactory.parseString(
+      "akka.actor.provider = cluster\n" +
+      "akka.remote.netty.tcp.port = 0\n" +
+      "akka.cluster.seed-nodes = []").withFallback(ConfigFactory.load()));
+    Cluster.get(clustered).join(Cluster.get(clustered).selfAddress());
+    final ActorRef stockRegion = ClusterSharding.get(clustered).start(
+      "Stock", StockActor.entityProps(), ClusterShardingSettings.create(clustered), new StockMessageExtractor(10));
+
+    new TestKit(clustered) {{
+      final ActorRef subject = clustered.actorOf(StockRegistryActor.props(stockRegion));
+      final Stock stock = new Stock(1, "ABC", 2d, Instant.now());
+
+      within(duration("10 seconds"), () -> {
+        subject.tell(new StockRegistryMessages.CreateStock(stock), getRef());
+        expectMsgPF(duration("10 seconds"), "Should create stock entity", (msg) -> {
+          StockRegistryMessages.ActionPerformed action = (StockRegistryMessages.ActionPerformed) msg;
+          Assert.assertEquals(action.getDescription(), "Stock 1 created.");
+          return null;
+        });
+
+        subject.tell(new StockRegistryMessages.GetStock(1), getRef());
+        expectMsgPF(duration("1 seconds"), "Should retrieve stock entity", (msg) -> {
+          Assert.assertEquals(stock, ((StockRegistryMessages.StockInfo) msg).getStock());
+          return null;
+        });
+
+        // the read model learns of the stock from the event published by its entity
+        awaitAssert(() -> {
+          subject.tell(new StockRegistryMessages.GetStocks(), getRef());
+          Assert.assertEquals(1, expectMsgClass(Stocks.class).getStocks().size());
+          return null;
+        });
+
+        subject.tell(new StockRegistryMessages.DeleteStock(1), getRef());
+        expectMsgPF(duration("1 seconds"), "Should delete stock entity", (msg) -> {
+          StockRegistryMessages.ActionPerformed action = (StockRegistryMessages.ActionPerformed) msg;
+          Assert.assertEquals(action.getDescription(), "Stock 1 deleted.");
+          return null;
+        });
+
+        // answered by the next incarnation of the passivated entity
+        subject.tell(new StockRegistryMessages.GetStock(1), getRef());
+        expectMsgPF(duration("1 seconds"), "Should not find deleted stock entity", (msg) -> {
+          Assert.assertNull(((StockRegistryMessages.StockInfo) msg).getStock());
+          return null;
+        });
+        return null;
+      });
+    }};
+    TestKit.shutdownActorSystem(clustered);
+  }
+
+  @Test
+  public void testHandlePartitionedStocks() {
+    new TestKit(system) {{
+      final ActorRef subject = system.actorOf(StockRegistryActor.props(4));
+      
+      within(duration("3 seconds"), () -> {
+        subject.tell(new StockRegistryMessages.CreateStocks(Arrays.asList(
+          new Stock(1, "ABC", 2d, Instant.now()),
+          new Stock(2, "DEF", 3d, Instant.now()),
+          new Stock(3, "GHI", 4d, Instant.now()),
+          new Stock(1, "ABC", 2d, Instant.now()))), getRef());
+        expectMsgPF(duration("2 seconds"), "Should merge batch results in batch order", (msg) -> {
+          StockRegistryMessages.ActionsPerformed actions = (StockRegistryMessages.ActionsPerformed) msg;
+          Assert.assertEquals("Stock 1 created.", actions.getActions().get(0).getDescription());
+          Assert.assertEquals("Stock 2 created.", actions.getActions().get(1).getDescription());
+          Assert.assertEquals("Stock 3 created.", actions.getActions().get(2).getDescription());
+          Assert.assertEquals("Stock 1 already exists.", actions.getActions().get(3).getDescription());
+          return null;
+        });
+
+        subject.tell(new StockRegistryMessages.GetStocks(), getRef());
+        expectMsgPF(duration("1 seconds"), "Should merge the stocks of every partition", (msg) -> {
+          Assert.assertEquals(3, ((Stocks) msg).getStocks().size());
+          return null;
+        });
+
+        subject.tell(new StockRegistryMessages.GetStocksByIds(Arrays.asList(3, 4, 1)), getRef());
+        expectMsgPF(duration("1 seconds"), "Should retrieve stocks in the order asked", (msg) -> {
+          StockRegistryMessages.StocksByIds stocks = (StockRegistryMessages.StocksByIds) msg;
+          Assert.assertEquals(Integer.valueOf(3), stocks.getStocks().get(0).getId());
+          Assert.assertEquals(Integer.valueOf(1), stocks.getStocks().get(1).getId());
+          Assert.assertEquals(Arrays.asList(4), stocks.getMissingIds());
+          return null;
+        });
+
+        expectNoMsg();
+        return null;
+      });
+    }};
+  }
+
+  @Test
+  public void testHandleGetStocksPage() {
+    new TestKit(system) {{
+      final ActorRef subject = system.actorOf(StockRegistryActor.props(4));
+      
+      within(duration("3 seconds"), () -> {
+        subject.tell(new StockRegistryMessages.CreateStocks(Arrays.asList(
+          new Stock(1, "ABC", 5d, Instant.now()),
+          new Stock(2, "DEF", 4d, Instant.now()),
+          new Stock(3, "GHI", 3d, Instant.now()),
+          new Stock(4, "JKL", 2d, Instant.now()),
+          new Stock(5, "MNO", null, Instant.now()))), getRef());
+        expectMsgClass(StockRegistryMessages.ActionsPerformed.class);
+
+        subject.tell(new StockRegistryMessages.GetStocksPage(CompactStockStore.Order.ID, 2L, 2,
+          Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Long.MIN_VALUE, Long.MAX_VALUE, 2), getRef());
+        expectMsgPF(duration("1 seconds"), "Should retrieve the page after the cursor", (msg) -> {
+          Assert.assertEquals(Arrays.asList(3, 4),
+            ((Stocks) msg).getStocks().stream().map(Stock::getId).collect(Collectors.toList()));
+          return null;
+        });
+
+        subject.tell(new StockRegistryMessages.GetStocksPage(CompactStockStore.Order.PRICE, Long.MIN_VALUE, Integer.MIN_VALUE,
+          3d, Double.POSITIVE_INFINITY, Long.MIN_VALUE, Long.MAX_VALUE, 10), getRef());
+        expectMsgPF(duration("1 seconds"), "Should merge the pages of every partition in price order", (msg) -> {
+          Assert.assertEquals(Arrays.asList(3, 2, 1),
+            ((Stocks) msg).getStocks().stream().map(Stock::getId).collect(Collectors.toList()));
+          return null;
+        });
+
+        expectNoMsg();
+        return null;
+      });
+    }};
+  }
+
+  @Test
+  public void testHandleSearchStocks() {
+    new TestKit(system) {{
+      final ActorRef subject = system.actorOf(StockRegistryActor.props(2, "columnar"));
+
+      within(duration("3 seconds"), () -> {
+        subject.tell(new StockRegistryMessages.CreateStocks(Arrays.asList(
+          new Stock(1, "Acme", 5d, Instant.now()),
+          new Stock(2, "Bacme Corp", 4d, Instant.now()),
+          new Stock(3, "ACME Labs", 3d, Instant.now()),
+          new Stock(4, "Other", 2d, Instant.now()))), getRef());
+        expectMsgClass(StockRegistryMessages.ActionsPerformed.class);
+
+        subject.tell(new StockRegistryMessages.SearchStocks("acm", 10), getRef());
+        expectMsgPF(duration("1 seconds"), "Should find prefixes first, then substrings", (msg) -> {
+          Assert.assertEquals(Arrays.asList(1, 3, 2),
+            ((Stocks) msg).getStocks().stream().map(Stock::getId).collect(Collectors.toList()));
+          return null;
+        });
+
+        subject.tell(new StockRegistryMessages.UpdateStock(new Stock(4, "Acme Ltd", null, null)), getRef());
+        expectMsgClass(StockRegistryMessages.ActionPerformed.class);
+
+        subject.tell(new StockRegistryMessages.SearchStocks("acme l", 1), getRef());
+        expectMsgPF(duration("1 seconds"), "Should find renamed stocks, up to the limit", (msg) -> {
+          Assert.assertEquals(Arrays.asList(3),
+            ((Stocks) msg).getStocks().stream().map(Stock::getId).collect(Collectors.toList()));
+          return null;
+        });
+
+        expectNoMsg();
+        return null;
+      });
+    }};
+  }
+
+  @Test
+  public void testHandleGetMoversAndStats() {
+    new TestKit(system) {{
+      final ActorRef subject = system.actorOf(StockRegistryActor.props(2, "columnar"));
+
+      within(duration("3 seconds"), () -> {
+        subject.tell(new StockRegistryMessages.CreateStocks(Arrays.asList(
+          new Stock(1, "ABC", 5d, Instant.now()),
+          new Stock(2, "DEF", 4d, Instant.now()),
+          new Stock(3, "GHI", 3d, Instant.now()),
+          new Stock(4, "JKL", 2d, Instant.now()))), getRef());
+        expectMsgClass(StockRegistryMessages.ActionsPerformed.class);
+
+        subject.tell(new StockRegistryMessages.UpdateStock(new Stock(2, null, 2d, null)), getRef());
+        expectMsgClass(StockRegistryMessages.ActionPerformed.class);
+        subject.tell(new StockRegistryMessages.UpdateStock(new Stock(3, null, 4.5d, null)), getRef());
+        expectMsgClass(StockRegistryMessages.ActionPerformed.class);
+        subject.tell(new StockRegistryMessages.PriceTicks(Arrays.asList(
+          // dated an hour ahead by its client, still counted as of its arrival
+          new StockRegistryMessages.PriceTick(1, 5d, System.currentTimeMillis() + 3600000))), getRef());
+        expectMsgClass(StockRegistryMessages.TicksAccepted.class);
+
+        subject.tell(new StockRegistryMessages.GetMovers(CompactStockStore.Move.CHANGE, 2), getRef());
+        expectMsgPF(duration("1 seconds"), "Should merge the first movers of every partition", (msg) -> {
+          Assert.assertEquals(Arrays.asList(2, 3),
+            ((Movers) msg).getStocks().stream().map(Stock::getId).collect(Collectors.toList()));
+          Assert.assertEquals(Arrays.asList(-50d, 50d), ((Movers) msg).getChanges());
+          return null;
+        });
+
+        subject.tell(new StockRegistryMessages.GetStockStats(), getRef());
+        expectMsgPF(duration("1 seconds"), "Should sum up the statistics of every partition", (msg) -> {
+          StockStats stats = (StockStats) msg;
+          Assert.assertEquals(4, stats.getCount());
+          Assert.assertEquals(2d, stats.getMinPrice(), 0d);
+          Assert.assertEquals(5d, stats.getMaxPrice(), 0d);
+          Assert.assertEquals(3.375d, stats.getAveragePrice(), 1e-9);
+          // creates are not updates, the two updates and the tick are
+          Assert.assertEquals(3, stats.getUpdatesLastMinute());
+          return null;
+        });
+
+        expectNoMsg();
+        return null;
+      });
+    }};
+  }
+
+  @Test
+  public void testHandleColumnarStocks() {
+    new TestKit(system) {{
+      final ActorRef subject = system.actorOf(StockRegistryActor.props(2, "columnar"));
+      
+      within(duration("3 seconds"), () -> {
+        subject.tell(new StockRegistryMessages.CreateStocks(Arrays.asList(
+          new Stock(1, "ABC", 2d, Instant.now()),
+          new Stock(2, "DEF", 3d, Instant.now()),
+          new Stock(1, "ABC", 2d, Instant.now()))), getRef());
+        expectMsgPF(duration("1 seconds"), "Should create stocks without stock actors", (msg) -> {
+          StockRegistryMessages.ActionsPerformed actions = (StockRegistryMessages.ActionsPerformed) msg;
+          Assert.assertEquals("Stock 1 created.", actions.getActions().get(0).getDescription());
+          Assert.assertEquals("Stock 2 created.", actions.getActions().get(1).getDescription());
+          Assert.assertEquals("Stock 1 already exists.", actions.getActions().get(2).getDescription());
+          return null;
+        });
+
+        subject.tell(new StockRegistryMessages.UpdateStock(new Stock(2, null, 5d, null)), getRef());
+        expectMsgClass(StockRegistryMessages.ActionPerformed.class);
+        subject.tell(new StockRegistryMessages.GetStock(2), getRef());
+        expectMsgPF(duration("1 seconds"), "Should merge updates into the stored stock", (msg) -> {
+          Stock stock = ((StockRegistryMessages.StockInfo) msg).getStock();
+          Assert.assertEquals("DEF", stock.getName());
+          Assert.assertEquals(5d, stock.getCurrentPrice(), 0d);
+          return null;
+        });
+
+        subject.tell(new StockRegistryMessages.DeleteStock(1), getRef());
+        expectMsgClass(StockRegistryMessages.ActionPerformed.class);
+        subject.tell(new StockRegistryMessages.GetStocks(), getRef());
+        expectMsgPF(duration("1 seconds"), "Should list the remaining stocks", (msg) -> {
+          Assert.assertEquals(1, ((Stocks) msg).getStocks().size());
+          return null;
+        });
+
+        expectNoMsg();
+        return null;
+      });
+    }};
+  }
+
+  @Test
+  public void testLoadSnapshot() throws Exception {
+    final CompactStockStore store = new CompactStockStore();
+    store.put(new Stock(1, "ABC", 2d, Instant.now()));
+    store.put(new Stock(2, null, null, null));
+    final Path file = Files.createTempFile("stocks", ".snapshot");
+    StockSnapshotFile.write(file, Arrays.asList(StockSnapshotFile.segment(store)));
+
+    new TestKit(system) {{
+      final ActorRef subject = system.actorOf(StockRegistryActor.props(4));
+      
+      within(duration("3 seconds"), () -> {
+        subject.tell(new StockRegistryMessages.CreateStock(new Stock(2, "DEF", 3d, Instant.now())), getRef());
+        expectMsgClass(StockRegistryMessages.ActionPerformed.class);
+
+        try {
+          subject.tell(new StockRegistryMessages.LoadSnapshot(StockSnapshotFile.open(file)), getRef());
+        } catch (IOException e) {
+          throw new AssertionError(e);
+        }
+        expectMsgPF(duration("1 seconds"), "Should load the stocks missing from the registry", (msg) -> {
+          Assert.assertEquals(1, ((StockRegistryMessages.SnapshotLoaded) msg).getLoaded());
+          return null;
+        });
+
+        subject.tell(new StockRegistryMessages.GetStocksByIds(Arrays.asList(1, 2)), getRef());
+        expectMsgPF(duration("1 seconds"), "Should retrieve loaded and existing stocks", (msg) -> {
+          StockRegistryMessages.StocksByIds stocks = (StockRegistryMessages.StocksByIds) msg;
+          Assert.assertEquals("ABC", stocks.getStocks().get(0).getName());
+          Assert.assertEquals("DEF", stocks.getStocks().get(1).getName());
+          return null;
+        });
+
+        expectNoMsg();
+        return null;
+      });
+    }};
+    Files.delete(file);
+  }
+
+  @Test
+  public void testShedRequestsOfAFullMailbox() {
+    new TestKit(system) {{
+      final Config config = ConfigFactory.parseString(
+        "capacity = 4, admission-control = on, requests {" +
+        "  high = [\"com.javaigua.stocks.actors.StockRegistryMessages$GetStock\"]," +
+        "  low = [\"com.javaigua.stocks.actors.StockRegistryMessages$CreateStocks\"] }");
+      final MessageQueue queue = new InstrumentedMailbox(system.settings(), config)
+        .create(Option.empty(), Option.apply(system));
+      final Object bulk = new StockRegistryMessages.CreateStocks(Arrays.asList(new Stock(1, "ABC", 2d, Instant.now())));
+      final Object internal = new StockRegistryMessages.Passivate();
+      final Object read = new StockRegistryMessages.GetStock(1);
+      final Object delete = new StockRegistryMessages.DeleteStock(1);
+      
+      queue.enqueue(getRef(), Envelope.apply(bulk, getRef(), system));
+      queue.enqueue(getRef(), Envelope.apply(internal, getRef(), system));
+      queue.enqueue(getRef(), Envelope.apply(read, getRef(), system));
+      queue.enqueue(getRef(), Envelope.apply(bulk, getRef(), system));
+      expectMsgPF(duration("1 seconds"), "Should shed bulk writes to a half full mailbox", (msg) -> {
+        Assert.assertTrue(((Status.Failure) msg).cause() instanceof OverloadedException);
+        return null;
+      });
+      Assert.assertFalse(Overload.get(system).isOverloaded());
+      
+      queue.enqueue(getRef(), Envelope.apply(delete, getRef(), system));
+      Assert.assertTrue(Overload.get(system).isOverloaded());
+      queue.enqueue(getRef(), Envelope.apply(new StockRegistryMessages.GetStock(2), getRef(), system));
+      expectMsgPF(duration("1 seconds"), "Should shed reads to a full mailbox", (msg) -> {
+        Assert.assertTrue(((Status.Failure) msg).cause() instanceof OverloadedException);
+        return null;
+      });
+      queue.enqueue(getRef(), Envelope.apply(internal, getRef(), system));
+      Assert.assertEquals(5, queue.numberOfMessages());
+      
+      Assert.assertSame(bulk, queue.dequeue().message());
+      Assert.assertSame(internal, queue.dequeue().message());
+      Assert.assertFalse(Overload.get(system).isOverloaded());
+      Assert.assertSame(read, queue.dequeue().message());
+      Assert.assertSame(delete, queue.dequeue().message());
+      Assert.assertSame(internal, queue.dequeue().message());
+      Assert.assertNull(queue.dequeue());
+    }};
+  }
+
+  // a stock actor whose mailbox sheds every msg sent to it
+  public static class SheddingStockActor extends AbstractActor {
+    @Override
+    public Receive createReceive() {
+      return receiveBuilder()
+        .matchAny(msg -> getSender().tell(new Status.Failure(new OverloadedException(
+          String.format("Mailbox of %s is full", getSelf().path().name()))), getSelf()))
+        .build();
+    }
+  }
+
+  @Test
+  public void testReportShedStocksOfABatchRightAway() {
+    new TestKit(system) {{
+      final Stock stock = new Stock(7, "GHI", 2d, Instant.now());
+      final ActorRef stockActor = system.actorOf(Props.create(SheddingStockActor.class), "7");
+      final ActorRef collector = system.actorOf(StockBatchActor.props(Arrays.asList(stock),
+        new StockRegistryMessages.ActionPerformed[1], getRef(), 60000));
+
+      stockActor.tell(new StockRegistryMessages.CreateStock(stock), collector);
+      expectMsgPF(duration("1 seconds"), "Should report a shed stock as rejected", (msg) -> {
+        StockRegistryMessages.ActionsPerformed performed = (StockRegistryMessages.ActionsPerformed) msg;
+        Assert.assertEquals(performed.getActions().get(0).getDescription(),
+          "Stock 7 rejected: Mailbox of 7 is full");
+        return null;
+      });
+    }};
+  }
+
+  @Test
+  public void testCountShedAndTimedOutTicksAsRejected() {
+    new TestKit(system) {{
+      final ActorRef collector = system.actorOf(StockTicksActor.props(4, 1, getRef(), 500));
+      collector.tell(new StockRegistryMessages.TicksAccepted(1, 0), getRef());
+      collector.tell(new Status.Failure(new RuntimeException("Mailbox of 7 is full")), getRef());
+      expectMsgPF(duration("1 seconds"), "Should acknowledge the ticks once timed out", (msg) -> {
+        StockRegistryMessages.TicksAccepted accepted = (StockRegistryMessages.TicksAccepted) msg;
+        Assert.assertEquals(accepted.getAccepted(), 1);
+        Assert.assertEquals(accepted.getUnknown(), 1);
+        Assert.assertEquals(accepted.getRejected(), 2);
+        return null;
+      });
+    }};
+  }
+
+  @Test
+  public void testHandlePriceTicks() {
+    new TestKit(system) {{
+      final Props props = StockRegistryActor.props();
+      final ActorRef subject = system.actorOf(props);
+      
+      within(duration("3 seconds"), () -> {
+        subject.tell(
+          new StockRegistryMessages.CreateStock(
+            new Stock(1, "ABC", 2d, Instant.now())), 
+          getRef());
+        expectMsgClass(StockRegistryMessages.ActionPerformed.class);
+
+        subject.tell(new StockRegistryMessages.PriceTicks(Arrays.asList(
+          new StockRegistryMessages.PriceTick(1, 3d, 1000L),
+          new StockRegistryMessages.PriceTick(2, 4d, 1000L))), getRef());
+        expectMsgPF(duration("1 seconds"), "Should accept ticks of known stocks", (msg) -> {
+          StockRegistryMessages.TicksAccepted accepted = (StockRegistryMessages.TicksAccepted) msg;
+          Assert.assertEquals(accepted.getAccepted(), 1);
+          Assert.assertEquals(accepted.getUnknown(), 1);
+          Assert.assertEquals(accepted.getRejected(), 0);
+          return null;
+        });
+
+        subject.tell(new StockRegistryMessages.GetStock(1), getRef());
+        expectMsgPF(duration("1 seconds"), "Should retrieve ticked stock", (msg) -> {
+          StockRegistryMessages.StockInfo s = (StockRegistryMessages.StockInfo) msg;
+          Assert.assertEquals(s.getStock().getCurrentPrice(), 3d, 0d);
+          return null;
+        });
+
+        expectNoMsg();
+        return null;
+      });
+    }};
+  }
+
   @Test
   public void testHandleDeleteStock() {
     new TestKit(system) {{
-      final Props props = Props.create(StockRegistryActor.class);
+      final Props props = StockRegistryActor.props();
       final ActorRef subject = system.actorOf(props);
       final TestKit probe = new TestKit(system);
       
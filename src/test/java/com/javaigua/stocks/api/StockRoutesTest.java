@@ -1,20 +1,40 @@
 package com.javaigua.stocks.api;
 
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.http.javadsl.model.*;
 import akka.http.javadsl.testkit.JUnitRouteTest;
 import akka.http.javadsl.testkit.TestRoute;
+import akka.http.javadsl.testkit.WSProbe;
 import akka.http.javadsl.model.HttpRequest;
 import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.headers.Accept;
+import akka.http.javadsl.model.sse.ServerSentEvent;
+import akka.stream.javadsl.Sink;
+import akka.stream.testkit.TestSubscriber;
+import akka.stream.testkit.javadsl.TestSink;
+import akka.util.ByteString;
 
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 
+import com.javaigua.stocks.Domain.Stock;
 import com.javaigua.stocks.actors.StockRegistryActor;
+import com.javaigua.stocks.actors.StockRegistryMessages.PriceTick;
+import com.javaigua.stocks.actors.StockRegistryMessages.StockUpdated;
 
 /**
  * A test suit for the RESTful endpoints of this application.
@@ -25,7 +45,7 @@ public class StockRoutesTest extends JUnitRouteTest {
 
   @Before
   public void initClass() {
-    final Config config = ConfigFactory.load("reference");
+    final Config config = ConfigFactory.load();
     ActorSystem system = ActorSystem.create(config.getString("application.name"), config);
     ActorRef stockRegistryActor = system.actorOf(StockRegistryActor.props(), "stockRegistry");
     StocksServer server = new StocksServer(system, stockRegistryActor);
@@ -52,6 +72,138 @@ public class StockRoutesTest extends JUnitRouteTest {
       .assertMediaType("application/json");
   }
 
+  @Test
+  public void testHandleStreamedGET() {
+    appRoute.run(HttpRequest.POST("/stocks")
+      .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+          "{\"id\": 1, \"name\": \"ABC\", \"currentPrice\": 2}"))
+      .assertStatusCode(StatusCodes.CREATED);
+    
+    final String ndjson = appRoute.run(HttpRequest.GET("/stocks")
+      .addHeader(Accept.create(StockRoutes.APPLICATION_NDJSON.toRange())))
+      .assertStatusCode(StatusCodes.OK)
+      .assertMediaType(StockRoutes.APPLICATION_NDJSON)
+      .entityString();
+    Assert.assertTrue(ndjson.startsWith("{\"currentPrice\":2.0,\"id\":1,"));
+    Assert.assertTrue(ndjson.endsWith("}\n"));
+    
+    appRoute.run(HttpRequest.GET("/stocks")
+      .addHeader(Accept.create(StockRoutes.APPLICATION_STREAM_JSON.toRange())))
+      .assertStatusCode(StatusCodes.OK)
+      .assertMediaType(StockRoutes.APPLICATION_STREAM_JSON);
+  }
+
+  @Test
+  public void testHandleGETByIds() {
+    appRoute.run(HttpRequest.GET("/stocks?ids=1,2"))
+      .assertStatusCode(StatusCodes.OK)
+      .assertMediaType("application/json")
+      .assertEntity("{\"missingIds\":[1,2],\"stocks\":[]}");
+    
+    appRoute.run(HttpRequest.GET("/stocks?ids=1,a"))
+      .assertStatusCode(StatusCodes.BAD_REQUEST);
+
+    appRoute.run(HttpRequest.POST("/stocks/ids")
+      .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), "[1,2]"))
+      .assertStatusCode(StatusCodes.OK)
+      .assertEntity("{\"missingIds\":[1,2],\"stocks\":[]}");
+
+    appRoute.run(HttpRequest.POST("/stocks/ids")
+      .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), "[1,null]"))
+      .assertStatusCode(StatusCodes.BAD_REQUEST);
+
+    appRoute.run(HttpRequest.POST("/stocks/ids")
+      .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), "[1,2.5]"))
+      .assertStatusCode(StatusCodes.BAD_REQUEST);
+  }
+
+  @Test
+  public void testHandleGETPage() {
+    appRoute.run(HttpRequest.POST("/stocks/batch")
+      .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+          "[{\"id\": 1, \"name\": \"ABC\", \"currentPrice\": 4}, {\"id\": 2, \"name\": \"DEF\", \"currentPrice\": 3}, " +
+          "{\"id\": 3, \"name\": \"GHI\", \"currentPrice\": 2}]"))
+      .assertStatusCode(StatusCodes.OK);
+
+    String first = appRoute.run(HttpRequest.GET("/stocks?limit=2"))
+      .assertStatusCode(StatusCodes.OK)
+      .assertMediaType("application/json")
+      .entityString();
+    Assert.assertTrue(first, first.startsWith("{\"next\":\"2\",\"stocks\":[{\"currentPrice\":4.0,\"id\":1,"));
+
+    String last = appRoute.run(HttpRequest.GET("/stocks?limit=2&after=2"))
+      .assertStatusCode(StatusCodes.OK)
+      .entityString();
+    Assert.assertTrue(last, last.startsWith("{\"next\":null,\"stocks\":[{\"currentPrice\":2.0,\"id\":3,"));
+
+    String cheapest = appRoute.run(HttpRequest.GET("/stocks?maxPrice=3&limit=1"))
+      .assertStatusCode(StatusCodes.OK)
+      .entityString();
+    Assert.assertTrue(cheapest, cheapest.startsWith("{\"next\":\"2.0_3\",\"stocks\":[{\"currentPrice\":2.0,\"id\":3,"));
+
+    appRoute.run(HttpRequest.GET("/stocks?sort=name"))
+      .assertStatusCode(StatusCodes.BAD_REQUEST);
+  }
+
+  @Test
+  public void testHandleGETSearch() {
+    appRoute.run(HttpRequest.POST("/stocks/batch")
+      .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+          "[{\"id\": 31, \"name\": \"Zetas\", \"currentPrice\": 4}, {\"id\": 32, \"name\": \"Zeta Search\", \"currentPrice\": 3}]"))
+      .assertStatusCode(StatusCodes.OK);
+
+    String found = appRoute.run(HttpRequest.GET("/stocks/search?q=ZETA"))
+      .assertStatusCode(StatusCodes.OK)
+      .assertMediaType("application/json")
+      .entityString();
+    Assert.assertTrue(found, found.startsWith("{\"stocks\":[{\"currentPrice\":3.0,\"id\":32,"));
+    Assert.assertTrue(found, found.contains("\"id\":31,"));
+
+    appRoute.run(HttpRequest.GET("/stocks/search?q="))
+      .assertStatusCode(StatusCodes.BAD_REQUEST);
+  }
+
+  @Test
+  public void testHandleGETTopAndStats() {
+    appRoute.run(HttpRequest.POST("/stocks/batch")
+      .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+          "[{\"id\": 1, \"name\": \"ABC\", \"currentPrice\": 4}, {\"id\": 2, \"name\": \"DEF\", \"currentPrice\": 2}]"))
+      .assertStatusCode(StatusCodes.OK);
+    appRoute.run(HttpRequest.PUT("/stocks/batch")
+      .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+          "[{\"id\": 1, \"currentPrice\": 8}, {\"id\": 2, \"currentPrice\": 1}]"))
+      .assertStatusCode(StatusCodes.OK);
+
+    String gainers = appRoute.run(HttpRequest.GET("/stocks/top?by=gain&n=1"))
+      .assertStatusCode(StatusCodes.OK)
+      .assertMediaType("application/json")
+      .entityString();
+    Assert.assertTrue(gainers, gainers.startsWith("{\"by\":\"gain\",\"changes\":[100.0],\"stocks\":[{\"currentPrice\":8.0,\"id\":1,"));
+
+    String stats = appRoute.run(HttpRequest.GET("/stocks/stats"))
+      .assertStatusCode(StatusCodes.OK)
+      .assertMediaType("application/json")
+      .entityString();
+    Assert.assertTrue(stats, stats.startsWith("{\"averagePrice\":4.5,\"count\":2,\"maxPrice\":8.0,\"minPrice\":1.0,\"priced\":2,"));
+
+    appRoute.run(HttpRequest.GET("/stocks/top?by=volume"))
+      .assertStatusCode(StatusCodes.BAD_REQUEST);
+  }
+
+  @Test
+  public void testHandleGETMetrics() {
+    appRoute.run(HttpRequest.GET("/stocks"))
+      .assertStatusCode(StatusCodes.OK);
+
+    String metrics = appRoute.run(HttpRequest.GET("/metrics"))
+      .assertStatusCode(StatusCodes.OK)
+      .assertMediaType("text/plain")
+      .entityString();
+    Assert.assertTrue(metrics.contains(
+      "stocks_http_request_duration_seconds_count{route=\"getAllOrPostStocks\"} 1"));
+    Assert.assertTrue(metrics.contains("# TYPE stocks_mailbox_depth gauge"));
+  }
+
   @Test
   public void testHandlePOST() {
     appRoute.run(HttpRequest.POST("/stocks")
@@ -62,6 +214,29 @@ public class StockRoutesTest extends JUnitRouteTest {
       .assertEntity("{\"description\":\"Stock 1 created.\"}");
   }
 
+  @Test
+  public void testHandleBatchPOST() {
+    appRoute.run(HttpRequest.POST("/stocks/batch")
+      .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+          "[{\"id\": 1, \"name\": \"ABC\", \"currentPrice\": 2}, {\"id\": 2, \"name\": \"DEF\", \"currentPrice\": 3}]"))
+      .assertStatusCode(StatusCodes.OK)
+      .assertMediaType("application/json")
+      .assertEntity("{\"actions\":[{\"description\":\"Stock 1 created.\"},{\"description\":\"Stock 2 created.\"}]}");
+
+    appRoute.run(HttpRequest.POST("/stocks/batch")
+      .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+          "[{\"id\": 3, \"name\": \"GHI\"}, {\"id\": null, \"name\": \"JKL\"}]"))
+      .assertStatusCode(StatusCodes.BAD_REQUEST);
+
+    appRoute.run(HttpRequest.PUT("/stocks/batch")
+      .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), "[{\"name\": \"JKL\"}]"))
+      .assertStatusCode(StatusCodes.BAD_REQUEST);
+
+    appRoute.run(HttpRequest.POST("/stocks")
+      .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), "{\"name\": \"JKL\"}"))
+      .assertStatusCode(StatusCodes.BAD_REQUEST);
+  }
+
   @Test
   public void testHandleGET() {
     appRoute.run(HttpRequest.POST("/stocks")
@@ -74,6 +249,169 @@ public class StockRoutesTest extends JUnitRouteTest {
       .assertMediaType("application/json");
   }
 
+  @Test
+  public void testHandleStockJSON() {
+    appRoute.run(HttpRequest.POST("/stocks")
+      .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+          "{\"id\": 1, \"name\": \"A\\\"B\u00e9\", \"currentPrice\": 2.5}"))
+      .assertStatusCode(StatusCodes.CREATED);
+    
+    String stock = appRoute.run(HttpRequest.GET("/stocks/1"))
+      .assertStatusCode(StatusCodes.OK)
+      .entityString();
+    Assert.assertTrue(stock, stock.matches(
+      "\\{\"currentPrice\":2.5,\"id\":1,\"lastUpdate\":\\{\"epochSecond\":\\d+,\"nano\":\\d+},\"name\":\"A\\\\\"B\u00e9\"}"));
+    
+    appRoute.run(HttpRequest.POST("/stocks")
+      .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), "{\"id\": 2, \"price\": 2}"))
+      .assertStatusCode(StatusCodes.BAD_REQUEST);
+  }
+
+  @Test
+  public void testHandleGETHistory() {
+    appRoute.run(HttpRequest.POST("/stocks")
+      .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+          "{\"id\": 1, \"name\": \"ABC\", \"currentPrice\": 2}"))
+      .assertStatusCode(StatusCodes.CREATED);
+    
+    appRoute.run(HttpRequest.GET("/stocks/1/history?from=0"))
+      .assertStatusCode(StatusCodes.OK)
+      .assertMediaType("application/json");
+
+    appRoute.run(HttpRequest.GET("/stocks/1/history?to=yesterday"))
+      .assertStatusCode(StatusCodes.BAD_REQUEST);
+
+    appRoute.run(HttpRequest.GET("/stocks/2/history"))
+      .assertStatusCode(StatusCodes.NOT_FOUND);
+  }
+
+  @Test
+  public void testHandleGETCandles() {
+    appRoute.run(HttpRequest.POST("/stocks")
+      .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+          "{\"id\": 1, \"name\": \"ABC\", \"currentPrice\": 2}"))
+      .assertStatusCode(StatusCodes.CREATED);
+    
+    appRoute.run(HttpRequest.GET("/stocks/1/candles?interval=1m&limit=10"))
+      .assertStatusCode(StatusCodes.OK)
+      .assertMediaType("application/json");
+
+    appRoute.run(HttpRequest.GET("/stocks/1/candles?interval=7m"))
+      .assertStatusCode(StatusCodes.BAD_REQUEST);
+  }
+
+  @Test
+  public void testParsePriceTicks() {
+    final List<PriceTick> text = PriceTicksFlow.parseText("1,2.5,1000\n 2 , 3 \n\n");
+    Assert.assertEquals(2, text.size());
+    Assert.assertEquals(1, text.get(0).getId());
+    Assert.assertEquals(2.5d, text.get(0).getPrice(), 0d);
+    Assert.assertEquals(1000L, text.get(0).getTimestamp());
+    Assert.assertEquals(2, text.get(1).getId());
+    Assert.assertEquals(3d, text.get(1).getPrice(), 0d);
+    Assert.assertTrue(text.get(1).getTimestamp() > 0); // received now
+    
+    final ByteBuffer records = ByteBuffer.allocate(2 * PriceTicksFlow.RECORD_SIZE)
+      .putInt(1).putDouble(2.5d).putLong(1000L)
+      .putInt(2).putDouble(3d).putLong(2000L);
+    final List<PriceTick> binary = PriceTicksFlow.parseBinary(ByteString.fromArray(records.array()));
+    Assert.assertEquals(2, binary.size());
+    Assert.assertEquals(1, binary.get(0).getId());
+    Assert.assertEquals(2.5d, binary.get(0).getPrice(), 0d);
+    Assert.assertEquals(2000L, binary.get(1).getTimestamp());
+    
+    for (String malformed : new String[] {"1", "1,2,3,4", "a,2"}) {
+      try {
+        PriceTicksFlow.parseText(malformed);
+        Assert.fail("Should reject " + malformed);
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+    try {
+      PriceTicksFlow.parseBinary(ByteString.fromArray(new byte[PriceTicksFlow.RECORD_SIZE - 1]));
+      Assert.fail("Should reject a partial record");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testHandleWebSocketTicks() {
+    appRoute.run(HttpRequest.POST("/stocks")
+      .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+          "{\"id\": 1, \"name\": \"ABC\", \"currentPrice\": 2}"))
+      .assertStatusCode(StatusCodes.CREATED);
+    
+    final WSProbe probe = WSProbe.create(system(), materializer());
+    appRoute.run(WS(Uri.create("/ticks"), probe.flow(), materializer()))
+      .assertStatusCode(StatusCodes.SWITCHING_PROTOCOLS);
+    
+    probe.sendMessage("1,3,1000\n2,4,1000");
+    probe.expectMessage("{\"accepted\":1,\"unknown\":1,\"rejected\":0}");
+    
+    probe.sendMessage(ByteString.fromArray(ByteBuffer.allocate(PriceTicksFlow.RECORD_SIZE)
+      .putInt(1).putDouble(5d).putLong(2000L).array()));
+    probe.expectMessage("{\"accepted\":1,\"unknown\":0,\"rejected\":0}");
+    
+    probe.sendCompletion();
+    probe.expectCompletion();
+  }
+
+  @Test
+  public void testHandleGETEvents() throws Exception {
+    appRoute.run(HttpRequest.POST("/stocks")
+      .withEntity(MediaTypes.APPLICATION_JSON.toContentType(),
+          "{\"id\": 1, \"name\": \"ABC\", \"currentPrice\": 2}"))
+      .assertStatusCode(StatusCodes.CREATED);
+    
+    final HttpResponse events = appRoute.run(HttpRequest.GET("/stocks/1/events"))
+      .assertStatusCode(StatusCodes.OK)
+      .assertMediaType("text/event-stream")
+      .response();
+    final CompletableFuture<String> update = events.entity().getDataBytes()
+      .map(ByteString::utf8String)
+      .filter(event -> event.contains("event:update"))
+      .runWith(Sink.head(), materializer())
+      .toCompletableFuture();
+    
+    // the stock is updated until the events are subscribed to
+    for (int price = 3; !update.isDone() && price < 50; price++) {
+      appRoute.run(HttpRequest.PUT("/stocks/1")
+        .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), "{\"currentPrice\": " + price + "}"))
+        .assertStatusCode(StatusCodes.OK);
+      Thread.sleep(100);
+    }
+    final String event = update.get(1, TimeUnit.SECONDS);
+    Assert.assertTrue(event, event.contains("data:{") && event.contains("\"id\":1") && event.contains("\"name\":\"ABC\""));
+  }
+
+  @Test
+  public void testConflateStockEvents() {
+    final StockEventsHub hub = new StockEventsHub(system(), materializer(), ConfigFactory.load());
+    final TestSubscriber.Probe<ServerSentEvent> subscriber = hub.updates()
+      .runWith(TestSink.probe(system()), materializer());
+    final FiniteDuration wait = Duration.create(300, TimeUnit.MILLISECONDS);
+    
+    // the stock is updated until the hub is subscribed to
+    subscriber.request(1);
+    while (subscriber.receiveWithin(wait, 1).isEmpty())
+      system().eventStream().publish(new StockUpdated(new Stock(1, "ABC", 1d, Instant.now())));
+    
+    // updates a subscriber did not ask for yet are conflated, the latest one per stock
+    system().eventStream().publish(new StockUpdated(new Stock(1, "ABC", 2d, Instant.now())));
+    system().eventStream().publish(new StockUpdated(new Stock(2, "DEF", 4d, Instant.now())));
+    system().eventStream().publish(new StockUpdated(new Stock(1, "ABC", 3d, Instant.now())));
+    subscriber.expectNoMsg(wait);
+    
+    subscriber.request(2);
+    final String first = subscriber.expectNext().getData();
+    final String second = subscriber.expectNext().getData();
+    Assert.assertTrue(first, first.contains("\"id\":2"));
+    Assert.assertTrue(second, second.contains("\"id\":1") && second.contains("\"currentPrice\":3.0"));
+    subscriber.cancel();
+  }
+
   @Test
   public void testHandlePUT() {
     appRoute.run(HttpRequest.POST("/stocks")
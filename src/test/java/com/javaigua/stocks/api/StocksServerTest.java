@@ -0,0 +1,95 @@
+package com.javaigua.stocks.api;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+
+import org.scalatest.junit.JUnitSuite;
+import akka.testkit.javadsl.TestKit;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import com.javaigua.stocks.Domain.Stock;
+import com.javaigua.stocks.actors.StockRegistryActor;
+import com.javaigua.stocks.actors.StockRegistryMessages;
+import com.javaigua.stocks.store.CompactStockStore;
+import com.javaigua.stocks.store.StockSnapshotFile;
+
+/**
+ * A test suit for the start of a node, with persistence enabled.
+ */
+public class StocksServerTest extends JUnitSuite {
+
+  static Path dir;
+  static ActorSystem system;
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    // stock actors and the registry read the config on their own, system properties reach both
+    dir = Files.createTempDirectory("stocks");
+    System.setProperty("application.persistence.enabled", "on");
+    System.setProperty("application.snapshot-file.enabled", "on");
+    System.setProperty("application.snapshot-file.path", dir.resolve("stocks.snapshot").toString());
+    System.setProperty("akka.persistence.journal.leveldb.dir", dir.resolve("journal").toString());
+    System.setProperty("akka.persistence.snapshot-store.local.dir", dir.resolve("snapshots").toString());
+    ConfigFactory.invalidateCaches();
+    system = ActorSystem.create("stocks", ConfigFactory.load());
+  }
+
+  @AfterClass
+  public static void teardown() {
+    TestKit.shutdownActorSystem(system);
+    system = null;
+    for (String property : Arrays.asList("application.persistence.enabled", "application.snapshot-file.enabled",
+        "application.snapshot-file.path", "akka.persistence.journal.leveldb.dir", "akka.persistence.snapshot-store.local.dir"))
+      System.clearProperty(property);
+    ConfigFactory.invalidateCaches();
+  }
+
+  @Test
+  public void testDeletedStockStaysDeletedAfterRestart() throws Exception {
+    final Config config = ConfigFactory.load();
+    // the snapshot file of the last periodic write, taken before the stock was deleted
+    final CompactStockStore store = new CompactStockStore();
+    store.put(new Stock(42, "ABC", 2d, Instant.now()));
+    StockSnapshotFile.write(dir.resolve("stocks.snapshot"), Arrays.asList(StockSnapshotFile.segment(store)));
+
+    new TestKit(system) {{
+      final ActorRef before = system.actorOf(StockRegistryActor.props(1, "actors"), "before");
+      within(duration("3 seconds"), () -> {
+        before.tell(new StockRegistryMessages.CreateStock(new Stock(42, "ABC", 2d, Instant.now())), getRef());
+        expectMsgClass(StockRegistryMessages.ActionPerformed.class);
+        before.tell(new StockRegistryMessages.DeleteStock(42), getRef());
+        expectMsgPF(duration("1 seconds"), "Should delete stock", (msg) -> {
+          Assert.assertEquals("Stock 42 deleted.", ((StockRegistryMessages.ActionPerformed) msg).getDescription());
+          return null;
+        });
+        return null;
+      });
+      watch(before);
+      system.stop(before);
+      expectTerminated(before);
+
+      // the registry of the restarted node recovers its stock actors from the journal
+      system.eventStream().subscribe(getRef(), StockRegistryMessages.StockCreated.class);
+      final ActorRef after = system.actorOf(StockRegistryActor.props(1, "actors"), "after");
+      StocksServer.loadSnapshot(config, after);
+      expectNoMsg(duration("1 second"));
+
+      after.tell(new StockRegistryMessages.GetStock(42), getRef());
+      expectMsgPF(duration("1 seconds"), "Should not bring the deleted stock back", (msg) -> {
+        Assert.assertNull(((StockRegistryMessages.StockInfo) msg).getStock());
+        return null;
+      });
+    }};
+  }
+}
@@ -0,0 +1,168 @@
+package com.javaigua.stocks.serialization;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+import org.scalatest.junit.JUnitSuite;
+import akka.testkit.javadsl.TestKit;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import akka.actor.ActorSystem;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializer;
+
+import com.javaigua.stocks.Domain.Movers;
+import com.javaigua.stocks.Domain.Stock;
+import com.javaigua.stocks.Domain.StockStats;
+import com.javaigua.stocks.Domain.Stocks;
+import com.javaigua.stocks.actors.StockActor;
+import com.javaigua.stocks.actors.StockRegistryMessages;
+import com.javaigua.stocks.store.CandleSeries;
+import com.javaigua.stocks.store.CompactStockStore;
+import com.javaigua.stocks.store.PriceRingBuffer;
+
+/**
+ * A test suit for the StockMessageSerializer class.
+ */
+public class StockMessageSerializerTest extends JUnitSuite {
+
+  static ActorSystem system;
+  static Serialization serialization;
+
+  @BeforeClass
+  public static void setup() {
+    system = ActorSystem.create();
+    serialization = SerializationExtension.get(system);
+  }
+
+  @AfterClass
+  public static void teardown() {
+    TestKit.shutdownActorSystem(system);
+    system = null;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T roundTrip(T message, String manifest) {
+    final Serializer serializer = serialization.findSerializerFor(message);
+    Assert.assertTrue(serializer instanceof StockMessageSerializer);
+    return (T) serialization.deserialize(serialization.serialize(message).get(),
+      serializer.identifier(), manifest).get();
+  }
+
+  @Test
+  public void testSerializeStockMessages() {
+    final Stock stock = new Stock(1, "ABC", 2d, Instant.ofEpochSecond(1, 2));
+
+    final StockRegistryMessages.CreateStock createStock = roundTrip(new StockRegistryMessages.CreateStock(stock), "C1");
+    Assert.assertEquals(stock, createStock.getStock());
+    Assert.assertEquals(2d, createStock.getStock().getCurrentPrice(), 0d);
+    Assert.assertEquals(stock.getLastUpdate(), createStock.getStock().getLastUpdate());
+
+    final StockRegistryMessages.UpdateStock updateStock =
+      roundTrip(new StockRegistryMessages.UpdateStock(new Stock(1, null, 3d, null)), "U1");
+    Assert.assertNull(updateStock.getStock().getName());
+    Assert.assertNull(updateStock.getStock().getLastUpdate());
+
+    Assert.assertNull(roundTrip(new StockRegistryMessages.StockInfo(null), "I1").getStock());
+  }
+
+  @Test
+  public void testSerializeStockSnapshots() {
+    final Stock stock = new Stock(1, "ABC", 2d, Instant.ofEpochSecond(1, 2));
+    final PriceRingBuffer history = new PriceRingBuffer(2);
+    history.add(1000, 1d);
+    history.add(2000, 2d);
+    history.add(3000, 3d);
+    final CandleSeries candles = new CandleSeries(60000, 10);
+    candles.add(1000, 2d);
+    candles.add(2000, 4d);
+    candles.add(61000, 3d);
+
+    final StockActor.Snapshot snapshot =
+      roundTrip(new StockActor.Snapshot(stock, history, new CandleSeries[] {candles}), "SN1");
+    Assert.assertEquals(stock, snapshot.getStock());
+    Assert.assertEquals(2, snapshot.getHistory().capacity());
+    Assert.assertArrayEquals(new long[] {2000, 3000},
+      snapshot.getHistory().range(Long.MIN_VALUE, Long.MAX_VALUE).getTimestamps());
+    Assert.assertEquals(60000, snapshot.getCandles()[0].intervalMillis());
+    Assert.assertEquals(10, snapshot.getCandles()[0].capacity());
+    CandleSeries.Slice slice = snapshot.getCandles()[0].latest(10);
+    Assert.assertArrayEquals(new long[] {0, 60000}, slice.getStarts());
+    Assert.assertArrayEquals(new double[] {4d, 3d}, slice.getHighs(), 0d);
+    Assert.assertArrayEquals(new int[] {2, 1}, slice.getTicks());
+  }
+
+  @Test
+  public void testSerializePriceTicks() {
+    final StockRegistryMessages.PriceTicks ticks = roundTrip(new StockRegistryMessages.PriceTicks(Arrays.asList(
+      new StockRegistryMessages.PriceTick(1, 2.5d, 1000),
+      new StockRegistryMessages.PriceTick(2, 3.5d, 2000))), "TB1");
+    Assert.assertEquals(2, ticks.getTicks().size());
+    Assert.assertEquals(2, ticks.getTicks().get(1).getId());
+    Assert.assertEquals(3.5d, ticks.getTicks().get(1).getPrice(), 0d);
+    Assert.assertEquals(2000, ticks.getTicks().get(1).getTimestamp());
+
+    final StockRegistryMessages.TicksAccepted accepted = roundTrip(new StockRegistryMessages.TicksAccepted(3, 1, 2), "TA1");
+    Assert.assertEquals(3, accepted.getAccepted());
+    Assert.assertEquals(1, accepted.getUnknown());
+    Assert.assertEquals(2, accepted.getRejected());
+
+    final StockRegistryMessages.GetCandles getCandles = roundTrip(new StockRegistryMessages.GetCandles(1, 60000, 5), "K1");
+    Assert.assertEquals(60000, getCandles.getIntervalMillis());
+    Assert.assertEquals(5, getCandles.getLimit());
+  }
+
+  @Test
+  public void testSerializeBatchMessages() {
+    final Stock stock = new Stock(1, "ABC", 2d, Instant.ofEpochSecond(1, 2));
+
+    final StockRegistryMessages.CreateStocks createStocks = roundTrip(new StockRegistryMessages.CreateStocks(
+      Arrays.asList(stock, new Stock(2, null, null, null))), "CB1");
+    Assert.assertEquals(Arrays.asList(stock, new Stock(2, null, null, null)), createStocks.getStocks());
+    Assert.assertNull(createStocks.getStocks().get(1).getCurrentPrice());
+
+    final StockRegistryMessages.StocksByIds stocksByIds = roundTrip(
+      new StockRegistryMessages.StocksByIds(Arrays.asList(stock), Arrays.asList(5, 6)), "BI1");
+    Assert.assertEquals(Arrays.asList(stock), stocksByIds.getStocks());
+    Assert.assertEquals(Arrays.asList(5, 6), stocksByIds.getMissingIds());
+
+    final StockRegistryMessages.ActionsPerformed actions = roundTrip(new StockRegistryMessages.ActionsPerformed(
+      Arrays.asList(new StockRegistryMessages.ActionPerformed("Stock 1 created."))), "AB1");
+    Assert.assertEquals("Stock 1 created.", actions.getActions().get(0).getDescription());
+  }
+
+  @Test
+  public void testSerializeQueries() {
+    final Stock stock = new Stock(1, "ABC", 2d, Instant.ofEpochSecond(1, 2));
+
+    final StockRegistryMessages.GetStocksPage page = roundTrip(new StockRegistryMessages.GetStocksPage(
+      CompactStockStore.Order.PRICE, 2000, 7, 1d, Double.POSITIVE_INFINITY, Long.MIN_VALUE, 5000, 20), "PG1");
+    Assert.assertEquals(CompactStockStore.Order.PRICE, page.getOrder());
+    Assert.assertEquals(2000, page.getAfterKey());
+    Assert.assertEquals(7, page.getAfterId());
+    Assert.assertEquals(Double.POSITIVE_INFINITY, page.getMaxPrice(), 0d);
+    Assert.assertEquals(5000, page.getTo());
+    Assert.assertEquals(20, page.getLimit());
+
+    final StockRegistryMessages.SearchStocks search = roundTrip(new StockRegistryMessages.SearchStocks("ab", 7), "Q1");
+    Assert.assertEquals("ab", search.getQuery());
+    Assert.assertEquals(7, search.getLimit());
+
+    final Movers movers = roundTrip(new Movers("gainers", Arrays.asList(stock), Arrays.asList(1.5d)), "MV1");
+    Assert.assertEquals("gainers", movers.getBy());
+    Assert.assertEquals(Arrays.asList(stock), movers.getStocks());
+    Assert.assertEquals(Arrays.asList(1.5d), movers.getChanges());
+
+    final StockStats stats = roundTrip(new StockStats(3, 2, 1d, null, 1.5d, 9), "SS1");
+    Assert.assertEquals(3, stats.getCount());
+    Assert.assertEquals(1d, stats.getMinPrice(), 0d);
+    Assert.assertNull(stats.getMaxPrice());
+    Assert.assertEquals(9, stats.getUpdatesLastMinute());
+
+    Assert.assertEquals(Arrays.asList(stock), roundTrip(new Stocks(Arrays.asList(stock)), "LS1").getStocks());
+  }
+}